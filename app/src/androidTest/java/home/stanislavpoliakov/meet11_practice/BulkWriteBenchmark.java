@@ -0,0 +1,116 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Сравнение пропускной способности пакетных операций ContentProvider с поэлементными: вставка
+ * bulkInsert (одна транзакция и одно уведомление на пакет) против insert на каждую запись,
+ * удаление по условию "id IN (?, ...)" (deleteEntriesByIds) против delete по адресу каждой записи.
+ * Выполняется на устройстве через ContentResolver - тем же путем, что и у внешних клиентов.
+ * Результат (медиана по REPEATS запускам, записей в секунду) пишется в лог:
+ * adb logcat -s meet11_benchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkWriteBenchmark {
+    private static final String TAG = "meet11_benchmark";
+    private static final int[] SIZES = {100, 1000};
+    private static final int REPEATS = 5;
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+    }
+
+    @Test
+    public void bulkVersusPerRow() {
+        for (int size : SIZES) {
+            long[] perRowInsert = new long[REPEATS];
+            long[] bulkInsert = new long[REPEATS];
+            long[] perRowDelete = new long[REPEATS];
+            long[] bulkDelete = new long[REPEATS];
+            for (int i = 0; i < REPEATS; i++) {
+                ContentValues[] values = values(size);
+
+                long start = System.nanoTime();
+                List<Long> ids = new ArrayList<>(size);
+                for (ContentValues row : values) {
+                    ids.add(ContentUris.parseId(resolver.insert(MyContentProvider.CONTENT_URI, row)));
+                }
+                perRowInsert[i] = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (long id : ids) {
+                    resolver.delete(ContentUris.withAppendedId(MyContentProvider.CONTENT_URI, id), null, null);
+                }
+                perRowDelete[i] = System.nanoTime() - start;
+
+                Set<Long> before = ids();
+                start = System.nanoTime();
+                assertEquals(size, resolver.bulkInsert(MyContentProvider.CONTENT_URI, values));
+                bulkInsert[i] = System.nanoTime() - start;
+
+                Set<Long> inserted = ids();
+                inserted.removeAll(before);
+                String[] selectionArgs = new String[inserted.size()];
+                int arg = 0;
+                for (long id : inserted) selectionArgs[arg++] = Long.toString(id);
+                start = System.nanoTime();
+                assertEquals(size, resolver.delete(MyContentProvider.CONTENT_URI,
+                        MyContentProvider.selectionIdIn(selectionArgs.length), selectionArgs));
+                bulkDelete[i] = System.nanoTime() - start;
+            }
+            Log.i(TAG, "rows=" + size
+                    + " insert=" + rate(size, perRowInsert) + "/s bulkInsert=" + rate(size, bulkInsert) + "/s"
+                    + " delete=" + rate(size, perRowDelete) + "/s bulkDelete=" + rate(size, bulkDelete) + "/s");
+        }
+    }
+
+    private static ContentValues[] values(int size) {
+        ContentValues[] values = new ContentValues[size];
+        for (int i = 0; i < size; i++) {
+            // id = 0: база сформирует новый id
+            values[i] = ConvertUtils.convertEntryToValues(new Entry("Title " + i, "Benchmark text " + i));
+        }
+        return values;
+    }
+
+    /**
+     * @return id всех записей таблицы (вне измерения: нужны, чтобы найти записи пакетной вставки)
+     */
+    private Set<Long> ids() {
+        Set<Long> ids = new HashSet<>();
+        try (Cursor cursor = resolver.query(MyContentProvider.CONTENT_URI, new String[] {"id"}, null, null, null)) {
+            while (cursor.moveToNext()) ids.add(cursor.getLong(0));
+        }
+        return ids;
+    }
+
+    /**
+     * @return медианная пропускная способность, записей в секунду
+     */
+    private static long rate(int size, long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return size * 1_000_000_000L / Math.max(1, sorted[sorted.length / 2]);
+    }
+}
@@ -0,0 +1,167 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Время кадров списка при частой правке записей: EDITS раз подряд изменяется по EDITS_PER_STEP
+ * видимых записей - по очереди название, текст или время изменения, как при правке и синхронизации.
+ * Сценарий выполняется дважды: с перерисовкой измененного элемента целиком (как до payload) и с
+ * обновлением только измененных полей (DiffCall.CHANGED_*). Длительность кадров берется из
+ * FrameMetrics (TOTAL_DURATION: от ввода до отправки кадра на экран). Результат (медиана, 90 и 99
+ * перцентили, количество кадров длиннее 16 мс) пишется в лог: adb logcat -s meet11_benchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class EditFramesBenchmark {
+    private static final String TAG = "meet11_benchmark";
+    private static final int ENTRIES = 200;
+    private static final int VISIBLE = 8;
+    private static final int EDITS = 300;
+    private static final int EDITS_PER_STEP = 3;
+    private static final int TEXT_LENGTH = 1000;
+    private static final long FRAME_BUDGET_NS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+    private final Random random = new Random(42);
+    private Activity activity;
+    private HandlerThread metricsThread;
+
+    @Before
+    public void setUp() {
+        Intent intent = new Intent(InstrumentationRegistry.getTargetContext(), MainActivity.class)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        activity = instrumentation.startActivitySync(intent);
+        metricsThread = new HandlerThread("frame-metrics");
+        metricsThread.start();
+    }
+
+    @After
+    public void tearDown() {
+        metricsThread.quitSafely();
+        activity.finish();
+    }
+
+    @Test
+    public void fullVersusPartialRebind() throws Exception {
+        long[] full = measure(false);
+        long[] partial = measure(true);
+        log("full", full);
+        log("partial", partial);
+        assertTrue(full.length > 0 && partial.length > 0);
+    }
+
+    /**
+     * Метод прогона сценария на новом адаптере списка MainActivity
+     * @param isPartialRebind обновлять только измененные поля элемента
+     * @return длительности кадров сценария в наносекундах, по возрастанию
+     */
+    private long[] measure(boolean isPartialRebind) throws Exception {
+        List<Entry> snapshot = new ArrayList<>(ENTRIES);
+        for (int id = 1; id <= ENTRIES; id++) snapshot.add(entry(id, "Title " + id, text(), id));
+
+        MyAdapter[] adapter = new MyAdapter[1];
+        instrumentation.runOnMainSync(() -> {
+            adapter[0] = new MyAdapter(activity, snapshot);
+            adapter[0].setPartialRebind(isPartialRebind);
+            RecyclerView recyclerView = activity.findViewById(R.id.recyclerView);
+            recyclerView.setAdapter(adapter[0]);
+        });
+        instrumentation.waitForIdleSync();
+
+        List<Long> frames = new ArrayList<>();
+        Window.OnFrameMetricsAvailableListener listener = (window, metrics, dropped) -> {
+            synchronized (frames) {
+                frames.add(metrics.getMetric(FrameMetrics.TOTAL_DURATION));
+            }
+        };
+        instrumentation.runOnMainSync(() -> activity.getWindow()
+                .addOnFrameMetricsAvailableListener(listener, new Handler(metricsThread.getLooper())));
+
+        for (int step = 0; step < EDITS; step++) {
+            for (int i = 0; i < EDITS_PER_STEP; i++) {
+                int position = random.nextInt(VISIBLE);
+                snapshot.set(position, edit(snapshot.get(position), step * EDITS_PER_STEP + i));
+            }
+            CountDownLatch applied = new CountDownLatch(1);
+            List<Entry> newData = new ArrayList<>(snapshot);
+            instrumentation.runOnMainSync(() -> adapter[0].onNewData(newData, applied::countDown));
+            assertTrue(applied.await(5, TimeUnit.SECONDS));
+            instrumentation.waitForIdleSync();
+        }
+
+        // Дожидаемся окончания анимаций замены элементов
+        Thread.sleep(500);
+        instrumentation.runOnMainSync(() -> activity.getWindow().removeOnFrameMetricsAvailableListener(listener));
+        synchronized (frames) {
+            long[] durations = new long[frames.size()];
+            for (int i = 0; i < durations.length; i++) durations[i] = frames.get(i);
+            Arrays.sort(durations);
+            return durations;
+        }
+    }
+
+    /**
+     * @return копия записи, в которой изменено одно поле: название, текст или время изменения
+     */
+    private Entry edit(Entry entry, int edit) {
+        switch (edit % 3) {
+            case 0:
+                return entry(entry.getId(), "Title " + entry.getId() + "." + edit, entry.getPreview(),
+                        entry.getTimeStamp());
+            case 1:
+                return entry(entry.getId(), entry.getTitle(), text(), entry.getTimeStamp());
+            default:
+                return entry(entry.getId(), entry.getTitle(), entry.getPreview(), entry.getTimeStamp() + 60_000);
+        }
+    }
+
+    private static Entry entry(int id, String title, String text, long timeStamp) {
+        return new Entry(id, title, text, null, Entry.makePreview(text), timeStamp, null);
+    }
+
+    private String text() {
+        StringBuilder text = new StringBuilder(TEXT_LENGTH);
+        while (text.length() < TEXT_LENGTH) {
+            text.append("w").append(Integer.toString(random.nextInt(5000), 36)).append(' ');
+        }
+        return text.toString();
+    }
+
+    private static void log(String mode, long[] durations) {
+        int janky = 0;
+        for (long duration : durations) if (duration > FRAME_BUDGET_NS) janky++;
+        Log.i(TAG, "edits=" + EDITS + "x" + EDITS_PER_STEP + " mode=" + mode + " frames=" + durations.length
+                + " p50=" + percentile(durations, 50) / 1000 + "us"
+                + " p90=" + percentile(durations, 90) / 1000 + "us"
+                + " p99=" + percentile(durations, 99) / 1000 + "us"
+                + " janky=" + janky);
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+}
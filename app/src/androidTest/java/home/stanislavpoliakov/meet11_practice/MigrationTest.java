@@ -0,0 +1,152 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.db.framework.FrameworkSQLiteOpenHelperFactory;
+import android.arch.persistence.room.testing.MigrationTestHelper;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Проверка цепочки миграций (EntryMigrations) от первой опубликованной схемы (schemas/.../1.json)
+ * до текущей (ее schemas/.../LATEST_VERSION.json Room экспортирует при компиляции): данные и
+ * счетчик AUTOINCREMENT сохраняются, схема совпадает с той, что ожидает Room, дублирующий индекс
+ * удален, а фоновое заполнение превью и полнотекстового индекса доходит до конца
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationTest {
+    private static final String DATABASE = "migration_test";
+    private static final int LATEST_VERSION = 8;
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(InstrumentationRegistry.getInstrumentation(),
+            EntryDatabase.class.getCanonicalName(), new FrameworkSQLiteOpenHelperFactory());
+
+    @Test
+    public void migrateFromVersion1KeepsData() throws IOException {
+        String longText = repeat("long text ", 50);
+        SupportSQLiteDatabase db = helper.createDatabase(DATABASE, 1);
+        db.execSQL("INSERT INTO entries (id, title, entry_text) VALUES (1, 'first', 'short text')");
+        db.execSQL("INSERT INTO entries (id, title, entry_text) VALUES (7, 'second', ?)", new Object[] {longText});
+        db.close();
+
+        db = helper.runMigrationsAndValidate(DATABASE, LATEST_VERSION, true, EntryMigrations.ALL);
+
+        try (Cursor cursor = db.query("SELECT id, title, entry_text, text_file, timestamp, text_deflated "
+                + "FROM entries ORDER BY id")) {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(1, cursor.getInt(0));
+            assertEquals("first", cursor.getString(1));
+            assertEquals("short text", cursor.getString(2));
+            assertTrue(cursor.isNull(3));
+            assertEquals(0, cursor.getLong(4));
+            cursor.moveToNext();
+            assertEquals(7, cursor.getInt(0));
+            // Старые записи не пересжимаются: текст остается в entry_text
+            assertEquals(longText, cursor.getString(2));
+            assertTrue(cursor.isNull(5));
+        }
+    }
+
+    @Test
+    public void sequenceSurvivesDeletedTopIds() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DATABASE, 1);
+        for (int i = 1; i <= 10; i++) db.execSQL("INSERT INTO entries (title) VALUES ('entry" + i + "')");
+        db.execSQL("DELETE FROM entries WHERE id > 7");
+        db.close();
+
+        // Счетчик (10) больше MAX(id) (7): без переноса счетчика следующий id был бы 8
+        db = helper.runMigrationsAndValidate(DATABASE, LATEST_VERSION, true, EntryMigrations.ALL);
+        assertEquals(11, insertEntry(db));
+    }
+
+    @Test
+    public void sequenceSurvivesEmptyTable() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DATABASE, 1);
+        for (int i = 1; i <= 5; i++) db.execSQL("INSERT INTO entries (title) VALUES ('entry" + i + "')");
+        db.execSQL("DELETE FROM entries");
+        db.close();
+
+        // Из пустой таблицы нечего копировать, но id удаленных записей повторно не выдаются
+        db = helper.runMigrationsAndValidate(DATABASE, LATEST_VERSION, true, EntryMigrations.ALL);
+        assertEquals(6, insertEntry(db));
+    }
+
+    @Test
+    public void duplicateIdIndexIsDropped() throws IOException {
+        helper.createDatabase(DATABASE, 1).close();
+        SupportSQLiteDatabase db = helper.runMigrationsAndValidate(DATABASE, LATEST_VERSION, true,
+                EntryMigrations.ALL);
+
+        try (Cursor cursor = db.query("SELECT name FROM sqlite_master WHERE type = 'index' "
+                + "AND tbl_name = 'entries' AND name LIKE 'index_%' ORDER BY name")) {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("index_entries_timestamp", cursor.getString(0));
+        }
+    }
+
+    @Test
+    public void backfillRunsInBatchesToCompletion() throws IOException {
+        int rows = 25;
+        SupportSQLiteDatabase db = helper.createDatabase(DATABASE, 1);
+        for (int id = 1; id <= rows; id++) {
+            db.execSQL("INSERT INTO entries (id, title, entry_text) VALUES (?, ?, ?)",
+                    new Object[] {id, "title" + id, "body word" + id + " " + repeat("x", Entry.PREVIEW_LENGTH)});
+        }
+        db.close();
+        db = helper.runMigrationsAndValidate(DATABASE, LATEST_VERSION, true, EntryMigrations.ALL);
+
+        // Миграция только поставила задачи: превью еще нет
+        try (Cursor cursor = db.query("SELECT COUNT(*) FROM entries WHERE preview IS NULL")) {
+            cursor.moveToFirst();
+            assertEquals(rows, cursor.getInt(0));
+        }
+
+        // Пакеты по 10 записей: 3 пакета превью и 3 пакета индекса, затем работы нет
+        int batches = 0;
+        while (EntryMigrations.backfillBatch(db, 10)) batches++;
+        assertEquals(6, batches);
+
+        try (Cursor cursor = db.query("SELECT preview FROM entries WHERE id = 3")) {
+            cursor.moveToFirst();
+            assertEquals(Entry.PREVIEW_LENGTH, cursor.getString(0).length());
+            assertTrue(cursor.getString(0).startsWith("body word3 "));
+        }
+        try (Cursor cursor = EntryFts.search(db, "word17", 10)) {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(17, cursor.getInt(0));
+        }
+        try (Cursor cursor = db.query("SELECT COUNT(*) FROM backfill_progress")) {
+            cursor.moveToFirst();
+            assertEquals(0, cursor.getInt(0));
+        }
+    }
+
+    /**
+     * @return id новой записи, выданный AUTOINCREMENT
+     */
+    private static long insertEntry(SupportSQLiteDatabase db) {
+        db.execSQL("INSERT INTO entries (title, timestamp) VALUES ('new', 0)");
+        try (Cursor cursor = db.query("SELECT last_insert_rowid()")) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+
+    private static String repeat(String part, int times) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < times; i++) result.append(part);
+        return result.toString();
+    }
+}
@@ -0,0 +1,162 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.arch.persistence.room.Room;
+import android.arch.persistence.room.RoomDatabase;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Время отклика чтений и записей при смешанной нагрузке: READERS клиентов читают страницы списка
+ * со случайного места, один клиент в это же время изменяет записи. Сравниваются две схемы:
+ * до перехода на WAL - журнал TRUNCATE и один поток базы данных для чтений и записей, и текущая
+ * схема DatabaseManager - WAL, поток записи и пул из READER_THREADS потоков чтения. Каждый
+ * клиент ждет результата своей операции, как Activity и ContentProvider. Результат (медиана и
+ * 99 перцентиль по чтениям и записям, количество операций) пишется в лог:
+ * adb logcat -s meet11_benchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class MixedLoadBenchmark {
+    private static final String TAG = "meet11_benchmark";
+    private static final String DATABASE = "mixed_benchmark";
+    private static final int ROWS = 10_000;
+    private static final int PAGE_SIZE = 50;
+    private static final int READERS = 3;
+    private static final int READER_THREADS = 3;
+    private static final long DURATION_MS = 5000;
+
+    private Context context;
+    private EntryDatabase database;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+    }
+
+    @After
+    public void tearDown() {
+        if (database != null) database.close();
+        context.deleteDatabase(DATABASE);
+    }
+
+    @Test
+    public void singleThreadVersusWal() throws Exception {
+        long[][] before = measure(RoomDatabase.JournalMode.TRUNCATE, 0);
+        long[][] after = measure(RoomDatabase.JournalMode.WRITE_AHEAD_LOGGING, READER_THREADS);
+        log("truncate+single", before);
+        log("wal+readers", after);
+        assertTrue(before[0].length > 0 && after[0].length > 0);
+    }
+
+    /**
+     * Метод прогона нагрузки на заново заполненной базе
+     * @param journalMode режим журнала
+     * @param readerThreads количество потоков чтения (0 - чтения в потоке записи)
+     * @return времена чтений и записей в наносекундах, по возрастанию
+     */
+    private long[][] measure(RoomDatabase.JournalMode journalMode, int readerThreads) throws Exception {
+        if (database != null) database.close();
+        context.deleteDatabase(DATABASE);
+        database = Room.databaseBuilder(context, EntryDatabase.class, DATABASE)
+                .setJournalMode(journalMode)
+                .build();
+        EntryDAO dao = database.getEntryDAO();
+
+        Random random = new Random(42);
+        List<Entry> entries = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) entries.add(new Entry("Title " + i, text(random)));
+        dao.insertEntries(entries);
+
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        ExecutorService readers = (readerThreads == 0) ? writer : Executors.newFixedThreadPool(readerThreads);
+        ExecutorService clients = Executors.newFixedThreadPool(READERS + 1);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        try {
+            List<Future<List<Long>>> reads = new ArrayList<>();
+            for (int i = 0; i < READERS; i++) {
+                Random clientRandom = new Random(i);
+                reads.add(clients.submit(() -> run(deadline, () -> readers.submit(() -> {
+                    try (Cursor cursor = dao.getPreviewsAfter(clientRandom.nextInt(ROWS - PAGE_SIZE), PAGE_SIZE)) {
+                        return cursor.getCount();
+                    }
+                }).get())));
+            }
+            Random writeRandom = new Random(READERS);
+            Future<List<Long>> writes = clients.submit(() -> run(deadline, () -> writer.submit(() -> {
+                int id = 1 + writeRandom.nextInt(ROWS);
+                Entry entry = new Entry("Title " + id, text(writeRandom), id);
+                entry.setTimeStamp(System.currentTimeMillis());
+                return dao.updateEntry(entry);
+            }).get()));
+
+            List<Long> readTimes = new ArrayList<>();
+            for (Future<List<Long>> read : reads) readTimes.addAll(read.get());
+            return new long[][] {sorted(readTimes), sorted(writes.get())};
+        } finally {
+            clients.shutdownNow();
+            readers.shutdownNow();
+            writer.shutdownNow();
+        }
+    }
+
+    private interface Operation {
+        Object run() throws Exception;
+    }
+
+    /**
+     * @return времена выполнения операции клиентом в наносекундах до наступления deadline
+     */
+    private static List<Long> run(long deadline, Operation operation) throws Exception {
+        List<Long> times = new ArrayList<>();
+        while (System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            operation.run();
+            times.add(System.nanoTime() - start);
+        }
+        return times;
+    }
+
+    private static long[] sorted(List<Long> times) {
+        long[] result = new long[times.size()];
+        for (int i = 0; i < result.length; i++) result[i] = times.get(i);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static String text(Random random) {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 200) text.append("w").append(Integer.toString(random.nextInt(5000), 36)).append(' ');
+        return text.toString();
+    }
+
+    private static void log(String mode, long[][] times) {
+        Log.i(TAG, "rows=" + ROWS + " readers=" + READERS + " mode=" + mode
+                + " reads=" + times[0].length + " read_p50=" + percentile(times[0], 50) / 1000 + "us"
+                + " read_p99=" + percentile(times[0], 99) / 1000 + "us"
+                + " writes=" + times[1].length + " write_p50=" + percentile(times[1], 50) / 1000 + "us"
+                + " write_p99=" + percentile(times[1], 99) / 1000 + "us");
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+}
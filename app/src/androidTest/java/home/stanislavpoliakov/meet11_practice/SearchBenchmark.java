@@ -0,0 +1,156 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.db.SupportSQLiteStatement;
+import android.arch.persistence.room.Room;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Сравнение времени поиска по полнотекстовому индексу (EntryFts, MATCH) и полным перебором
+ * таблицы (LIKE '%q%') на 10 000, 100 000 и 1 000 000 записей. Выполняется на устройстве, потому
+ * что FTS4 - часть SQLite платформы. Таблица дополняется до следующего размера, а не
+ * заполняется заново. Результат (медиана по REPEATS запускам) пишется в лог:
+ * adb logcat -s meet11_benchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class SearchBenchmark {
+    private static final String TAG = "meet11_benchmark";
+    private static final String DATABASE = "search_benchmark";
+    private static final int[] SIZES = {10_000, 100_000, 1_000_000};
+    private static final int REPEATS = 9;
+    private static final int LIMIT = 50;
+
+    // Словарь записей: частота слова убывает с его номером, как в обычном тексте
+    private static final int VOCABULARY = 5000;
+    private static final int WORDS_PER_TITLE = 3;
+    private static final int WORDS_PER_TEXT = 30;
+
+    private Context context;
+    private EntryDatabase database;
+    private SupportSQLiteDatabase db;
+    private final Random random = new Random(42);
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE);
+        database = Room.databaseBuilder(context, EntryDatabase.class, DATABASE).build();
+        db = database.getOpenHelper().getWritableDatabase();
+        db.execSQL(EntryFts.CREATE);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+        context.deleteDatabase(DATABASE);
+    }
+
+    @Test
+    public void likeVersusMatch() throws Exception {
+        int rows = 0;
+        for (int size : SIZES) {
+            fill(rows, size);
+            rows = size;
+
+            // Частое и редкое слово
+            for (String word : new String[] {word(3), word(VOCABULARY - 3)}) {
+                long like = median(() -> searchLike(word));
+                long match = median(() -> searchMatch(word));
+                Log.i(TAG, "rows=" + size + " word=" + word
+                        + " like=" + like / 1000 + "us match=" + match / 1000 + "us");
+            }
+        }
+        assertTrue(searchMatch(word(3)) > 0);
+    }
+
+    /**
+     * Метод дополнения таблицы (и индекса) до заданного количества записей одной транзакцией
+     */
+    private void fill(int from, int to) throws Exception {
+        db.beginTransaction();
+        try (SupportSQLiteStatement insertEntry = db.compileStatement(
+                     "INSERT INTO entries(id, title, entry_text, preview, timestamp) VALUES (?, ?, ?, ?, ?)");
+             SupportSQLiteStatement insertFts = db.compileStatement(
+                     "INSERT INTO entries_fts(docid, title, body) VALUES (?, ?, ?)")) {
+            for (int id = from + 1; id <= to; id++) {
+                String title = sentence(WORDS_PER_TITLE);
+                String text = sentence(WORDS_PER_TEXT);
+                insertEntry.bindLong(1, id);
+                insertEntry.bindString(2, title);
+                insertEntry.bindString(3, text);
+                insertEntry.bindString(4, text);
+                insertEntry.bindLong(5, System.currentTimeMillis());
+                insertEntry.executeInsert();
+                insertFts.bindLong(1, id);
+                insertFts.bindString(2, title);
+                insertFts.bindString(3, text);
+                insertFts.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private int searchLike(String word) {
+        String pattern = "%" + word + "%";
+        try (Cursor cursor = db.query("SELECT id FROM entries WHERE title LIKE ? OR entry_text LIKE ? "
+                + "LIMIT " + LIMIT, new Object[] {pattern, pattern})) {
+            return cursor.getCount();
+        }
+    }
+
+    private int searchMatch(String word) {
+        try (Cursor cursor = EntryFts.search(db, word, LIMIT)) {
+            return cursor.getCount();
+        }
+    }
+
+    private interface Search {
+        int run();
+    }
+
+    /**
+     * @return медиана времени поиска в наносекундах
+     */
+    private static long median(Search search) {
+        search.run();
+        long[] times = new long[REPEATS];
+        for (int i = 0; i < REPEATS; i++) {
+            long start = System.nanoTime();
+            search.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[REPEATS / 2];
+    }
+
+    private String sentence(int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sentence.append(' ');
+            // Квадрат равномерного числа смещает выбор к началу словаря
+            double x = random.nextDouble();
+            sentence.append(word((int) (x * x * VOCABULARY)));
+        }
+        return sentence.toString();
+    }
+
+    private static String word(int index) {
+        return "w" + Integer.toString(index, 36) + "x";
+    }
+}
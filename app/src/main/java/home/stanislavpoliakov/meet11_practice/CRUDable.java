@@ -1,12 +1,16 @@
 package home.stanislavpoliakov.meet11_practice;
 
 import android.os.Bundle;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Интерфейс взаимодействия фрагментов и Activity по схеме Fragment -> Activity
+ * Методы не блокируют вызывающий поток: изменения в базе данных выполняются асинхронно, а результат
+ * доступен через возвращаемый CompletableFuture
  */
 public interface CRUDable {
-    void create(Entry entry);
-    void update(Bundle entryInfo);
-    void delete(Entry entry);
+    CompletableFuture<Entry> read(int id);
+    CompletableFuture<Entry> create(Entry entry);
+    CompletableFuture<Integer> update(Bundle entryInfo);
+    CompletableFuture<Integer> delete(Entry entry);
 }
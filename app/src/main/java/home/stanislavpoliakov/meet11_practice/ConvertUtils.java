@@ -4,6 +4,7 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BiConsumer;
 
 /**
  * Класс для конвертации форматов. Содержит статические методы. Ненаследуемый
@@ -12,17 +13,38 @@ public final class ConvertUtils {
     private static final String TITLE = "title";
     private static final String TEXT = "entry_text";
     private static final String ID = "id";
+    private static final String TEXT_FILE = "text_file";
+    private static final String PREVIEW = "preview";
+    private static final String TIMESTAMP = "timestamp";
+    private static final String TEXT_DEFLATED = "text_deflated";
+
+    // Столбцы таблицы entries в порядке SELECT *
+    public static final String[] ENTRY_COLUMNS = {ID, TITLE, TEXT, TEXT_FILE, PREVIEW, TIMESTAMP, TEXT_DEFLATED};
+
+    /**
+     * Метод частичного обновления записи по ContentValues (update ContentProvider): меняются только
+     * поля, ключи которых есть в values. id берется из URI, а не из values
+     * @param contentValues новые значения полей
+     * @param entry запись, прочитанная из базы
+     */
+    public static void applyValuesToEntry(ContentValues contentValues, Entry entry) {
+        if (contentValues.containsKey(TITLE)) entry.setTitle(contentValues.getAsString(TITLE));
+        if (contentValues.containsKey(TEXT)) entry.setText(contentValues.getAsString(TEXT));
+    }
 
     /**
      * Метод преобразования форматов. Используется для создания (insert) и обновления (update)
      * записей в базе данных на участке взаимодействия ContentProvider -> Database
+     * Внешние клиенты (например, при bulkInsert) могут не передавать id - тогда id = 0, и его
+     * сформирует база данных (autoincrement)
      * @param contentValues значения в формате ContentValues
      * @return объект записи Entry
      */
     public static Entry convertValuesToEntry(ContentValues contentValues) {
+        Integer id = contentValues.getAsInteger(ID);
         Entry entry = new Entry(contentValues.getAsString(TITLE),
                 contentValues.getAsString(TEXT),
-                contentValues.getAsInteger(ID));
+                id == null ? 0 : id);
         return entry;
     }
 
@@ -41,35 +63,141 @@ public final class ConvertUtils {
         return contentValues;
     }
 
+    /**
+     * Метод преобразования форматов. Используется для ответа ContentProvider на запрос одной записи
+     * (из кэша записей). Столбец entry_text содержит полный текст, даже если он вынесен в файл
+     * или сжат
+     * @param entry объект записи Entry
+     * @param columns запрошенные столбцы
+     * @return значения строки в порядке столбцов
+     */
+    public static Object[] convertEntryToRow(Entry entry, String[] columns) {
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            switch (columns[i]) {
+                case ID: row[i] = entry.getId(); break;
+                case TITLE: row[i] = entry.getTitle(); break;
+                case TEXT: row[i] = entry.getText(); break;
+                case TEXT_FILE: row[i] = entry.getTextFile(); break;
+                case PREVIEW: row[i] = entry.getPreview(); break;
+                case TIMESTAMP: row[i] = entry.getTimeStamp(); break;
+                case TEXT_DEFLATED: row[i] = entry.getDeflatedText(); break;
+                default: throw new IllegalArgumentException("Unknown column " + columns[i]);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Индексы столбцов курсора записей. Определяются один раз на курсор, а не на каждую строку.
+     * Столбцов текста, файла текста, сжатого текста, превью и времени может не быть (список читает
+     * только id, title, preview и timestamp, внешний клиент - любой набор столбцов), тогда индекс = -1
+     */
+    private static class EntryColumns {
+        private final int id, title, text, textFile, preview, timestamp, textDeflated;
+
+        private EntryColumns(Cursor cursor) {
+            id = cursor.getColumnIndexOrThrow(ID);
+            title = cursor.getColumnIndexOrThrow(TITLE);
+            text = cursor.getColumnIndex(TEXT);
+            textFile = cursor.getColumnIndex(TEXT_FILE);
+            preview = cursor.getColumnIndex(PREVIEW);
+            timestamp = cursor.getColumnIndex(TIMESTAMP);
+            textDeflated = cursor.getColumnIndex(TEXT_DEFLATED);
+        }
+
+        /**
+         * Метод чтения записи из текущей строки курсора. Запись создается в том виде, в котором она
+         * хранится в базе: превью не пересчитывается, а большой текст не читается - Entry загрузит
+         * его из файла при первом обращении. Сжатый текст тоже остается сжатым до первого обращения
+         */
+        private Entry read(Cursor cursor) {
+            return new Entry(cursor.getInt(id),
+                    cursor.getString(title),
+                    getString(cursor, text),
+                    getString(cursor, textFile),
+                    getString(cursor, preview),
+                    (timestamp == -1) ? 0 : cursor.getLong(timestamp),
+                    (textDeflated == -1) ? null : cursor.getBlob(textDeflated));
+        }
+
+        private static String getString(Cursor cursor, int index) {
+            return (index == -1) ? null : cursor.getString(index);
+        }
+    }
+
     /**
      * Метод преборазования форматов. Используется для преборазования полученных данных из
-     * базы данных (SELECT * FROM entries) в список записей, который мы отправляем в Handler, а
-     * затем в Activity при инициализации RecyclerView, а затем при отрисовке RecyclerView
+     * базы данных (страница записей, записи из журнала изменений) в список записей
+     * Курсор может содержать не все столбцы: список читает только id, title и preview, и тогда
+     * текст записи не загружается вовсе
      * @param cursor объект Cursor со списком найденных элементов базы данных
      * @return список записей в формате List<Entry>
      */
     public static List<Entry> convertCursorToEntryList(Cursor cursor) {
-        List<Entry> entryList = new ArrayList<>();
-
-        // Перемещаем значение курсора в начало
-        cursor.moveToFirst();
+        List<Entry> entryList = new ArrayList<>(cursor.getCount());
+        EntryColumns columns = new EntryColumns(cursor);
+        while (cursor.moveToNext()) entryList.add(columns.read(cursor));
+        cursor.close();
+        return entryList;
+    }
 
-        // Пока курсор не указывает "за последний элемент", то есть пока есть элементы...
-        while (!cursor.isAfterLast()) {
+    /**
+     * Метод потокового преобразования форматов. Записи отдаются частями по chunkSize штук по мере
+     * чтения курсора, не дожидаясь конца результата: первую часть можно показать сразу, пока
+     * читаются остальные. Курсор закрывается
+     * @param cursor объект Cursor со списком найденных элементов базы данных
+     * @param chunkSize размер части
+     * @param onChunk получатель частей. Последняя часть может быть меньше chunkSize (или пустой,
+     *                если записей нет вовсе); второй аргумент - признак последней части
+     * @return общее количество записей
+     */
+    public static int convertCursorToEntryChunks(Cursor cursor, int chunkSize,
+                                                 BiConsumer<List<Entry>, Boolean> onChunk) {
+        EntryColumns columns = new EntryColumns(cursor);
+        int count = 0;
+        List<Entry> chunk = new ArrayList<>(chunkSize);
 
-            // Получаем поля записи базы данных
-            String title = cursor.getString(cursor.getColumnIndex("title"));
-            String text = cursor.getString(cursor.getColumnIndex("entry_text"));
-            int id = cursor.getInt(cursor.getColumnIndex("id"));
+        // Заполненная часть отдается, только когда прочитана следующая строка: так последняя
+        // часть всегда помечена признаком конца, без лишней пустой части
+        List<Entry> ready = null;
+        try {
+            while (cursor.moveToNext()) {
+                if (ready != null) {
+                    onChunk.accept(ready, false);
+                    ready = null;
+                }
+                chunk.add(columns.read(cursor));
+                count++;
+                if (chunk.size() == chunkSize) {
+                    ready = chunk;
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        onChunk.accept(ready != null ? ready : chunk, true);
+        return count;
+    }
 
-            // Создаем новый объект Entry по считанным значениям и добавляем в список записей
-            Entry entry = new Entry(title, text, id);
-            entryList.add(entry);
+    /**
+     * Метод преобразования форматов. Используется для преобразования журнала изменений
+     * (SELECT * FROM entry_changes) в список изменений
+     * @param cursor объект Cursor с изменениями
+     * @return список изменений в формате List<EntryChange>
+     */
+    public static List<EntryChange> convertCursorToChangeList(Cursor cursor) {
+        List<EntryChange> changeList = new ArrayList<>(cursor.getCount());
+        int seqIndex = cursor.getColumnIndexOrThrow("seq");
+        int opIndex = cursor.getColumnIndexOrThrow("op");
+        int entryIdIndex = cursor.getColumnIndexOrThrow("entry_id");
 
-            // Передвигаем курсор к следующей записи найденного списка
-            cursor.moveToNext();
+        while (cursor.moveToNext()) {
+            changeList.add(new EntryChange(cursor.getLong(seqIndex),
+                    cursor.getInt(opIndex), cursor.getInt(entryIdIndex)));
         }
         cursor.close();
-        return entryList;
+        return changeList;
     }
 }
@@ -1,19 +1,50 @@
 package home.stanislavpoliakov.meet11_practice;
 
+import android.arch.persistence.db.SimpleSQLiteQuery;
+import android.arch.persistence.db.SupportSQLiteDatabase;
 import android.arch.persistence.room.Room;
+import android.arch.persistence.room.RoomDatabase;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
+import android.util.Log;
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 /**
  * Класс, отвечающий за взаимодействие с базой данных. Singleton
  * Конекртные реализации методов взаимодействия описаны в EntryDAO
+ *
+ * Основное API асинхронное (методы *Async возвращают CompletableFuture), ни один из этих методов не
+ * блокирует вызывающий поток. Блокирующие методы оставлены только для ContentProvider
  */
 public class DatabaseManager {
     // Идентификаторы сообщений msg.what
@@ -21,163 +52,1352 @@ public class DatabaseManager {
     public static final int REPAINT_REQUEST = 2;
 
     private static final String TAG = "meet11_logs";
-    private static DatabaseManager instance;
+    private static volatile DatabaseManager instance;
+    // SQLite ограничивает количество параметров одного запроса
+    private static final int MAX_SQL_VARIABLES = 999;
+
+    // Количество потоков чтения. В режиме WAL SQLite держит пул соединений (обычно 4): одно
+    // соединение для записи и несколько для чтения
+    private static final int READER_THREADS = 3;
+
+    // Сколько последних изменений хранить в журнале и сколько изменений отдавать одной дельтой.
+    // Клиенту, который отстал сильнее, проще перечитать данные целиком
+    private static final int CHANGE_LOG_LIMIT = 10000;
+    private static final int MAX_DELTA_CHANGES = 1000;
+
+    // Размеры кэша чтений: записей в кэше записей и суммарно строк в кэше результатов (см. EntryCache)
+    private static final int ROW_CACHE_SIZE = 256;
+    private static final int RESULT_CACHE_ROWS = 2000;
+
+    // Размер пакета и пауза между пакетами фонового заполнения после миграции (см. EntryMigrations).
+    // Между пакетами поток базы данных выполняет запросы пользователя
+    private static final int BACKFILL_BATCH = 500;
+    private static final long BACKFILL_PAUSE_MS = 20;
+
+    // Размер порции экспорта (записей в одном курсоре) и размер транзакции импорта (см. EntryBackup)
+    private static final int EXPORT_CHUNK = 256;
+    private static final int IMPORT_BATCH = 500;
+
+    // Обучение словаря сжатия (см. EntryCompression): сколько длинных текстов взять в выборку и
+    // сколько их должно быть, чтобы словарь имел смысл
+    private static final int DICTIONARY_SAMPLES = 200;
+    private static final int DICTIONARY_MIN_SAMPLES = 20;
+
+    // Параметры группового коммита одиночных записей по умолчанию (см. GroupCommitQueue)
+    static final long GROUP_COMMIT_WINDOW_MS = 5;
+    static final int GROUP_COMMIT_MAX_BATCH = 64;
+
+    // Ограничения очередей классов приоритета по умолчанию (см. PriorityScheduler). UI не ждет
+    // места в очереди - переполнение означает отказ; клиенты ContentProvider и массовые задачи
+    // ждут до QUEUE_BLOCK_TIMEOUT_MS (обратное давление), затем получают отказ
+    static final int INTERACTIVE_QUEUE_LIMIT = 256;
+    static final int PROVIDER_QUEUE_LIMIT = 64;
+    static final int BULK_QUEUE_LIMIT = 16;
+    private static final long QUEUE_BLOCK_TIMEOUT_MS = 5000;
+
+    private Context mContext;
+    private EntryDatabase database;
     private EntryDAO dao;
-    private ExecutorService pool;
-    private Handler mHandler = new Handler();
+    private Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Открытие базы (см. open). Завершается, когда база открыта, миграции выполнены и запросы
+    // первого экрана "прогреты". Чтения, пришедшие раньше, ждут его, а не открывают базу сами
+    private final CompletableFuture<Void> opened;
+
+    // Поток базы данных (единственный поток writers). Если задача приходит из самого потока базы
+    // данных (например, операция внутри applyBatch вызывает insert провайдера), она выполняется
+    // сразу, а не ставится в очередь: иначе поток ждал бы сам себя
+    private volatile Thread dbThread;
+    private PriorityScheduler writers;
+
+    // Пул потоков чтения. В режиме WAL (write-ahead logging) чтение не блокирует запись и наоборот:
+    // читатели видят последнее зафиксированное состояние базы, а писатель дописывает изменения в
+    // журнал. Поэтому чтения выполняются параллельно друг с другом и с единственным потоком записи
+    private PriorityScheduler readers;
+
+    // Класс приоритета задач, которые ставит текущий поток (см. withPriority). По умолчанию
+    // INTERACTIVE: асинхронное API вызывает Activity
+    private final ThreadLocal<PriorityScheduler.Priority> submitPriority =
+            ThreadLocal.withInitial(() -> PriorityScheduler.Priority.INTERACTIVE);
+
+    // Очередь группового коммита одиночных записей (insert / update / delete по id)
+    private GroupCommitQueue writeQueue;
+
+    // Файлы текстов, созданные записями текущей транзакции группового коммита (только поток базы
+    // данных; null - вне транзакции группы). При откате транзакции файлы удаляются: повтор записи
+    // создаст свои, и файлы неудачной попытки остались бы "осиротевшими" до следующего запуска
+    private List<String> groupFiles;
+
+    // Сжатие текстов записей при записи (см. EntryCompression). Чтение сжатых текстов от него не зависит
+    private volatile boolean isCompressText = true;
+
+    // Кэш чтений. Инвалидируется после коммита каждой записи - только то, что она затронула
+    private final EntryCache cache = new EntryCache(ROW_CACHE_SIZE, RESULT_CACHE_ROWS);
+
+    // Время ожидания в очереди и выполнения каждой операции, длина очередей (см. OperationMetrics)
+    private final OperationMetrics metrics = new OperationMetrics();
+
+    // Глубина вложенности пакетной операции и признак изменений внутри нее. Используются только
+    // в потоке базы данных, поэтому синхронизация не нужна
+    private int batchDepth = 0;
+    private boolean isBatchChanged = false;
+
+    // Файлы текстов (см. EntryFileStore), освободившиеся внутри пакета. Удаляются только после
+    // коммита пакета: при откате записи снова на них ссылаются
+    private List<String> batchStaleFiles = new ArrayList<>();
 
     /**
      *  Приватный конструтор.
      *  database = база данных в формате Room
      *  dao = Data Access Object
-     *  pool = ThreadPool из одного потока (Executor). Поскольку логика программы не подразумевает
+     *  writers = ThreadPool из одного потока (PriorityScheduler). Поскольку логика программы не подразумевает
      *  параллельное (между собой) выполнение background потоков, а лишь требует последовательного
      *  выполнения "затратных" по времени задач, то выбран Single Thread Executor. Нам более одного
      *  потока (помимо UI-Thread, разумеется) и не требуется, а значит мы не расходуем память на
-     *  лишние ThreadLocal переменные и не расходуем процессорное время на context switch между потоками
+     *  лишние ThreadLocal переменные и не расходуем процессорное время на context switch между потоками.
+     *  Планировщик (schedule) нужен для окна группового коммита (GroupCommitQueue).
+     *  Это единственный поток записи. Чтения выполняются отдельным небольшим пулем (readers) -
+     *  база открыта в режиме WAL, поэтому долгое чтение больше не задерживает запись и наоборот.
+     *  Очереди обоих пулов разделены по классам приоритета: задачи UI выполняются раньше запросов
+     *  ContentProvider, а те - раньше массовых задач (импорт, экспорт, обслуживание базы).
+     *
+     *  Конструктор вызывается при старте процесса (ContentProvider.onCreate) в UI-Thread, поэтому
+     *  он не обращается к диску: Room.build только описывает базу. Сама база открывается первой
+     *  задачей потока базы данных (open)
      * @param context вызывающий контекст
      */
     private DatabaseManager(Context context) {
-        EntryDatabase database = Room.databaseBuilder(context.getApplicationContext(),
+        database = Room.databaseBuilder(context.getApplicationContext(),
                 EntryDatabase.class, "new_database")
-                .fallbackToDestructiveMigration()
+                .setJournalMode(RoomDatabase.JournalMode.WRITE_AHEAD_LOGGING)
+                .addMigrations(EntryMigrations.ALL)
+                .addCallback(new RoomDatabase.Callback() {
+                    @Override
+                    public void onCreate(@NonNull SupportSQLiteDatabase db) {
+                        // Room при пересоздании базы удаляет только свои таблицы - старый индекс
+                        // удаляем сами, иначе в нем остались бы удаленные записи
+                        db.execSQL(EntryFts.DROP);
+                        db.execSQL(EntryFts.CREATE);
+                    }
+
+                    @Override
+                    public void onOpen(@NonNull SupportSQLiteDatabase db) {
+                        db.execSQL(EntryFts.CREATE);
+                        db.execSQL(EntryMigrations.CREATE_BACKFILL);
+                        db.execSQL(EntryCompression.CREATE_DICTIONARIES);
+                        for (String trigger : EntryChange.TRIGGERS) db.execSQL(trigger);
+                    }
+                })
                 .build();
+        this.mContext = context.getApplicationContext();
         this.dao = database.getEntryDAO();
-        this.pool = Executors.newSingleThreadExecutor();
+        this.writers = new PriorityScheduler(1, runnable -> {
+            dbThread = new Thread(runnable, "database");
+            return dbThread;
+        }, INTERACTIVE_QUEUE_LIMIT, QUEUE_BLOCK_TIMEOUT_MS);
+        this.writeQueue = new GroupCommitQueue(database, writers,
+                GROUP_COMMIT_WINDOW_MS, GROUP_COMMIT_MAX_BATCH);
+        this.writeQueue.setTransactionListener(new GroupCommitQueue.TransactionListener() {
+            @Override
+            public void onBegin() {
+                groupFiles = new ArrayList<>();
+            }
+
+            @Override
+            public void onCommit() {
+                groupFiles = null;
+            }
+
+            @Override
+            public void onRollback() {
+                EntryFileStore.delete(groupFiles);
+                groupFiles = null;
+            }
+        });
+
+        // Чтение из потока базы данных (например, внутри пакета операций) выполняется сразу, на
+        // соединении писателя - так оно видит еще не зафиксированные изменения своей транзакции
+        AtomicInteger readerCount = new AtomicInteger();
+        this.readers = new PriorityScheduler(READER_THREADS,
+                runnable -> new Thread(runnable, "database-reader-" + readerCount.incrementAndGet()),
+                INTERACTIVE_QUEUE_LIMIT, QUEUE_BLOCK_TIMEOUT_MS);
+        setQueueLimit(PriorityScheduler.Priority.INTERACTIVE, INTERACTIVE_QUEUE_LIMIT, PriorityScheduler.Overflow.REJECT);
+        setQueueLimit(PriorityScheduler.Priority.PROVIDER, PROVIDER_QUEUE_LIMIT, PriorityScheduler.Overflow.BLOCK);
+        setQueueLimit(PriorityScheduler.Priority.BULK, BULK_QUEUE_LIMIT, PriorityScheduler.Overflow.BLOCK);
+        writers.start();
+
+        // Пока база открывается, чтения копятся в очередях читателей, потоки которых запускаются
+        // после открытия. Если открыть базу не удалось, чтение попробует открыть ее само и
+        // получит ошибку открытия
+        this.opened = writeAsync("open", PriorityScheduler.Priority.INTERACTIVE, () -> {
+            open();
+            return null;
+        });
+        this.opened.whenComplete((ignored, ex) -> {
+            if (ex != null) Log.e(TAG, "Can't open database", ex);
+            readers.start();
+        });
+
+        // Журнал изменений append-only, поэтому при открытии базы удаляем его старую часть.
+        // Там же удаляем файлы текстов, на которые не ссылается ни одна запись, обучаем словарь
+        // сжатия, если его еще нет, и продолжаем фоновое заполнение после миграции, если оно не завершено
+        writeAsync("maintenance", PriorityScheduler.Priority.BULK, () -> {
+            dao.deleteChangesUpTo(dao.getLastChangeSeq() - CHANGE_LOG_LIMIT);
+            EntryFileStore.sweep(new HashSet<>(dao.getTextFilesAll()));
+            if (EntryCompression.getCurrentDictionaryId() == 0) trainDictionary();
+            backfill(false);
+            return null;
+        }).whenComplete(logFailure("maintenance"));
+    }
+
+    /**
+     * Метод фонового заполнения после миграции (см. EntryMigrations.backfillBatch). Выполняет один
+     * пакет и ставит следующий в очередь потока базы данных с паузой, чтобы записи и открытие базы
+     * не ждали заполнения всей таблицы. Каждый пакет - отдельная операция "backfill" со своим
+     * CompletableFuture и метриками: ошибка пакета (например, диск заполнен) пишется в лог, а
+     * заполнение продолжится при следующем открытии базы. Выполняется в потоке базы данных
+     * @param hasStarted true, если предыдущие пакеты уже выполнялись
+     */
+    private void backfill(boolean hasStarted) {
+        boolean hasMore = database.runInTransaction(
+                () -> EntryMigrations.backfillBatch(writableDatabase(), BACKFILL_BATCH));
+        if (hasMore) {
+            submit("backfill", OperationMetrics.queueName(OperationMetrics.WRITE_QUEUE, PriorityScheduler.Priority.BULK),
+                    () -> {
+                        writeQueue.flush();
+                        backfill(true);
+                        return null;
+                    },
+                    command -> writers.schedule(PriorityScheduler.Priority.BULK, command,
+                            BACKFILL_PAUSE_MS, TimeUnit.MILLISECONDS))
+                    .whenComplete(logFailure("backfill"));
+            return;
+        }
+        if (!hasStarted) return;
+
+        // Заполнение превью изменило записи: журнал мог сильно вырасти, а кэш - устареть
+        dao.deleteChangesUpTo(dao.getLastChangeSeq() - CHANGE_LOG_LIMIT);
+        cache.invalidateAll();
+        onEntriesChanged();
+    }
+
+    /**
+     * Метод обучения словаря сжатия на случайной выборке длинных текстов (см. EntryCompression.train).
+     * Словарь сохраняется в text_dictionaries и сразу используется для новых записей. Уже сжатые
+     * записи не пересжимаются: они ссылаются на свой словарь. Выполняется в потоке базы данных
+     */
+    private void trainDictionary() {
+        List<String> samples = new ArrayList<>();
+        try (Cursor cursor = writableDatabase().query("SELECT entry_text, text_deflated FROM entries "
+                + "WHERE text_deflated IS NOT NULL OR length(entry_text) >= ? ORDER BY random() LIMIT ?",
+                new Object[] {EntryCompression.COMPRESS_THRESHOLD, DICTIONARY_SAMPLES})) {
+            while (cursor.moveToNext()) {
+                samples.add(cursor.isNull(1) ? cursor.getString(0) : EntryCompression.decompress(cursor.getBlob(1)));
+            }
+        }
+        if (samples.size() < DICTIONARY_MIN_SAMPLES) return;
+
+        byte[] dictionary = EntryCompression.train(samples, EntryCompression.MAX_DICTIONARY_SIZE);
+        if (dictionary.length == 0) return;
+        int id = EntryCompression.getCurrentDictionaryId() + 1;
+        writableDatabase().execSQL("INSERT INTO text_dictionaries (id, dictionary) VALUES (?, ?)",
+                new Object[] {id, dictionary});
+        EntryCompression.register(id, dictionary);
+        Log.i(TAG, "Trained compression dictionary " + id + ": " + dictionary.length + " bytes from "
+                + samples.size() + " entries");
     }
 
+    /**
+     * Метод открытия базы данных. Первая задача потока базы данных: создание каталога файлов
+     * текстов, открытие базы с миграциями и Callback (onOpen), загрузка словарей сжатия, затем прогрев - запросы первого
+     * экрана выполняются один раз, чтобы схема и первые страницы таблицы оказались в кэше SQLite.
+     * Соединения читателей (WAL) открываются лениво - их прогреваем задачами в пуле читателей
+     * (класс BULK: они не должны задерживать чтения, которые уже ждут открытия)
+     */
+    private void open() {
+        long started = System.nanoTime();
+        EntryFileStore.init(mContext);
+        try (Cursor cursor = writableDatabase().query("SELECT id, dictionary FROM text_dictionaries")) {
+            while (cursor.moveToNext()) EntryCompression.register(cursor.getInt(0), cursor.getBlob(1));
+        }
+        dao.getLastChangeSeq();
+        dao.getPreviewsAfter(0, 1).close();
+        for (int i = 0; i < READER_THREADS; i++) {
+            submit("warm_up", OperationMetrics.queueName(OperationMetrics.READ_QUEUE, PriorityScheduler.Priority.BULK),
+                    () -> {
+                        dao.getPreviewsAfter(0, 1).close();
+                        return null;
+                    },
+                    command -> readers.schedule(PriorityScheduler.Priority.BULK, command, 0, TimeUnit.MILLISECONDS))
+                    .whenComplete(logFailure("warm_up"));
+        }
+        Log.i(TAG, "Database opened in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms");
+    }
+
+    /**
+     * Метод получения единственного экземпляра. Потокобезопасный (double-checked locking):
+     * одновременные вызовы из разных потоков получат один и тот же экземпляр. Вызов не ждет
+     * открытия базы - время вызова (startup.create) попадает в метрики
+     * @param context контекст
+     * @return экземпляр DatabaseManager
+     */
     public static DatabaseManager getInstance(Context context) {
-        if (instance == null) {
-            instance = new DatabaseManager(context);
+        DatabaseManager result = instance;
+        if (result != null) return result;
+        synchronized (DatabaseManager.class) {
+            if (instance == null) {
+                long started = System.nanoTime();
+                instance = new DatabaseManager(context);
+                instance.metrics.recordStartup("create", System.nanoTime() - started);
+            }
+            return instance;
         }
-        return instance;
     }
 
     /**
-     * Метод чтения записей из базы данных (SELECT * FROM entries)
-     * @return объект Cursor = найденные значения в базе даных
+     * @return CompletableFuture, который завершается, когда база открыта и прогрета
      */
-    public Cursor readEntriesAll() {
-        try {
-            // Разбил цепочку композиции CompletableFurure, потому что нужно в середине цепочки
-            // вернуть результат (по готовности)
+    public CompletableFuture<Void> whenOpened() {
+        return opened;
+    }
+
+    /**
+     * Асинхронный метод постраничного чтения записей, следующих за afterId (keyset pagination).
+     * Запрос и конвертация Cursor -> List<Entry> выполняются в потоке базы данных, вызывающий поток
+     * не блокируется. Записи читаются в виде для списка: id, title, preview и timestamp,
+     * без полного текста
+     * @param afterId id последней прочитанной записи (0 - с начала таблицы)
+     * @param limit размер страницы
+     * @return CompletableFuture со страницей записей (по возрастанию id)
+     */
+    public CompletableFuture<List<Entry>> readEntriesAfterAsync(int afterId, int limit) {
+        return readAsync("readEntriesAfter", () -> readCached("previews_after:" + afterId + ":" + limit,
+                        () -> dao.getPreviewsAfter(afterId, limit), afterBounds(afterId, limit)))
+                .thenApply(metrics.measureConvert("readEntriesAfter", ConvertUtils::convertCursorToEntryList));
+    }
+
+    /**
+     * Асинхронный метод постраничного чтения записей, предшествующих beforeId (keyset pagination).
+     * Записи читаются в виде для списка: id, title, preview и timestamp
+     * @param beforeId id первой записи уже прочитанной страницы
+     * @param limit размер страницы
+     * @return CompletableFuture со страницей записей (по возрастанию id)
+     */
+    public CompletableFuture<List<Entry>> readEntriesBeforeAsync(int beforeId, int limit) {
+        return readAsync("readEntriesBefore", () -> readCached("previews_before:" + beforeId + ":" + limit,
+                        () -> dao.getPreviewsBefore(beforeId, limit), beforeBounds(beforeId, limit)))
+                .thenApply(metrics.measureConvert("readEntriesBefore", ConvertUtils::convertCursorToEntryList));
+    }
 
-            // Получаем записи из базы данных в отдельном потоке
-            CompletableFuture<Cursor> completableFuture = CompletableFuture
-                    .supplyAsync(() -> dao.getEntriesAll(), pool);
+    /**
+     * Асинхронный метод потокового чтения записей, следующих за afterId. Записи читаются в виде
+     * для списка (id, title, preview, timestamp) и по мере конвертации отправляются в Handler частями по
+     * chunkSize штук, сообщением DATABASE_ENTRIES:
+     * obj - часть записей (List<Entry>), arg1 - token запроса, arg2 - 1 для последней части.
+     * Так первый экран списка можно показать после первой части, не дожидаясь всего результата
+     * @param afterId id последней прочитанной записи (0 - с начала таблицы)
+     * @param limit общее количество записей
+     * @param chunkSize размер части
+     * @param token идентификатор запроса, по которому получатель отличает части разных запросов
+     * @return CompletableFuture с общим количеством прочитанных записей
+     */
+    public CompletableFuture<Integer> readEntriesChunkedAsync(int afterId, int limit, int chunkSize,
+                                                             int token) {
+        return readAsync("readEntriesChunked", () -> ConvertUtils.convertCursorToEntryChunks(
+                dao.getPreviewsAfter(afterId, limit), chunkSize, (chunk, isLast) ->
+                        mHandler.sendMessage(Message.obtain(mHandler, DATABASE_ENTRIES,
+                                token, isLast ? 1 : 0, chunk))));
+    }
 
-            // Формируем результат по готовности
-            Cursor result = completableFuture.get();
+    /**
+     * Асинхронный метод чтения одной записи целиком (для редактирования). Текст записи, вынесенный
+     * в файл, загружается здесь же, в потоке чтения. Запись берется из кэша записей, если она там есть.
+     * Вызывающий получает свою копию: изменения записи не попадают в кэш
+     * @param id записи
+     * @return CompletableFuture с записью или null, если записи нет
+     */
+    public CompletableFuture<Entry> readEntryAsync(int id) {
+        return readAsync("readEntry", () -> {
+            boolean isCacheable = Thread.currentThread() != dbThread;
+            Entry cached = isCacheable ? cache.getEntry(id) : null;
+            if (cached != null) return cached.copy();
 
-            // После того, как предыдущее действие успешно выполнено, запускаем следующие:
-            // 1. Конвертируем полученные данные в спиок записей (Cursor -> List<Entry), отдельный поток
-            // 2. Передаем результат в Activity, отдельный поток
-            completableFuture.thenApplyAsync(ConvertUtils::convertCursorToEntryList, pool)
-                    .thenAcceptAsync(this::postResult, pool);
+            long version = cache.version();
+            List<Entry> entries = ConvertUtils.convertCursorToEntryList(dao.getEntryById(id));
+            if (entries.isEmpty()) return null;
+            Entry entry = entries.get(0);
+            entry.getText();
+            if (!isCacheable) return entry;
+            cache.putEntry(version, entry);
+            return entry.copy();
+        });
+    }
 
-            return result;
+    /**
+     * Асинхронный метод полнотекстового поиска записей (см. EntryFts)
+     * @param query запрос пользователя (слова через пробел, все слова должны встретиться в записи)
+     * @param limit максимальное количество результатов
+     * @return CompletableFuture с объектом Cursor (id, snippet, rank) по убыванию релевантности
+     */
+    public CompletableFuture<Cursor> searchAsync(String query, int limit) {
+        return readAsync("search", () -> readCached("search:" + limit + ":" + query,
+                () -> EntryFts.search(database.getOpenHelper().getReadableDatabase(), query, limit),
+                UnaryOperator.identity()));
+    }
 
-        } catch (ExecutionException ex) {
-            ex.printStackTrace();
-        } catch (InterruptedException ex) {
-            ex.printStackTrace();
+    /**
+     * Асинхронный метод чтения seq последнего изменения в журнале. Клиент запоминает его перед
+     * чтением данных, а потом запрашивает только изменения после этого seq
+     * @return CompletableFuture с seq последнего изменения (0, если журнал пуст)
+     */
+    public CompletableFuture<Long> readLastChangeSeqAsync() {
+        return readAsync("readLastChangeSeq", () -> dao.getLastChangeSeq());
+    }
+
+    /**
+     * Асинхронный метод чтения изменений после заданного seq в виде свернутой дельты: по каждой
+     * записи учитывается только последнее изменение, а добавленные и измененные записи читаются
+     * из таблицы в их текущем состоянии
+     * @param since seq последнего изменения, известного клиенту
+     * @return CompletableFuture с дельтой изменений
+     */
+    public CompletableFuture<EntryDelta> readChangesAsync(long since) {
+        return readAsync("readChanges", () -> readDelta(since));
+    }
+
+    /**
+     * Метод формирования дельты изменений. Выполняется в потоке чтения
+     * @param since seq последнего изменения, известного клиенту
+     * @return дельта изменений
+     */
+    private EntryDelta readDelta(long since) {
+        List<Integer> deletedIds = new ArrayList<>();
+        List<Entry> changedEntries = new ArrayList<>();
+
+        // Нужная клиенту часть журнала уже удалена - пусть перечитает данные целиком
+        if (dao.getFirstChangeSeq() > since + 1) {
+            return new EntryDelta(dao.getLastChangeSeq(), true, deletedIds, changedEntries);
+        }
+
+        List<EntryChange> changes = ConvertUtils.convertCursorToChangeList(
+                dao.getChangesSince(since, MAX_DELTA_CHANGES));
+        if (changes.isEmpty()) return new EntryDelta(since, false, deletedIds, changedEntries);
+        if (changes.size() == MAX_DELTA_CHANGES) {
+            return new EntryDelta(dao.getLastChangeSeq(), true, deletedIds, changedEntries);
+        }
+
+        // Сворачиваем журнал: для каждой записи нас интересует только последнее изменение
+        Map<Integer, Integer> lastOps = new LinkedHashMap<>();
+        for (EntryChange change : changes) lastOps.put(change.getEntryId(), change.getOp());
+
+        List<Integer> changedIds = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> lastOp : lastOps.entrySet()) {
+            if (lastOp.getValue() == EntryChange.OP_DELETE) deletedIds.add(lastOp.getKey());
+            else changedIds.add(lastOp.getKey());
         }
-        return null;
+
+        for (int from = 0; from < changedIds.size(); from += MAX_SQL_VARIABLES) {
+            int to = Math.min(from + MAX_SQL_VARIABLES, changedIds.size());
+            changedEntries.addAll(ConvertUtils.convertCursorToEntryList(
+                    dao.getPreviewsByIds(changedIds.subList(from, to))));
+        }
+
+        // Запись могли удалить уже после чтения журнала - тогда ее нет в таблице, считаем удаленной
+        if (changedEntries.size() < changedIds.size()) {
+            Set<Integer> foundIds = new HashSet<>();
+            for (Entry entry : changedEntries) foundIds.add(entry.getId());
+            for (Integer id : changedIds) {
+                if (!foundIds.contains(id)) deletedIds.add(id);
+            }
+        }
+
+        long lastSeq = changes.get(changes.size() - 1).getSeq();
+        return new EntryDelta(lastSeq, false, deletedIds, changedEntries);
     }
 
     /**
-     * Метод добавления записи в базу данных
-     * @param entry запись в формате Entry, которую необходимо добавить
-     * @return id записи, который сформировала база данных (primary key, autoincrement)
+     * Асинхронный метод добавления записи в базу данных. После успешной вставки сообщаем об
+     * изменении наблюдателям ContentProvider (в том числе внешним приложениям)
+     * Большой текст записи перед вставкой выносится в файл (см. EntryFileStore). Запись
+     * вызывающего не изменяется: время изменения и поля хранения текста заполняются в копии
+     * @param newEntry запись в формате Entry, которую необходимо добавить
+     * @return CompletableFuture с id записи, который сформировала база данных (primary key, autoincrement)
      */
-    public long insertEntry(Entry entry) {
+    public CompletableFuture<Long> insertEntryAsync(Entry newEntry) {
+        Entry entry = newEntry.copy();
+        List<String> staleFiles = new ArrayList<>();
+        return submitWrite("insertEntry", () -> {
+                    // Вставка с существующим id заменяет запись (REPLACE) - ее файл освобождается
+                    staleFiles.clear();
+                    String oldFile = entry.getId() == 0 ? null : dao.getTextFile(entry.getId());
+                    entry.setTimeStamp(System.currentTimeMillis());
+                    spill(entry);
+                    if (oldFile != null && !oldFile.equals(entry.getTextFile())) staleFiles.add(oldFile);
+                    return database.runInTransaction(() -> {
+                        long id = dao.insertEntry(entry);
+                        EntryFts.index(writableDatabase(), id, entry.getTitle(), entry.getText());
+                        return id;
+                    });
+                })
+                .whenComplete((id, ex) -> {
+                    if (ex != null) return;
+                    deleteFilesAfterCommit(staleFiles);
+                    onEntryChanged(id);
+                });
+    }
+
+    /**
+     * Асинхронный метод обновления записи в базе данных. Если текст записи был вынесен в файл,
+     * старый файл удаляется после коммита. Запись вызывающего не изменяется (см. insertEntryAsync)
+     * @param updatedEntry запись в формате Entry, которую необходимо обновить
+     * @return CompletableFuture с количеством обновленных записей (в нашем случае всегда 1)
+     */
+    public CompletableFuture<Integer> updateEntryAsync(Entry updatedEntry) {
+        Entry entry = updatedEntry.copy();
+        List<String> staleFiles = new ArrayList<>();
+        return submitWrite("updateEntry", () -> update(entry, staleFiles))
+                .whenComplete((rows, ex) -> {
+                    if (ex != null) return;
+                    deleteFilesAfterCommit(staleFiles);
+                    onEntryChanged(entry.getId());
+                });
+    }
+
+    /**
+     * Асинхронный метод частичного обновления записи: запись читается, изменяется и сохраняется
+     * одной операцией потока базы данных, поэтому поля, которые patch не меняет, сохраняют
+     * текущие значения из базы (а не затираются пустыми, как при updateEntryAsync)
+     * @param id записи
+     * @param patch изменение прочитанной записи (выполняется в потоке базы данных)
+     * @return CompletableFuture с количеством обновленных записей (0, если записи нет)
+     */
+    public CompletableFuture<Integer> patchEntryAsync(int id, Consumer<Entry> patch) {
+        List<String> staleFiles = new ArrayList<>();
+        return submitWrite("patchEntry", () -> {
+                    List<Entry> entries = ConvertUtils.convertCursorToEntryList(dao.getEntryById(id));
+                    if (entries.isEmpty()) return 0;
+                    Entry entry = entries.get(0);
+                    patch.accept(entry);
+                    return update(entry, staleFiles);
+                })
+                .whenComplete((rows, ex) -> {
+                    if (ex != null || rows == 0) return;
+                    deleteFilesAfterCommit(staleFiles);
+                    onEntryChanged(id);
+                });
+    }
+
+    /**
+     * Метод записи измененной записи в таблицу и полнотекстовый индекс. Выполняется в потоке
+     * базы данных
+     * @param entry запись (собственная копия слоя базы данных)
+     * @param staleFiles сюда попадает файл текста, который освободится после коммита
+     * @return количество обновленных записей
+     */
+    private int update(Entry entry, List<String> staleFiles) {
+        staleFiles.clear();
+        String oldFile = dao.getTextFile(entry.getId());
+        entry.setTimeStamp(System.currentTimeMillis());
+        spill(entry);
+        if (oldFile != null && !oldFile.equals(entry.getTextFile())) staleFiles.add(oldFile);
+        return database.runInTransaction(() -> {
+            int rows = dao.updateEntry(entry);
+            if (rows > 0) {
+                EntryFts.index(writableDatabase(), entry.getId(), entry.getTitle(), entry.getText());
+            }
+            return rows;
+        });
+    }
+
+    /**
+     * Асинхронный метод удаления записи из базы данных по ID. Файл с текстом записи (если есть)
+     * удаляется после коммита
+     * @param id записи, которую необходимо удалить
+     * @return CompletableFuture с количеством удаленных записей (в нашем случае всегда 1)
+     */
+    public CompletableFuture<Integer> deleteEntryByIdAsync(int id) {
+        List<String> staleFiles = new ArrayList<>();
+        return submitWrite("deleteEntryById", () -> {
+                    staleFiles.clear();
+                    String oldFile = dao.getTextFile(id);
+                    if (oldFile != null) staleFiles.add(oldFile);
+                    return database.runInTransaction(() -> {
+                        EntryFts.delete(writableDatabase(), Collections.singletonList(id));
+                        return dao.deleteEntryById(id);
+                    });
+                })
+                .whenComplete((rows, ex) -> {
+                    if (ex != null) return;
+                    deleteFilesAfterCommit(staleFiles);
+                    onEntryChanged(id);
+                });
+    }
+
+    /**
+     * Асинхронный метод пакетного добавления записей. Весь пакет - одна транзакция и одно
+     * уведомление наблюдателей (вместо транзакции и уведомления на каждую запись)
+     * Файлы записей, замененных вставкой с существующим id, удаляются при следующем открытии базы
+     * @param entries записи, которые необходимо добавить
+     * @return CompletableFuture со списком id добавленных записей (в том же порядке)
+     */
+    public CompletableFuture<List<Long>> insertEntriesAsync(List<Entry> entries) {
+        return insertEntriesAsync("insertEntries", submitPriority.get(), entries, false);
+    }
+
+    /**
+     * @param operation имя операции (для метрик)
+     * @param priority класс приоритета
+     * @param entries записи, которые необходимо добавить
+     * @param isKeepTimeStamps сохранить время изменения записей (импорт), а не поставить текущее
+     * @return CompletableFuture со списком id добавленных записей (в том же порядке)
+     */
+    private CompletableFuture<List<Long>> insertEntriesAsync(String operation, PriorityScheduler.Priority priority,
+                                                            List<Entry> entries, boolean isKeepTimeStamps) {
+        return writeAsync(operation, priority, () -> {
+                    long now = System.currentTimeMillis();
+                    for (Entry entry : entries) {
+                        if (!isKeepTimeStamps) entry.setTimeStamp(now);
+                        spill(entry);
+                    }
+                    return database.runInTransaction(() -> {
+                        List<Long> ids = dao.insertEntries(entries);
+                        for (int i = 0; i < ids.size(); i++) {
+                            Entry entry = entries.get(i);
+                            EntryFts.index(writableDatabase(), ids.get(i), entry.getTitle(), entry.getText());
+                        }
+                        return ids;
+                    });
+                })
+                .whenComplete((ids, ex) -> {
+                    if (ex != null || ids.isEmpty()) return;
+                    cache.invalidate(ids);
+                    onEntriesChanged();
+                });
+    }
+
+    /**
+     * Асинхронный метод экспорта всех записей в резервную копию (формат EntryBackup). Таблица
+     * читается порциями по EXPORT_CHUNK записей (keyset по id), каждая порция сразу пишется в
+     * поток, поэтому память не зависит от размера таблицы. Экспорт - массовая задача (класс BULK):
+     * он уступает чтениям UI и ContentProvider. Экспорт идет в потоке чтения и не
+     * блокирует запись: записи, измененные во время экспорта, попадут в копию в том состоянии, в
+     * котором их застанет чтение своей порции
+     * @param stream поток резервной копии. Не закрывается
+     * @param progress получатель прогресса (после каждой порции) или null
+     * @return CompletableFuture с количеством экспортированных записей
+     */
+    public CompletableFuture<Long> exportEntriesAsync(OutputStream stream, EntryBackup.ProgressListener progress) {
+        return readAsync("exportEntries", PriorityScheduler.Priority.BULK, () -> {
+            try {
+                EntryBackup.Writer writer = new EntryBackup.Writer(stream);
+                int afterId = 0;
+                List<Entry> chunk;
+                do {
+                    chunk = ConvertUtils.convertCursorToEntryList(dao.getEntriesAfter(afterId, EXPORT_CHUNK));
+                    for (int i = 0; i < chunk.size(); i++) {
+                        Entry entry = chunk.get(i);
+                        afterId = entry.getId();
+                        writer.write(entry);
+                        // Большой текст, прочитанный из файла, не держим до конца порции
+                        chunk.set(i, null);
+                    }
+                    if (progress != null) progress.onProgress(writer.getCount(), writer.getBytes());
+                } while (chunk.size() == EXPORT_CHUNK);
+                writer.finish();
+                return writer.getCount();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+    }
+
+    /**
+     * Асинхронный метод импорта записей из резервной копии (формат EntryBackup). Копия читается
+     * порциями по IMPORT_BATCH записей в потоке чтения, каждая порция добавляется одной транзакцией
+     * в потоке базы данных (как insertEntriesAsync, но с сохранением времени изменения), и только
+     * после ее коммита читается следующая. В памяти - не больше одной порции. Записи получают
+     * новые id. Если копия повреждена, уже добавленные порции остаются в базе. Все задачи импорта -
+     * класса BULK: между порциями выполняются чтения и записи UI и ContentProvider
+     * @param stream поток резервной копии. Не закрывается
+     * @param progress получатель прогресса (после коммита каждой порции) или null
+     * @return CompletableFuture с количеством импортированных записей
+     */
+    public CompletableFuture<Long> importEntriesAsync(InputStream stream, EntryBackup.ProgressListener progress) {
+        return readAsync("importEntries.read", PriorityScheduler.Priority.BULK, () -> {
+            try {
+                return new EntryBackup.Reader(stream);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }).thenCompose(reader -> importBatches(reader, progress));
+    }
+
+    private CompletableFuture<Long> importBatches(EntryBackup.Reader reader, EntryBackup.ProgressListener progress) {
+        return readAsync("importEntries.read", PriorityScheduler.Priority.BULK, () -> {
+            try {
+                return reader.read(IMPORT_BATCH);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }).thenCompose(batch -> {
+            if (batch.isEmpty()) return CompletableFuture.completedFuture(reader.getCount());
+            return insertEntriesAsync("importEntries.write", PriorityScheduler.Priority.BULK, batch, true).thenCompose(ids -> {
+                if (progress != null) progress.onProgress(reader.getCount(), reader.getBytes());
+                return importBatches(reader, progress);
+            });
+        });
+    }
+
+    /**
+     * Асинхронный метод удаления множества записей по списку id. Список делится на части по
+     * MAX_SQL_VARIABLES параметров, но все части выполняются в одной транзакции
+     * @param ids список id записей, которые необходимо удалить
+     * @return CompletableFuture с количеством удаленных записей
+     */
+    public CompletableFuture<Integer> deleteEntriesByIdsAsync(List<Integer> ids) {
+        List<String> staleFiles = new ArrayList<>();
+        return writeAsync("deleteEntriesByIds", () -> database.runInTransaction(() -> {
+                    int rowsDeleted = 0;
+                    for (int from = 0; from < ids.size(); from += MAX_SQL_VARIABLES) {
+                        int to = Math.min(from + MAX_SQL_VARIABLES, ids.size());
+                        staleFiles.addAll(dao.getTextFilesByIds(ids.subList(from, to)));
+                        EntryFts.delete(writableDatabase(), ids.subList(from, to));
+                        rowsDeleted += dao.deleteEntriesByIds(ids.subList(from, to));
+                    }
+                    return rowsDeleted;
+                }))
+                .whenComplete((rows, ex) -> {
+                    if (ex != null) return;
+                    deleteFilesAfterCommit(staleFiles);
+                    if (rows == 0) return;
+                    cache.invalidate(ids);
+                    onEntriesChanged();
+                });
+    }
+
+    /**
+     * Асинхронный метод удаления диапазона записей по id
+     * @param fromId id первой записи диапазона (включительно)
+     * @param toId id последней записи диапазона (включительно)
+     * @return CompletableFuture с количеством удаленных записей
+     */
+    public CompletableFuture<Integer> deleteEntriesInRangeAsync(int fromId, int toId) {
+        List<String> staleFiles = new ArrayList<>();
+        return writeAsync("deleteEntriesInRange", () -> database.runInTransaction(() -> {
+                    staleFiles.addAll(dao.getTextFilesInRange(fromId, toId));
+                    EntryFts.deleteRange(writableDatabase(), fromId, toId);
+                    return dao.deleteEntriesInRange(fromId, toId);
+                }))
+                .whenComplete((rows, ex) -> {
+                    if (ex != null) return;
+                    deleteFilesAfterCommit(staleFiles);
+                    if (rows == 0) return;
+                    cache.invalidateRange(fromId, toId);
+                    onEntriesChanged();
+                });
+    }
+
+    /**
+     * Асинхронный метод выполнения пакета операций в одной транзакции Room в потоке базы данных.
+     * Все изменения внутри пакета применяются атомарно (или не применяются вовсе, если одна из
+     * операций завершилась ошибкой), а наблюдатели получают одно уведомление в конце пакета
+     * @param batch пакет операций. Операции могут вызывать любые методы DatabaseManager - они
+     *              выполнятся сразу в потоке базы данных, внутри общей транзакции
+     * @return CompletableFuture с результатом пакета
+     */
+    public <T> CompletableFuture<T> applyBatchAsync(Callable<T> batch) {
+        return writeAsync("applyBatch", () -> {
+            batchDepth++;
+            boolean isCommitted = false;
+            try {
+                T result = database.runInTransaction(batch);
+                isCommitted = true;
+                return result;
+            } finally {
+                batchDepth--;
+                if (batchDepth == 0) {
+                    boolean isChanged = isBatchChanged;
+                    isBatchChanged = false;
+                    List<String> staleFiles = batchStaleFiles;
+                    batchStaleFiles = new ArrayList<>();
+                    if (isCommitted) EntryFileStore.delete(staleFiles);
+                    if (isCommitted && isChanged) {
+                        cache.invalidateAll();
+                        onEntriesChanged();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Метод включения сжатия текстов записей. Выключение действует только на новые записи: уже
+     * сжатые тексты по-прежнему читаются
+     * @param isEnabled true - тексты от EntryCompression.COMPRESS_THRESHOLD символов сжимаются
+     */
+    public void setTextCompression(boolean isEnabled) {
+        isCompressText = isEnabled;
+    }
+
+    /**
+     * Метод настройки группового коммита одиночных записей
+     * @param windowMillis окно накопления записей в миллисекундах
+     * @param maxBatchSize максимальный размер группы (1 - групповой коммит выключен, каждая запись
+     *                     выполняется в своей транзакции, как раньше)
+     */
+    public void setGroupCommit(long windowMillis, int maxBatchSize) {
+        writeQueue.configure(windowMillis, maxBatchSize);
+    }
+
+    /**
+     * Метод выполнения одиночной записи. Записи ставятся в очередь группового коммита и занимают
+     * место в очереди записи своего класса приоритета, кроме записей из самого потока базы данных
+     * (внутри пакета) - они выполняются сразу, в транзакции пакета
+     * @param operation имя операции (для метрик)
+     * @param write операция записи (вызов DAO)
+     * @return CompletableFuture с результатом операции, завершается после коммита (с
+     *         RejectedExecutionException при отказе очереди)
+     */
+    private <T> CompletableFuture<T> submitWrite(String operation, Supplier<T> write) {
+        if (Thread.currentThread() == dbThread) return writeAsync(operation, write);
+        PriorityScheduler.Priority priority = submitPriority.get();
+        String queue = OperationMetrics.queueName(OperationMetrics.WRITE_QUEUE, priority);
         try {
-            // Вставляем запись в базу данных и получаем id по готовности, отдельный поток
-            CompletableFuture<Long> completableFuture = CompletableFuture
-                    .supplyAsync(() -> dao.insertEntry(entry), pool);
+            return writeQueue.submit(priority, metrics.measure(operation, queue, write));
+        } catch (RejectedExecutionException ex) {
+            metrics.recordRejected(queue);
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(ex);
+            return rejected;
+        }
+    }
 
-            // Формируем результат
-            long result = completableFuture.get();
+    /**
+     * Метод выполнения задачи в потоке базы данных с учетом в метриках. Класс приоритета - класс
+     * текущего потока (см. withPriority)
+     * @param operation имя операции
+     * @param task задача
+     * @return CompletableFuture с результатом задачи
+     */
+    private <T> CompletableFuture<T> writeAsync(String operation, Supplier<T> task) {
+        return writeAsync(operation, submitPriority.get(), task);
+    }
 
-            // Сообщаем в Activity, что были внесены изменения в базе данных, чтобы та перерисовала
-            // RecyclerView. Запущено в отдельном потоке, хоть и не обязательно
-            completableFuture.thenRunAsync(this::postRepaint, pool);
+    /**
+     * Метод выполнения задачи в потоке базы данных с заданным классом приоритета. Перед задачей
+     * коммитим накопленные одиночные записи (GroupCommitQueue), чтобы сохранить порядок записей.
+     * Чтения идут мимо этой очереди и видят зафиксированное состояние: результат записи виден
+     * читателям после того, как завершился ее CompletableFuture
+     * @param operation имя операции
+     * @param priority класс приоритета
+     * @param task задача
+     * @return CompletableFuture с результатом задачи (с RejectedExecutionException при отказе очереди)
+     */
+    private <T> CompletableFuture<T> writeAsync(String operation, PriorityScheduler.Priority priority,
+                                                Supplier<T> task) {
+        return submit(operation, OperationMetrics.queueName(OperationMetrics.WRITE_QUEUE, priority), task,
+                command -> {
+                    if (Thread.currentThread() == dbThread) command.run();
+                    else writers.execute(priority, () -> {
+                        writeQueue.flush();
+                        command.run();
+                    });
+                });
+    }
 
-            return result;
+    /**
+     * Метод выполнения задачи в потоке чтения с учетом в метриках. Класс приоритета - класс
+     * текущего потока (см. withPriority)
+     * @param operation имя операции
+     * @param task задача
+     * @return CompletableFuture с результатом задачи
+     */
+    private <T> CompletableFuture<T> readAsync(String operation, Supplier<T> task) {
+        return readAsync(operation, submitPriority.get(), task);
+    }
 
-        } catch (ExecutionException ex) {
-            ex.printStackTrace();
-        } catch (InterruptedException ex) {
-            ex.printStackTrace();
+    /**
+     * Метод выполнения задачи в потоке чтения с заданным классом приоритета
+     * @param operation имя операции
+     * @param priority класс приоритета
+     * @param task задача
+     * @return CompletableFuture с результатом задачи (с RejectedExecutionException при отказе очереди)
+     */
+    private <T> CompletableFuture<T> readAsync(String operation, PriorityScheduler.Priority priority,
+                                               Supplier<T> task) {
+        return submit(operation, OperationMetrics.queueName(OperationMetrics.READ_QUEUE, priority), task,
+                command -> {
+                    if (Thread.currentThread() == dbThread) command.run();
+                    else readers.execute(priority, command);
+                });
+    }
+
+    /**
+     * Метод постановки задачи в очередь с учетом в метриках. Отказ очереди не выбрасывается
+     * вызывающему, а завершает CompletableFuture ошибкой - как и ошибка самой задачи
+     * @param operation имя операции
+     * @param queue имя очереди (см. OperationMetrics.queueName)
+     * @param task задача
+     * @param executor Executor очереди
+     * @return CompletableFuture с результатом задачи
+     */
+    private <T> CompletableFuture<T> submit(String operation, String queue, Supplier<T> task,
+                                            Executor executor) {
+        try {
+            return CompletableFuture.supplyAsync(metrics.measure(operation, queue, task), executor);
+        } catch (RejectedExecutionException ex) {
+            metrics.recordRejected(queue);
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(ex);
+            return rejected;
         }
-        return 0;
     }
 
     /**
-     * Метод обновления записи в базе данных
-     * @param entry запись в формате Entry, которую необходимо обновить
-     * @return количество обновленных записей за итерацию (в нашем случае всегда 1)
+     * @param operation имя операции
+     * @return обработчик завершения фоновой операции, результат которой никто не ждет: ошибка
+     *         пишется в лог
      */
-    public int updateEntry(Entry entry) {
+    private static BiConsumer<Object, Throwable> logFailure(String operation) {
+        return (ignored, ex) -> {
+            if (ex != null) Log.e(TAG, "Operation " + operation + " failed", ex);
+        };
+    }
+
+    /**
+     * Метод постановки задач с заданным классом приоритета. Асинхронные методы, вызванные внутри
+     * action в текущем потоке, ставят свои задачи в очереди этого класса. Продолжения
+     * (thenCompose и т.п.) выполняются в других потоках - им класс не передается
+     * @param priority класс приоритета
+     * @param action вызов асинхронного метода
+     * @return результат action
+     */
+    private <T> T withPriority(PriorityScheduler.Priority priority, Supplier<T> action) {
+        PriorityScheduler.Priority previous = submitPriority.get();
+        submitPriority.set(priority);
         try {
-            // Обновляем запись в базе данных (REPLACE) и получаем количесто обновлений, отдельный поток
-            CompletableFuture<Integer> completableFuture = CompletableFuture
-                    .supplyAsync(() -> dao.updateEntry(entry), pool);
+            return action.get();
+        } finally {
+            submitPriority.set(previous);
+        }
+    }
 
-            // Формируем результат
-            int result = completableFuture.get();
+    /**
+     * Метод настройки очереди класса приоритета (для потоков чтения и потока базы данных)
+     * @param priority класс приоритета
+     * @param capacity максимальная длина очереди
+     * @param overflow поведение при заполненной очереди: REJECT - отказ сразу, BLOCK - ожидание
+     *                 места (обратное давление) не дольше QUEUE_BLOCK_TIMEOUT_MS, затем отказ
+     */
+    public void setQueueLimit(PriorityScheduler.Priority priority, int capacity, PriorityScheduler.Overflow overflow) {
+        writers.configure(priority, capacity, overflow);
+        readers.configure(priority, capacity, overflow);
+    }
 
-            // Сообщаем в Activity, что были внесены изменения в базе данных, чтобы та перерисовала
-            // RecyclerView. Запущено в отдельном потоке, хоть и не обязательно
-            completableFuture.thenRunAsync(this::postRepaint, pool);
+    /**
+     * @param priority класс приоритета
+     * @return текущее количество задач в очередях класса: {чтение, запись}. В очередь записи
+     *         входят и одиночные записи, ждущие группового коммита
+     */
+    public int[] getQueueDepth(PriorityScheduler.Priority priority) {
+        return new int[] {readers.getQueueDepth(priority), writers.getQueueDepth(priority)};
+    }
 
-            return result;
+    /**
+     * @return соединение записи. Нужно для таблиц, о которых Room не знает (EntryFts)
+     */
+    private SupportSQLiteDatabase writableDatabase() {
+        return database.getOpenHelper().getWritableDatabase();
+    }
 
-        } catch (ExecutionException ex) {
-            ex.printStackTrace();
-        } catch (InterruptedException ex) {
-            ex.printStackTrace();
+    /**
+     * Метод выноса большого текста записи в файл перед записью в базу (см. EntryFileStore) или,
+     * если текст не настолько большой, его сжатия (см. EntryCompression).
+     * Ошибка записи файла завершает операцию записи ошибкой
+     * @param entry запись
+     */
+    private void spill(Entry entry) {
+        try {
+            if (EntryFileStore.spillIfLarge(entry)) {
+                if (groupFiles != null) groupFiles.add(entry.getTextFile());
+            } else if (isCompressText) {
+                EntryCompression.compressIfLarge(entry);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
         }
-        return 0;
+    }
 
+    /**
+     * Метод удаления файлов текстов, освободившихся после записи. Вызывается в потоке базы данных
+     * после коммита; внутри пакета удаление откладывается до коммита пакета
+     * @param staleFiles имена файлов, на которые больше не ссылается ни одна запись
+     */
+    private void deleteFilesAfterCommit(List<String> staleFiles) {
+        if (staleFiles.isEmpty()) return;
+        if (isInBatch()) batchStaleFiles.addAll(staleFiles);
+        else EntryFileStore.delete(staleFiles);
     }
 
+    /*
+     * Ниже - блокирующие методы. Это тонкие адаптеры над асинхронным API, которые нужны только
+     * ContentProvider: его контракт синхронный (query/insert/update/delete возвращают результат),
+     * а вызывается он внешними приложениями в binder-потоках, а не в UI-Thread. Activity эти
+     * методы не использует. Их задачи выполняются с приоритетом PROVIDER (см. await): при
+     * заполненной очереди binder-поток ждет места - так внешний клиент получает обратное давление
+     */
+
     /**
-     * Метод удаления записи из базы данных по ID.
-     * @param id записи, которую необходимо удалить
-     * @return количество удаленных записей за итерацию (в нашем случае всегда 1)
+     * Метод чтения записей из базы данных (SELECT <projection> FROM entries). Остался для внешних
+     * клиентов ContentProvider, которые запрашивают таблицу целиком
+     * @param projection запрошенные столбцы (null - все столбцы)
+     * @return объект Cursor = найденные значения в базе даных
+     */
+    public Cursor readEntriesAll(String[] projection) {
+        String sql = "SELECT " + columns(projection) + " FROM entries";
+        return await(() -> readCursorAsync("provider.readEntriesAll", () -> readCached(sql,
+                () -> database.query(new SimpleSQLiteQuery(sql)), UnaryOperator.identity())), null);
+    }
+
+    /**
+     * Метод постраничного чтения записей, следующих за afterId (keyset pagination)
+     * @param projection запрошенные столбцы (null - все столбцы)
+     * @param afterId id последней прочитанной записи (0 - с начала таблицы)
+     * @param limit размер страницы
+     * @return объект Cursor со страницей записей (по возрастанию id)
+     */
+    public Cursor readEntriesAfter(String[] projection, int afterId, int limit) {
+        String sql = "SELECT " + columns(projection)
+                + " FROM entries WHERE id > ? ORDER BY id ASC LIMIT ?";
+        return await(() -> readCursorAsync("provider.readEntriesAfter", () -> readCached(sql + ":" + afterId + ":" + limit,
+                () -> database.query(new SimpleSQLiteQuery(sql, new Object[] {afterId, limit})),
+                afterBounds(afterId, limit))), null);
+    }
+
+    /**
+     * Метод постраничного чтения записей, предшествующих beforeId (keyset pagination)
+     * @param projection запрошенные столбцы (null - все столбцы)
+     * @param beforeId id первой записи уже прочитанной страницы
+     * @param limit размер страницы
+     * @return объект Cursor со страницей записей (по возрастанию id)
+     */
+    public Cursor readEntriesBefore(String[] projection, int beforeId, int limit) {
+        String sql = "SELECT " + columns(projection)
+                + " FROM (SELECT * FROM entries WHERE id < ? ORDER BY id DESC LIMIT ?) ORDER BY id ASC";
+        return await(() -> readCursorAsync("provider.readEntriesBefore", () -> readCached(sql + ":" + beforeId + ":" + limit,
+                () -> database.query(new SimpleSQLiteQuery(sql, new Object[] {beforeId, limit})),
+                beforeBounds(beforeId, limit))), null);
+    }
+
+    /**
+     * Метод чтения записей за период времени изменения (для ContentProvider). Условия и порядок
+     * совпадают с индексом по timestamp (в SQLite индекс хранит и id строки, то есть фактически
+     * упорядочен по (timestamp, id)), поэтому выборка идет по индексу, без перебора таблицы и
+     * без сортировки.
+     * Продолжение страницы (keyset pagination) при порядке "новые сначала": to = timestamp и
+     * beforeId = id последней записи страницы; при порядке "старые сначала": from и afterId. Тогда
+     * записи с одинаковым временем не теряются и не повторяются на границе страниц
+     * @param projection запрошенные столбцы (null - все столбцы)
+     * @param from нижняя граница времени (включительно)
+     * @param to верхняя граница времени (не включительно; включительно, если задан beforeId)
+     * @param afterId только записи с timestamp = from и id > afterId (null - без ограничения)
+     * @param beforeId только записи с timestamp = to и id < beforeId (null - без ограничения)
+     * @param isRecentFirst порядок: true - по убыванию времени, false - по возрастанию
+     * @param limit максимальное количество записей (-1 - без ограничения)
+     * @return объект Cursor с записями
+     */
+    public Cursor readEntriesByTime(String[] projection, long from, long to, Integer afterId,
+                                    Integer beforeId, boolean isRecentFirst, int limit) {
+        List<Object> args = new ArrayList<>();
+        StringBuilder where = new StringBuilder("timestamp >= ?");
+        args.add(from);
+        if (afterId != null) {
+            where.append(" AND (timestamp > ? OR id > ?)");
+            args.add(from);
+            args.add(afterId);
+        }
+        if (beforeId != null) {
+            where.append(" AND timestamp <= ? AND (timestamp < ? OR id < ?)");
+            args.add(to);
+            args.add(to);
+            args.add(beforeId);
+        } else {
+            where.append(" AND timestamp < ?");
+            args.add(to);
+        }
+        String order = isRecentFirst ? "DESC" : "ASC";
+        String sql = "SELECT " + columns(projection) + " FROM entries WHERE " + where
+                + " ORDER BY timestamp " + order + ", id " + order + " LIMIT " + limit;
+
+        // Время меняется при любой записи, поэтому результат зависит от всех id (диапазон по умолчанию)
+        return await(() -> readCursorAsync("provider.readEntriesByTime", () -> readCached(sql + ":" + args,
+                () -> database.query(new SimpleSQLiteQuery(sql, args.toArray())),
+                UnaryOperator.identity())), null);
+    }
+
+    /**
+     * Метод чтения одной записи по id (для ContentProvider, адрес ENTRY_ID)
+     * @param projection запрошенные столбцы (null - все столбцы)
+     * @param id записи
+     * @return объект Cursor с записью (пустой, если записи нет)
+     */
+    public Cursor readEntry(String[] projection, int id) {
+        String[] columns = (projection == null || projection.length == 0)
+                ? ConvertUtils.ENTRY_COLUMNS : projection;
+        columns(columns); // проверка запрошенных столбцов
+        Entry entry = await(() -> readEntryAsync(id), null);
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        if (entry != null) cursor.addRow(ConvertUtils.convertEntryToRow(entry, columns));
+        return cursor;
+    }
+
+    /**
+     * Метод формирования списка столбцов запроса из projection ContentProvider. Имена столбцов
+     * подставляются в текст запроса, поэтому принимаем только известные столбцы таблицы
+     * @param projection запрошенные столбцы (null или пустой массив - все столбцы)
+     * @return список столбцов для SELECT
+     * @throws IllegalArgumentException если запрошен неизвестный столбец
+     */
+    private static String columns(String[] projection) {
+        if (projection == null || projection.length == 0) return "*";
+        for (String column : projection) {
+            if (!Arrays.asList(ConvertUtils.ENTRY_COLUMNS).contains(column)) {
+                throw new IllegalArgumentException("Unknown column " + column);
+            }
+        }
+        return String.join(", ", projection);
+    }
+
+    /**
+     * Метод чтения журнала изменений после заданного seq (для внешних клиентов ContentProvider).
+     * Если нужная часть журнала уже удалена, возвращаем одну строку с op = OP_RESET и seq
+     * последнего изменения: клиенту нужно перечитать данные целиком и продолжить с этого seq
+     * @param since seq последнего изменения, известного клиенту
+     * @return объект Cursor с изменениями (seq, op, entry_id) по возрастанию seq
+     */
+    public Cursor readChangesSince(long since) {
+        return await(() -> readAsync("provider.readChanges", () -> {
+            if (dao.getFirstChangeSeq() > since + 1) {
+                MatrixCursor reset = new MatrixCursor(new String[] {"seq", "op", "entry_id"}, 1);
+                reset.addRow(new Object[] {dao.getLastChangeSeq(), EntryChange.OP_RESET, 0});
+                return reset;
+            }
+            Cursor cursor = dao.getChangesSince(since, MAX_DELTA_CHANGES);
+            cursor.getCount();
+            return cursor;
+        }), null);
+    }
+
+    /**
+     * Метод полнотекстового поиска записей (для ContentProvider)
+     * @param query запрос пользователя
+     * @param limit максимальное количество результатов
+     * @return объект Cursor (id, snippet, rank) по убыванию релевантности
      */
+    public Cursor search(String query, int limit) {
+        return await(() -> searchAsync(query, limit), null);
+    }
+
+    public long insertEntry(Entry entry) {
+        return await(() -> insertEntryAsync(entry), 0L);
+    }
+
+    public int updateEntry(Entry entry) {
+        return await(() -> updateEntryAsync(entry), 0);
+    }
+
+    public int patchEntry(int id, Consumer<Entry> patch) {
+        return await(() -> patchEntryAsync(id, patch), 0);
+    }
+
     public int deleteEntryById(int id) {
-        try {
-            // Удаляем запись из базы данных, отедльный поток
-            CompletableFuture<Integer> completableFuture = CompletableFuture
-                    .supplyAsync(() -> dao.deleteEntryById(id), pool);
+        return await(() -> deleteEntryByIdAsync(id), 0);
+    }
 
-            // Формируем результат
-            int result = completableFuture.get();
+    public List<Long> insertEntries(List<Entry> entries) {
+        return await(() -> insertEntriesAsync(entries), Collections.emptyList());
+    }
 
-            // Сообщаем в Activity, что были внесены изменения в базе данных, чтобы та перерисовала
-            // RecyclerView. Запущено в отдельном потоке, хоть и не обязательно
-            completableFuture.thenRunAsync(this::postRepaint, pool);
+    public int deleteEntriesByIds(List<Integer> ids) {
+        return await(() -> deleteEntriesByIdsAsync(ids), 0);
+    }
 
-            return result;
+    public int deleteEntriesInRange(int fromId, int toId) {
+        return await(() -> deleteEntriesInRangeAsync(fromId, toId), 0);
+    }
 
+    /**
+     * Блокирующий метод выполнения пакета операций (для ContentProvider.applyBatch)
+     * @param batch пакет операций
+     * @return результат пакета
+     * @throws ExecutionException если пакет завершился ошибкой (транзакция откатывается)
+     * @throws InterruptedException если ожидание прервано
+     */
+    public <T> T applyBatch(Callable<T> batch) throws ExecutionException, InterruptedException {
+        return withPriority(PriorityScheduler.Priority.PROVIDER, () -> applyBatchAsync(batch)).get();
+    }
+
+    /**
+     * Метод чтения Cursor в потоке чтения. SQLiteCursor выполняет запрос лениво, при первом
+     * обращении к данным, то есть в потоке вызывающего. getCount() заставляет заполнить первое окно
+     * курсора здесь же, в потоке чтения
+     * @param operation имя операции (для метрик)
+     * @param query запрос к DAO, возвращающий Cursor
+     * @return CompletableFuture с объектом Cursor
+     */
+    private CompletableFuture<Cursor> readCursorAsync(String operation, Supplier<Cursor> query) {
+        return readAsync(operation, () -> {
+            Cursor cursor = query.get();
+            cursor.getCount();
+            return cursor;
+        });
+    }
+
+    /**
+     * Метод чтения результата запроса через кэш результатов. Вызывается в потоке чтения. Чтения из
+     * потока базы данных (внутри пакета) идут мимо кэша: они видят еще не зафиксированные изменения
+     * @param key форма запроса (тип, параметры, столбцы)
+     * @param query запрос к базе данных
+     * @param bounds функция, определяющая диапазон id, от которого зависит результат
+     * @return объект Cursor с результатом (из кэша или из базы данных)
+     */
+    private Cursor readCached(String key, Supplier<Cursor> query,
+                              UnaryOperator<EntryCache.Result> bounds) {
+        if (Thread.currentThread() == dbThread) return query.get();
+        Cursor cached = cache.getResult(key);
+        if (cached != null) return cached;
+
+        long version = cache.version();
+        Cursor cursor = query.get();
+        if (!cache.isCacheable(cursor.getCount())) return cursor;
+        EntryCache.Result result = bounds.apply(EntryCache.Result.read(cursor));
+        cache.putResult(version, key, result);
+        return result.toCursor();
+    }
+
+    /**
+     * Страница после afterId зависит от записей (afterId, id последней записи страницы]. Неполная
+     * страница (конец таблицы) зависит и от всех следующих id: новая запись попала бы в нее
+     */
+    private static UnaryOperator<EntryCache.Result> afterBounds(int afterId, int limit) {
+        return result -> {
+            Integer lastId = result.lastId();
+            boolean isFull = result.size() >= limit && lastId != null;
+            return result.dependsOn(afterId + 1, isFull ? lastId : EntryCache.MAX_ID);
+        };
+    }
+
+    /**
+     * Страница перед beforeId зависит от записей [id первой записи страницы, beforeId)
+     */
+    private static UnaryOperator<EntryCache.Result> beforeBounds(int beforeId, int limit) {
+        return result -> {
+            Integer firstId = result.firstId();
+            boolean isFull = result.size() >= limit && firstId != null;
+            return result.dependsOn(isFull ? firstId : EntryCache.MIN_ID, beforeId - 1);
+        };
+    }
+
+    /**
+     * Метод уменьшения кэша чтений по сигналу системы о нехватке памяти
+     * @param level уровень нехватки памяти (ComponentCallbacks2.TRIM_MEMORY_*)
+     */
+    public void onTrimMemory(int level) {
+        cache.onTrimMemory(level);
+    }
+
+    /**
+     * @return счетчики попаданий и промахов кэша чтений (см. EntryCache.getStats)
+     */
+    public Bundle getCacheStats() {
+        return cache.getStats();
+    }
+
+    /**
+     * Метод получения снимка метрик операций (см. OperationMetrics.snapshot)
+     * @param reset обнулить метрики после снимка
+     * @return объект Cursor со столбцами OperationMetrics.COLUMNS
+     */
+    public Cursor readMetrics(boolean reset) {
+        return metrics.snapshot(reset);
+    }
+
+    /**
+     * Метод записи времени перехода результата в UI-Thread. Вызывается Activity
+     * @param nanos время от отправки в Handler до выполнения, в наносекундах
+     */
+    public void recordDelivery(long nanos) {
+        metrics.recordDelivery(nanos);
+    }
+
+    /**
+     * Метод записи времени до первого кадра списка. Вызывается Activity
+     * @param source источник данных кадра ("snapshot", "database")
+     * @param nanos время от создания Activity до кадра, в наносекундах
+     */
+    public void recordFirstFrame(String source, long nanos) {
+        metrics.recordFirstFrame(source, nanos);
+    }
+
+    /**
+     * Метод ожидания результата асинхронной операции для блокирующих адаптеров. Задачи операции
+     * ставятся в очереди класса PROVIDER: запросы внешних клиентов уступают задачам UI
+     * @param call вызов асинхронной операции
+     * @param fallback значение, которое вернем, если операция завершилась ошибкой
+     * @return результат операции
+     */
+    private <T> T await(Supplier<CompletableFuture<T>> call, T fallback) {
+        try {
+            return withPriority(PriorityScheduler.Priority.PROVIDER, call).get();
         } catch (ExecutionException ex) {
+
+            // Внутри пакета ошибку нельзя "проглотить": она должна дойти до транзакции и откатить ее
+            if (isInBatch()) throw new CompletionException(ex.getCause());
             ex.printStackTrace();
         } catch (InterruptedException ex) {
             ex.printStackTrace();
         }
-        return 0;
+        return fallback;
     }
 
     /**
-     * Метод взаимодействия.
-     * Формируем сообщение, в котором передаем результат выборки
-     * @param result результат выборки (SELECT * FROM entries)
+     * Метод вызывается в потоке базы данных после успешного изменения записи. Из кэша удаляется
+     * запись и результаты, которые от нее зависят. Раньше об изменении
+     * сообщал ContentProvider, но теперь Activity работает с базой напрямую через асинхронное API,
+     * поэтому наблюдателей уведомляем здесь - для всех путей записи одинаково
+     * Внутри пакета уведомление откладывается до его завершения
+     * @param id измененной записи
      */
-    private void postResult(List<Entry> result) {
-        Message message = Message.obtain(null, DATABASE_ENTRIES, result);
-        mHandler.sendMessage(message);
+    private void onEntryChanged(long id) {
+        cache.invalidate(Collections.singletonList(id));
+        if (isInBatch()) {
+            isBatchChanged = true;
+            return;
+        }
+        mContext.getContentResolver().notifyChange(
+                Uri.withAppendedPath(MyContentProvider.CONTENT_URI, String.valueOf(id)), null);
+        postRepaint();
+    }
+
+    /**
+     * Метод вызывается в потоке базы данных после успешного пакетного изменения. Уведомляем
+     * наблюдателей один раз - адресом всей таблицы
+     */
+    private void onEntriesChanged() {
+        if (isInBatch()) {
+            isBatchChanged = true;
+            return;
+        }
+        mContext.getContentResolver().notifyChange(MyContentProvider.CONTENT_URI, null);
+        postRepaint();
+    }
+
+    /**
+     * @return true, если текущий поток - поток базы данных, выполняющий пакет операций
+     */
+    private boolean isInBatch() {
+        return Thread.currentThread() == dbThread && batchDepth > 0;
     }
 
     /**
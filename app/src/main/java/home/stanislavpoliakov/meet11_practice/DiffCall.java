@@ -3,15 +3,43 @@ package home.stanislavpoliakov.meet11_practice;
 import android.support.v7.util.DiffUtil;
 
 import java.util.List;
+import java.util.Objects;
 
-// Сюда и добавить-то нечего! DiffUtil.Callback какой есть :)
-
+/**
+ * DiffUtil.Callback для слепков записей. Записи считаются "одним и тем же элементом", если у них
+ * одинаковый id (primary key), и "одинаковыми по содержанию", если совпадают название, превью
+ * текста и время изменения - именно их показывает элемент списка, а полный текст в слепке списка не загружается.
+ * Тогда DiffUtil сообщает RecyclerView только о реально изменившихся, добавленных и удаленных
+ * записях, а не перерисовывает весь список.
+ *
+ * Для измененной записи DiffCall сообщает, какие именно поля изменились (payload - флаги CHANGED_*),
+ * и MyAdapter обновляет только их: правка названия не заставляет заново размечать длинное превью.
+ * Флаги передаются как Integer из кэша Integer.valueOf (значения до 127), без выделения памяти
+ */
 public class DiffCall extends DiffUtil.Callback {
+    // Флаги изменений элемента: название, превью текста, время изменения
+    public static final int CHANGED_TITLE = 1;
+    public static final int CHANGED_BODY = 1 << 1;
+    public static final int CHANGED_METADATA = 1 << 2;
+    public static final int CHANGED_ALL = CHANGED_TITLE | CHANGED_BODY | CHANGED_METADATA;
+
     private List<Entry> oldData, newData;
+    private final boolean hasPayloads;
 
     public DiffCall(List<Entry> oldData, List<Entry> newData) {
+        this(oldData, newData, true);
+    }
+
+    /**
+     * @param oldData отрисованный слепок
+     * @param newData новый слепок
+     * @param hasPayloads false - не сообщать измененные поля: элемент перерисовывается целиком
+     *                    (так было до payload, используется для сравнения времени кадра)
+     */
+    public DiffCall(List<Entry> oldData, List<Entry> newData, boolean hasPayloads) {
         this.oldData = oldData;
         this.newData = newData;
+        this.hasPayloads = hasPayloads;
     }
 
     @Override
@@ -26,11 +54,32 @@ public class DiffCall extends DiffUtil.Callback {
 
     @Override
     public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-        return false;
+        return oldData.get(oldItemPosition).getId() == newData.get(newItemPosition).getId();
     }
 
     @Override
     public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-        return false;
+        return changes(oldData.get(oldItemPosition), newData.get(newItemPosition)) == 0;
+    }
+
+    /**
+     * Вызывается DiffUtil только для записей с одинаковым id и разным содержанием
+     * @return флаги изменившихся полей (Integer) или null, если payload отключены
+     */
+    @Override
+    public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+        if (!hasPayloads) return null;
+        return changes(oldData.get(oldItemPosition), newData.get(newItemPosition));
+    }
+
+    /**
+     * @return флаги CHANGED_* полей, которые показывает элемент списка и которые различаются
+     */
+    static int changes(Entry oldEntry, Entry newEntry) {
+        int changes = 0;
+        if (!Objects.equals(oldEntry.getTitle(), newEntry.getTitle())) changes |= CHANGED_TITLE;
+        if (!Objects.equals(oldEntry.getPreview(), newEntry.getPreview())) changes |= CHANGED_BODY;
+        if (oldEntry.getTimeStamp() != newEntry.getTimeStamp()) changes |= CHANGED_METADATA;
+        return changes;
     }
 }
@@ -63,6 +63,27 @@ public class EditFragment extends DialogFragment {
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
         initViews(view);
+
+        // После пересоздания фрагмента текст (возможно, уже отредактированный) восстановит EditText
+        if (savedInstanceState == null) loadBody(view);
+    }
+
+    /**
+     * Метод загрузки полного текста записи. Список хранит только превью, поэтому текст читаем по id
+     * асинхронно. Пока текст не загружен, сохранять нечего - кнопка редактирования недоступна
+     * @param view, на которой находятся элементы
+     */
+    private void loadBody(View view) {
+        Button editButton = view.findViewById(R.id.editButton);
+        body.setEnabled(false);
+        editButton.setEnabled(false);
+
+        mActivity.read(getArguments().getInt("id")).thenAccept(entry -> {
+            if (entry == null || !isAdded()) return;
+            body.setText(entry.getText());
+            body.setEnabled(true);
+            editButton.setEnabled(true);
+        });
     }
 
     /**
@@ -74,7 +95,6 @@ public class EditFragment extends DialogFragment {
         title = view.findViewById(R.id.editTitleEF);
         title.setText(getArguments().getString("title"));
         body = view.findViewById(R.id.editTextEF);
-        body.setText(getArguments().getString("body"));
 
         Button editButton = view.findViewById(R.id.editButton);
         editButton.setOnClickListener(v -> {
@@ -85,7 +105,7 @@ public class EditFragment extends DialogFragment {
             Bundle info = new Bundle();
             info.putString("title", title.getText().toString());
             info.putString("body", body.getText().toString());
-            info.putInt("item position", getArguments().getInt("item position"));
+            info.putInt("id", getArguments().getInt("id"));
 
             mActivity.update(info);
             dismiss();
@@ -8,11 +8,23 @@ import android.arch.persistence.room.PrimaryKey;
 
 /**
  * Класс записи, в котором:
- * timeStamp - дата и вермя создания записи
+ * timeStamp - время последнего изменения записи (миллисекунды от начала эпохи Unix). Хранится
+ * числом (INTEGER) и проиндексировано: выборки "последние изменения" и "за период" идут по индексу,
+ * без перебора и разбора строк. Устанавливает DatabaseManager при каждой записи
  * title - название записи
  * text - текст записи
+ *
+ * Текст записи хранится либо в базе (storedText, столбец entry_text), либо, если запись слишком
+ * большая, в отдельном файле (textFile, столбец text_file) - тогда в базе остается только ссылка на
+ * файл. Файл читается лениво, при первом обращении к getText() (см. EntryFileStore). Длинный
+ * текст, не вынесенный в файл, хранится сжатым (deflatedText, столбец text_deflated) и тоже
+ * распаковывается лениво, при первом обращении к getText() (см. EntryCompression)
+ *
+ * preview - первые PREVIEW_LENGTH символов текста. Хранится отдельным столбцом и пересчитывается
+ * при каждой установке текста: списку достаточно id, title и preview, полный текст читается по id
+ * только при открытии записи на редактирование
  */
-@Entity (tableName = "entries", indices = {@Index("id")})
+@Entity (tableName = "entries", indices = {@Index("timestamp")})
 public class Entry implements Cloneable{
     @PrimaryKey(autoGenerate = true)
     private int id;
@@ -20,13 +32,27 @@ public class Entry implements Cloneable{
     private String title;
 
     @ColumnInfo(name = "entry_text")
-    private String text;
+    private String storedText;
+
+    @ColumnInfo(name = "text_file")
+    private String textFile;
+
+    private String preview;
 
     @ColumnInfo(name = "timestamp")
-    private String timeStamp;
+    private long timeStamp;
 
+    @ColumnInfo(name = "text_deflated")
+    private byte[] deflatedText;
+
+    // Длина превью в символах. Элемент списка показывает несколько строк текста, этого достаточно
     @Ignore
-    private boolean isLarge;
+    public static final int PREVIEW_LENGTH = 200;
+
+    // Полный текст записи. Для больших записей загружается из файла (для сжатых - распаковывается)
+    // при первом обращении
+    @Ignore
+    private volatile String text;
 
     @Ignore
     private static final String TAG = "meet9_logs";
@@ -34,33 +60,70 @@ public class Entry implements Cloneable{
     @Ignore
     public Entry(String title, String text) {
         this.title = title;
-        this.text = text;
-
-        //TODO Релизовать сохранение записи в отдельный файл, если запись слишком большая
-        //TODO Очевидно, что в база должна хранить ссылку на файл или NULL, если запись сохранена в базе
-        isLarge = false;
+        setText(text);
     }
 
+    @Ignore
     public Entry(String title, String text, int id) {
         this.title = title;
-        this.text = text;
         this.id = id;
+        setText(text);
     }
 
-    public void setTimeStamp(String timeStamp) {
+    /**
+     * Конструктор для Room: поля записи в том виде, в котором они хранятся в базе данных
+     */
+    public Entry(int id, String title, String storedText, String textFile, String preview,
+                 long timeStamp, byte[] deflatedText) {
+        this.id = id;
+        this.title = title;
+        this.storedText = storedText;
+        this.textFile = textFile;
+        this.preview = preview;
         this.timeStamp = timeStamp;
+        this.deflatedText = deflatedText;
+    }
 
+    @Ignore
+    public Entry(int id, String title, String storedText, String textFile, String preview,
+                 long timeStamp) {
+        this(id, title, storedText, textFile, preview, timeStamp, null);
     }
 
+    public void setTimeStamp(long timeStamp) {
+        this.timeStamp = timeStamp;
+    }
+
+    /**
+     * Метод установки текста записи. Новый текст хранится в базе, пока DatabaseManager при
+     * сохранении не решит вынести его в файл (EntryFileStore.spillIfLarge)
+     * @param text текст записи
+     */
     public void setText(String text) {
         this.text = text;
+        this.storedText = text;
+        this.textFile = null;
+        this.deflatedText = null;
+        this.preview = makePreview(text);
+    }
+
+    /**
+     * Метод формирования превью текста. Не разрезаем суррогатную пару (символ вне BMP)
+     * @param text полный текст записи
+     * @return первые PREVIEW_LENGTH символов текста
+     */
+    static String makePreview(String text) {
+        if (text == null || text.length() <= PREVIEW_LENGTH) return text;
+        int end = PREVIEW_LENGTH;
+        if (Character.isHighSurrogate(text.charAt(end - 1))) end--;
+        return text.substring(0, end);
     }
 
     public void setTitle(String title) {
         this.title = title;
     }
 
-    public String getTimeStamp() {
+    public long getTimeStamp() {
         return this.timeStamp;
     }
 
@@ -68,10 +131,56 @@ public class Entry implements Cloneable{
         return this.title;
     }
 
+    /**
+     * @return полный текст записи. Если текст вынесен в файл или сжат, он читается (распаковывается)
+     * при первом обращении
+     */
     public String getText() {
+        if (text == null && textFile != null) text = EntryFileStore.read(textFile);
+        else if (text == null && deflatedText != null) text = EntryCompression.decompress(deflatedText);
+        else if (text == null) text = storedText;
         return this.text;
     }
 
+    /*
+     * Методы доступа к полям в том виде, в котором они хранятся в базе данных. Используются Room,
+     * EntryFileStore и EntryCompression, для отображения записи нужны getPreview() и getText()
+     */
+    public String getStoredText() {
+        return this.storedText;
+    }
+
+    public void setStoredText(String storedText) {
+        this.storedText = storedText;
+    }
+
+    /**
+     * @return превью текста записи (для отображения в списке)
+     */
+    public String getPreview() {
+        return this.preview;
+    }
+
+    public void setPreview(String preview) {
+        this.preview = preview;
+    }
+
+    public byte[] getDeflatedText() {
+        return this.deflatedText;
+    }
+
+    public void setDeflatedText(byte[] deflatedText) {
+        this.deflatedText = deflatedText;
+    }
+
+    public String getTextFile() {
+        return this.textFile;
+    }
+
+    public void setTextFile(String textFile) {
+        this.textFile = textFile;
+    }
+
     public int getId() {
         return this.id;
     }
@@ -80,13 +189,28 @@ public class Entry implements Cloneable{
         this.id = id;
     }
 
-    @Ignore
+    /**
+     * @return true, если текст записи вынесен в отдельный файл
+     */
     public boolean isLarge() {
-        return this.isLarge;
+        return this.textFile != null;
+    }
+
+    /**
+     * Метод копирования записи. Слой базы данных меняет при записи время изменения и поля
+     * хранения текста (файл, сжатие) - только у своей копии, а не у записи вызывающего, которая
+     * уже может быть в отрисованном слепке
+     * @return копия записи
+     */
+    public Entry copy() {
+        try {
+            return (Entry) clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new AssertionError(ex);
+        }
     }
 
     /**
-     * Переопределен, но не использован
      * @return deep-copy
      * @throws CloneNotSupportedException
      */
@@ -96,6 +220,10 @@ public class Entry implements Cloneable{
         Entry clonedEntry = (Entry) super.clone();
         clonedEntry.title = this.title;
         clonedEntry.text = this.text;
+        clonedEntry.storedText = this.storedText;
+        clonedEntry.textFile = this.textFile;
+        clonedEntry.deflatedText = this.deflatedText;
+        clonedEntry.preview = this.preview;
         clonedEntry.id = this.id;
         clonedEntry.timeStamp = this.timeStamp;
         return clonedEntry;
@@ -0,0 +1,229 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Формат резервной копии записей (экспорт и импорт таблицы entries). Содержит статические методы
+ * и потоковые Writer / Reader. Ненаследуемый
+ *
+ * Формат потоковый, с префиксами длины (порядок байтов big-endian): заголовок MAGIC, VERSION,
+ * затем записи - маркер RECORD, timestamp long, title, text; строка - длина в байтах UTF-8 (-1 для
+ * null) и байты. В конце - маркер END и количество записей, по которому импорт проверяет, что файл
+ * не обрезан. id записей не сохраняются: при импорте записи получают новые id в том же порядке.
+ *
+ * И запись, и чтение идут по одной записи за раз, поэтому память не зависит от размера таблицы:
+ * в памяти находится только текущая порция записей (и текст текущей записи)
+ */
+public final class EntryBackup {
+    private static final int MAGIC = 0x4D313142;  // "M11B"
+    private static final int VERSION = 1;
+    private static final byte RECORD = 1;
+    private static final byte END = 0;
+
+    // Ограничение длины строки при чтении: поврежденный префикс длины не должен приводить к
+    // попытке выделить гигабайты памяти
+    private static final int MAX_STRING_BYTES = 64 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Интерфейс получения прогресса экспорта и импорта. Вызывается в потоке базы данных или
+     * чтения после каждой порции записей, поэтому должен быть быстрым
+     */
+    public interface ProgressListener {
+        /**
+         * @param entries количество записей, обработанных к этому моменту
+         * @param bytes количество байт резервной копии, записанных или прочитанных к этому моменту
+         */
+        void onProgress(long entries, long bytes);
+    }
+
+    private EntryBackup() {
+    }
+
+    /**
+     * Потоковая запись резервной копии. Поток вызывающего не закрывается
+     */
+    public static class Writer {
+        private final CountingOutputStream counter;
+        private final DataOutputStream out;
+        private long count = 0;
+
+        /**
+         * @param stream поток, в который пишется резервная копия. Заголовок пишется сразу
+         * @throws IOException если заголовок не удалось записать
+         */
+        public Writer(OutputStream stream) throws IOException {
+            counter = new CountingOutputStream(stream);
+            out = new DataOutputStream(new BufferedOutputStream(counter, BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        /**
+         * @param entry запись. Текст берется через getText() - большой текст читается из файла
+         * @throws IOException если запись не удалось записать
+         */
+        public void write(Entry entry) throws IOException {
+            out.writeByte(RECORD);
+            out.writeLong(entry.getTimeStamp());
+            writeString(out, entry.getTitle());
+            writeString(out, entry.getText());
+            count++;
+        }
+
+        /**
+         * Метод завершения резервной копии: маркер конца и количество записей
+         * @throws IOException если не удалось записать
+         */
+        public void finish() throws IOException {
+            out.writeByte(END);
+            out.writeLong(count);
+            out.flush();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return количество байт, переданных в поток вызывающего (без содержимого буфера)
+         */
+        public long getBytes() {
+            return counter.bytes;
+        }
+    }
+
+    /**
+     * Потоковое чтение резервной копии. Поток вызывающего не закрывается
+     */
+    public static class Reader {
+        private final CountingInputStream counter;
+        private final DataInputStream in;
+        private long count = 0;
+        private boolean isFinished = false;
+
+        /**
+         * @param stream поток, из которого читается резервная копия. Заголовок читается сразу
+         * @throws IOException если поток не является резервной копией поддерживаемой версии
+         */
+        public Reader(InputStream stream) throws IOException {
+            counter = new CountingInputStream(stream);
+            in = new DataInputStream(new BufferedInputStream(counter, BUFFER_SIZE));
+            if (in.readInt() != MAGIC) throw new IOException("Not an entries backup");
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported backup version " + version);
+        }
+
+        /**
+         * Метод чтения следующей порции записей
+         * @param limit максимальное количество записей в порции
+         * @return записи (без id) или пустой список, если записи закончились
+         * @throws IOException если поток обрезан или поврежден
+         */
+        public List<Entry> read(int limit) throws IOException {
+            List<Entry> entries = new ArrayList<>(isFinished ? 0 : limit);
+            while (!isFinished && entries.size() < limit) {
+                byte marker = in.readByte();
+                if (marker == END) {
+                    long expected = in.readLong();
+                    if (expected != count) {
+                        throw new IOException("Backup has " + expected + " entries, read " + count);
+                    }
+                    isFinished = true;
+                } else if (marker == RECORD) {
+                    long timeStamp = in.readLong();
+                    Entry entry = new Entry(readString(in), readString(in));
+                    entry.setTimeStamp(timeStamp);
+                    entries.add(entry);
+                    count++;
+                } else {
+                    throw new IOException("Corrupt backup: unknown marker " + marker);
+                }
+            }
+            return entries;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return количество байт, прочитанных из потока вызывающего (с опережением на буфер)
+         */
+        public long getBytes() {
+            return counter.bytes;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        if (length > MAX_STRING_BYTES) throw new IOException("Corrupt backup: string of " + length + " bytes");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long bytes = 0;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytes += len;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long bytes = 0;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) bytes++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) bytes += read;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.content.ComponentCallbacks2;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Bundle;
+import android.util.LruCache;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Двухуровневый кэш чтений DatabaseManager:
+ * rows - записи целиком, по id (чтение одной записи: ENTRY_ID провайдера, окно редактирования);
+ * results - результаты запросов (страницы, вся таблица, поиск), по "форме" запроса: тип запроса,
+ * параметры и набор столбцов.
+ *
+ * Каждый результат помнит диапазон id, от которого он зависит: страница после afterId из limit
+ * записей зависит только от записей (afterId, id последней записи страницы]. Поэтому изменение
+ * записи удаляет из кэша только ее саму и результаты, в диапазон которых попадает ее id, а не весь кэш.
+ *
+ * Чтение, начавшееся до изменения, не должно положить в кэш устаревший результат после
+ * инвалидации. Поэтому каждая инвалидация увеличивает version, а результат кладется в кэш, только
+ * если version не изменилась с начала чтения
+ */
+public class EntryCache {
+    // Границы диапазона "все записи"
+    public static final int MIN_ID = Integer.MIN_VALUE;
+    public static final int MAX_ID = Integer.MAX_VALUE;
+
+    private final LruCache<Integer, Entry> rows;
+    private final LruCache<String, Result> results;
+    private final int maxRows, maxResultRows;
+    private long version = 0;
+
+    /**
+     * Результат запроса: значения всех строк и диапазон id, от которого он зависит
+     */
+    public static class Result {
+        private final String[] columns;
+        private final List<Object[]> values;
+        private int lowId = MIN_ID, highId = MAX_ID;
+
+        private Result(String[] columns, List<Object[]> values) {
+            this.columns = columns;
+            this.values = values;
+        }
+
+        /**
+         * Метод чтения курсора целиком. Курсор закрывается
+         * @param cursor результат запроса
+         * @return результат в виде, пригодном для кэширования
+         */
+        public static Result read(Cursor cursor) {
+            String[] columns = cursor.getColumnNames();
+            List<Object[]> values = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                Object[] row = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER: row[i] = cursor.getLong(i); break;
+                        case Cursor.FIELD_TYPE_FLOAT: row[i] = cursor.getDouble(i); break;
+                        case Cursor.FIELD_TYPE_STRING: row[i] = cursor.getString(i); break;
+                        case Cursor.FIELD_TYPE_BLOB: row[i] = cursor.getBlob(i); break;
+                        default: row[i] = null;
+                    }
+                }
+                values.add(row);
+            }
+            cursor.close();
+            return new Result(columns, values);
+        }
+
+        /**
+         * Метод установки диапазона id, от которого зависит результат
+         * @param lowId нижняя граница (включительно)
+         * @param highId верхняя граница (включительно)
+         * @return этот же результат
+         */
+        public Result dependsOn(int lowId, int highId) {
+            this.lowId = lowId;
+            this.highId = highId;
+            return this;
+        }
+
+        /**
+         * @return id первой строки результата или null, если результат пуст или в нем нет id
+         */
+        public Integer firstId() {
+            return idAt(0);
+        }
+
+        /**
+         * @return id последней строки результата или null, если результат пуст или в нем нет id
+         */
+        public Integer lastId() {
+            return idAt(values.size() - 1);
+        }
+
+        public int size() {
+            return values.size();
+        }
+
+        private Integer idAt(int position) {
+            if (position < 0) return null;
+            for (int i = 0; i < columns.length; i++) {
+                if ("id".equals(columns[i])) return ((Number) values.get(position)[i]).intValue();
+            }
+            return null;
+        }
+
+        private boolean contains(int id) {
+            return lowId <= id && id <= highId;
+        }
+
+        /**
+         * @return новый курсор по значениям результата (каждому читателю - свой)
+         */
+        public Cursor toCursor() {
+            MatrixCursor cursor = new MatrixCursor(columns, values.size());
+            for (Object[] row : values) cursor.addRow(row);
+            return cursor;
+        }
+    }
+
+    /**
+     * @param maxRows максимальное количество записей в кэше записей
+     * @param maxResultRows максимальное суммарное количество строк в кэше результатов
+     */
+    public EntryCache(int maxRows, int maxResultRows) {
+        this.maxRows = maxRows;
+        this.maxResultRows = maxResultRows;
+        this.rows = new LruCache<>(maxRows);
+        this.results = new LruCache<String, Result>(maxResultRows) {
+            @Override
+            protected int sizeOf(String key, Result result) {
+                return Math.max(1, result.size());
+            }
+        };
+    }
+
+    /**
+     * Текущая версия кэша. Читатель запоминает ее до запроса к базе и передает в put*
+     */
+    public synchronized long version() {
+        return version;
+    }
+
+    public Entry getEntry(int id) {
+        return rows.get(id);
+    }
+
+    public synchronized void putEntry(long version, Entry entry) {
+        if (this.version == version) rows.put(entry.getId(), entry);
+    }
+
+    /**
+     * @param key форма запроса
+     * @return новый курсор по закэшированному результату или null, если результата в кэше нет
+     */
+    public Cursor getResult(String key) {
+        Result result = results.get(key);
+        return (result == null) ? null : result.toCursor();
+    }
+
+    /**
+     * Метод сохранения результата. Слишком большие результаты не кэшируются - они вытеснили бы
+     * все остальное
+     * @param version версия кэша на начало чтения
+     * @param key форма запроса
+     * @param result результат с установленным диапазоном id
+     */
+    public synchronized void putResult(long version, String key, Result result) {
+        if (this.version == version && result.size() <= maxResultRows / 2) results.put(key, result);
+    }
+
+    /**
+     * @return true, если результат такого размера имеет смысл читать целиком для кэширования
+     */
+    public boolean isCacheable(int resultRows) {
+        return resultRows <= maxResultRows / 2;
+    }
+
+    /**
+     * Метод инвалидации после изменения записей
+     * @param ids список id измененных (добавленных, удаленных) записей
+     */
+    public synchronized void invalidate(Collection<? extends Number> ids) {
+        version++;
+        for (Number id : ids) rows.remove(id.intValue());
+        for (Map.Entry<String, Result> cached : results.snapshot().entrySet()) {
+            for (Number id : ids) {
+                if (cached.getValue().contains(id.intValue())) {
+                    results.remove(cached.getKey());
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Метод инвалидации после изменения диапазона записей
+     * @param fromId id первой записи диапазона (включительно)
+     * @param toId id последней записи диапазона (включительно)
+     */
+    public synchronized void invalidateRange(int fromId, int toId) {
+        version++;
+        for (Integer id : rows.snapshot().keySet()) {
+            if (fromId <= id && id <= toId) rows.remove(id);
+        }
+        for (Map.Entry<String, Result> cached : results.snapshot().entrySet()) {
+            Result result = cached.getValue();
+            if (result.lowId <= toId && fromId <= result.highId) results.remove(cached.getKey());
+        }
+    }
+
+    /**
+     * Метод инвалидации всего кэша (например, после пакета операций)
+     */
+    public synchronized void invalidateAll() {
+        version++;
+        rows.evictAll();
+        results.evictAll();
+    }
+
+    /**
+     * Метод уменьшения кэша по сигналу системы о нехватке памяти (ComponentCallbacks2.onTrimMemory)
+     * @param level уровень нехватки памяти
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            rows.evictAll();
+            results.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            rows.trimToSize(maxRows / 2);
+            results.trimToSize(maxResultRows / 2);
+        }
+    }
+
+    /**
+     * @return счетчики попаданий и промахов кэша, а также текущие размеры (для подбора размеров)
+     */
+    public Bundle getStats() {
+        Bundle stats = new Bundle();
+        stats.putInt("row_hits", rows.hitCount());
+        stats.putInt("row_misses", rows.missCount());
+        stats.putInt("row_evictions", rows.evictionCount());
+        stats.putInt("row_size", rows.size());
+        stats.putInt("result_hits", results.hitCount());
+        stats.putInt("result_misses", results.missCount());
+        stats.putInt("result_evictions", results.evictionCount());
+        stats.putInt("result_size", results.size());
+        return stats;
+    }
+}
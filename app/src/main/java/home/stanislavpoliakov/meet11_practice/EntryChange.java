@@ -0,0 +1,62 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.PrimaryKey;
+
+/**
+ * Класс записи журнала изменений (append-only), в котором:
+ * seq - порядковый номер изменения (растет монотонно)
+ * op - тип изменения (insert, update, delete)
+ * entryId - id измененной записи
+ *
+ * Журнал позволяет наблюдателям (Activity, внешним клиентам ContentProvider) запросить только
+ * изменения, случившиеся после последнего известного им seq, вместо повторного чтения всей таблицы
+ */
+@Entity(tableName = "entry_changes")
+public class EntryChange {
+    // Типы изменений. OP_RESET в базе не хранится: это признак того, что запрошенная часть журнала
+    // уже удалена, и клиенту нужно перечитать данные целиком
+    public static final int OP_RESET = 0;
+    public static final int OP_INSERT = 1;
+    public static final int OP_UPDATE = 2;
+    public static final int OP_DELETE = 3;
+
+    // Триггеры, которые ведут журнал. Журнал заполняется самой базой данных в той же транзакции,
+    // что и изменение, поэтому в него попадают все пути записи: одиночные, пакетные, удаление
+    // диапазона, applyBatch
+    static final String[] TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS entries_log_insert AFTER INSERT ON entries BEGIN "
+                    + "INSERT INTO entry_changes(op, entry_id) VALUES (" + OP_INSERT + ", NEW.id); END",
+            "CREATE TRIGGER IF NOT EXISTS entries_log_update AFTER UPDATE ON entries BEGIN "
+                    + "INSERT INTO entry_changes(op, entry_id) VALUES (" + OP_UPDATE + ", NEW.id); END",
+            "CREATE TRIGGER IF NOT EXISTS entries_log_delete AFTER DELETE ON entries BEGIN "
+                    + "INSERT INTO entry_changes(op, entry_id) VALUES (" + OP_DELETE + ", OLD.id); END"
+    };
+
+    @PrimaryKey(autoGenerate = true)
+    private long seq;
+
+    private int op;
+
+    @ColumnInfo(name = "entry_id")
+    private int entryId;
+
+    public EntryChange(long seq, int op, int entryId) {
+        this.seq = seq;
+        this.op = op;
+        this.entryId = entryId;
+    }
+
+    public long getSeq() {
+        return this.seq;
+    }
+
+    public int getOp() {
+        return this.op;
+    }
+
+    public int getEntryId() {
+        return this.entryId;
+    }
+}
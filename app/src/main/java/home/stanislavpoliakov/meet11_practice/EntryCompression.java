@@ -0,0 +1,260 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.util.Log;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Сжатие текстов записей. Содержит статические методы. Ненаследуемый
+ *
+ * Текст от COMPRESS_THRESHOLD символов (и меньше порога EntryFileStore) хранится в таблице не в
+ * entry_text, а сжатым Deflate в столбце text_deflated. Так длинные записи меньше раздувают файл
+ * базы, кэш страниц SQLite и окно курсора (CursorWindow) при чтении записи целиком. Текст
+ * распаковывается лениво - при первом обращении к Entry.getText(), то есть только когда запись
+ * открывают или экспортируют; списку хватает превью, которое хранится несжатым.
+ *
+ * Короткие заметки сжимаются плохо: Deflate не успевает набрать повторов. Поэтому сжатие идет с
+ * общим словарем (preset dictionary) - строкой из частых фрагментов текстов самого пользователя
+ * (см. train). Словари хранятся в таблице text_dictionaries и никогда не меняются: сжатый текст
+ * ссылается на свой словарь по id, а новые тексты сжимаются последним словарем.
+ *
+ * Формат text_deflated (big-endian): маркер формата FORMAT_DEFLATE, id словаря (unsigned short,
+ * 0 - без словаря), длина текста в байтах UTF-8 (int), затем поток Deflate без заголовка zlib.
+ * Строки, записанные до сжатия (text_deflated = NULL), читаются как раньше - из entry_text
+ */
+public final class EntryCompression {
+    // Порог (в символах), начиная с которого текст сжимается. Ниже выигрыш не окупает распаковку
+    public static final int COMPRESS_THRESHOLD = 1024;
+
+    // Окно Deflate - 32 КБ: более длинный словарь все равно не будет использован
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    static final String CREATE_DICTIONARIES = "CREATE TABLE IF NOT EXISTS text_dictionaries "
+            + "(id INTEGER PRIMARY KEY NOT NULL, dictionary BLOB NOT NULL)";
+
+    private static final String TAG = "meet11_logs";
+    private static final byte FORMAT_DEFLATE = 1;
+    private static final int HEADER_SIZE = 1 + Short.BYTES + Integer.BYTES;
+
+    // Обучение словаря: фрагменты - от одного до MAX_GRAM слов; учитываются только повторяющиеся
+    private static final int MAX_GRAM = 3;
+    private static final int MAX_SAMPLE_CHARS = 1024 * 1024;
+    private static final int MAX_CANDIDATES = 20_000;
+
+    private static final ConcurrentMap<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+    private static volatile int currentDictionaryId = 0;
+
+    // Deflater и Inflater держат память zlib вне кучи - создаем по одному на поток
+    private static final ThreadLocal<Deflater> deflaters =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private EntryCompression() {
+    }
+
+    /**
+     * Метод регистрации словаря. DatabaseManager вызывает его при открытии базы для каждого
+     * словаря из text_dictionaries и после обучения нового. Новые тексты сжимаются словарем с
+     * наибольшим id
+     * @param id словаря (от 1 до 65535)
+     * @param dictionary словарь
+     */
+    public static void register(int id, byte[] dictionary) {
+        if (id < 1 || id > 0xFFFF) throw new IllegalArgumentException("Dictionary id = " + id);
+        dictionaries.put(id, dictionary);
+        synchronized (EntryCompression.class) {
+            if (id > currentDictionaryId) currentDictionaryId = id;
+        }
+    }
+
+    /**
+     * @return id словаря, которым сжимаются новые тексты (0 - словаря еще нет)
+     */
+    public static int getCurrentDictionaryId() {
+        return currentDictionaryId;
+    }
+
+    /**
+     * Метод сжатия текста записи. Вызывается в потоке базы данных перед вставкой или обновлением
+     * записи, после EntryFileStore.spillIfLarge
+     * @param entry запись. Если текст сжат, он остается в записи только в сжатом виде
+     * @return true, если текст сжат
+     */
+    public static boolean compressIfLarge(Entry entry) {
+        String text = entry.getStoredText();
+        if (text == null || text.length() < COMPRESS_THRESHOLD) return false;
+        byte[] compressed = compress(text, currentDictionaryId);
+        if (compressed == null) return false;
+        entry.setStoredText(null);
+        entry.setDeflatedText(compressed);
+        return true;
+    }
+
+    /**
+     * Метод сжатия текста
+     * @param text текст
+     * @param dictionaryId id зарегистрированного словаря (0 - без словаря)
+     * @return сжатый текст в формате text_deflated или null, если сжатие не уменьшило размер
+     */
+    public static byte[] compress(String text, int dictionaryId) {
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        byte[] dictionary = dictionary(dictionaryId);
+        if (dictionary == null) dictionaryId = 0;
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionary != null) deflater.setDictionary(dictionary);
+        deflater.setInput(raw);
+        deflater.finish();
+
+        // Выходной буфер размером с исходный текст: если сжатое в него не поместилось, сжимать незачем
+        byte[] out = new byte[raw.length];
+        int length = HEADER_SIZE;
+        while (!deflater.finished() && length < out.length) {
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        if (!deflater.finished()) return null;
+
+        ByteBuffer header = ByteBuffer.wrap(out);
+        header.put(FORMAT_DEFLATE);
+        header.putShort((short) dictionaryId);
+        header.putInt(raw.length);
+        byte[] compressed = new byte[length];
+        System.arraycopy(out, 0, compressed, 0, length);
+        return compressed;
+    }
+
+    /**
+     * Метод распаковки текста
+     * @param compressed сжатый текст в формате text_deflated
+     * @return текст или null, если формат или словарь неизвестны, либо данные повреждены
+     */
+    public static String decompress(byte[] compressed) {
+        try {
+            ByteBuffer header = ByteBuffer.wrap(compressed);
+            byte format = header.get();
+            if (format != FORMAT_DEFLATE) throw new DataFormatException("Unknown format " + format);
+            int dictionaryId = header.getShort() & 0xFFFF;
+            int rawLength = header.getInt();
+            byte[] dictionary = dictionary(dictionaryId);
+            if (dictionaryId != 0 && dictionary == null) {
+                throw new DataFormatException("Unknown dictionary " + dictionaryId);
+            }
+            if (rawLength < 0) throw new DataFormatException("Length " + rawLength);
+
+            Inflater inflater = inflaters.get();
+            inflater.reset();
+            if (dictionary != null) inflater.setDictionary(dictionary);
+            inflater.setInput(compressed, HEADER_SIZE, compressed.length - HEADER_SIZE);
+            byte[] raw = new byte[rawLength];
+            int length = 0;
+            while (length < rawLength) {
+                int inflated = inflater.inflate(raw, length, rawLength - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) break;
+                length += inflated;
+            }
+            if (length != rawLength) throw new DataFormatException("Inflated " + length + " of " + rawLength);
+            return new String(raw, StandardCharsets.UTF_8);
+        } catch (DataFormatException | RuntimeException ex) {
+            Log.e(TAG, "Can't decompress entry text", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Метод обучения словаря на текстах записей. Считает, сколько раз встречается каждый фрагмент
+     * из одного, двух и трех слов (вместе с разделителями), и оценивает фрагмент как
+     * (повторы - 1) * длина: столько байт он сэкономил бы, будучи в словаре. В словарь попадают
+     * лучшие фрагменты, пока он не заполнится, причем лучшие - в конец: Deflate кодирует короткие
+     * расстояния дешевле, а конец словаря ближе всего к началу текста
+     * @param samples тексты записей (используется не больше MAX_SAMPLE_CHARS символов)
+     * @param maxSize максимальный размер словаря в байтах (не больше MAX_DICTIONARY_SIZE)
+     * @return словарь или пустой массив, если повторов нет
+     */
+    public static byte[] train(List<String> samples, int maxSize) {
+        maxSize = Math.min(maxSize, MAX_DICTIONARY_SIZE);
+        Map<String, Integer> counts = new HashMap<>();
+        int sampled = 0;
+        for (String sample : samples) {
+            if (sample == null) continue;
+            if (sampled >= MAX_SAMPLE_CHARS) break;
+            String text = sample.substring(0, Math.min(sample.length(), MAX_SAMPLE_CHARS - sampled));
+            sampled += text.length();
+
+            List<String> words = split(text);
+            for (int i = 0; i < words.size(); i++) {
+                StringBuilder gram = new StringBuilder();
+                for (int n = 0; n < MAX_GRAM && i + n < words.size(); n++) {
+                    gram.append(words.get(i + n));
+                    counts.merge(gram.toString(), 1, Integer::sum);
+                }
+            }
+        }
+
+        List<Map.Entry<String, Integer>> fragments = new ArrayList<>();
+        for (Map.Entry<String, Integer> fragment : counts.entrySet()) {
+            if (fragment.getValue() > 1 && fragment.getKey().length() > 2) fragments.add(fragment);
+        }
+        fragments.sort((a, b) -> Long.compare(score(b), score(a)));
+
+        // Фрагмент, который уже целиком есть в словаре, места не стоит
+        List<byte[]> chosen = new ArrayList<>();
+        StringBuilder dictionaryText = new StringBuilder();
+        int size = 0;
+        for (Map.Entry<String, Integer> fragment : fragments.subList(0, Math.min(fragments.size(), MAX_CANDIDATES))) {
+            String value = fragment.getKey();
+            if (dictionaryText.indexOf(value) >= 0) continue;
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (size + bytes.length > maxSize) continue;
+            chosen.add(bytes);
+            dictionaryText.append(value).append('\0');
+            size += bytes.length;
+            if (size >= maxSize - 2) break;
+        }
+
+        byte[] dictionary = new byte[size];
+        int offset = 0;
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            System.arraycopy(chosen.get(i), 0, dictionary, offset, chosen.get(i).length);
+            offset += chosen.get(i).length;
+        }
+        return dictionary;
+    }
+
+    private static long score(Map.Entry<String, Integer> fragment) {
+        return (long) (fragment.getValue() - 1) * fragment.getKey().length();
+    }
+
+    /**
+     * Метод разбиения текста на слова. Разделители (пробелы, знаки препинания) остаются в конце
+     * слова, поэтому слова, склеенные подряд, дают исходный текст
+     */
+    private static List<String> split(String text) {
+        List<String> words = new ArrayList<>();
+        int start = 0;
+        boolean isInSeparator = false;
+        for (int i = 0; i < text.length(); i++) {
+            boolean isLetter = Character.isLetterOrDigit(text.charAt(i));
+            if (isLetter && isInSeparator) {
+                words.add(text.substring(start, i));
+                start = i;
+            }
+            isInSeparator = !isLetter;
+        }
+        if (start < text.length()) words.add(text.substring(start));
+        return words;
+    }
+
+    private static byte[] dictionary(int id) {
+        return (id == 0) ? null : dictionaries.get(id);
+    }
+}
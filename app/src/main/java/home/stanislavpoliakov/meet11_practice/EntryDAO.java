@@ -29,6 +29,43 @@ public interface EntryDAO {
     @Query("SELECT * FROM entries")
     Cursor getEntriesAll();
 
+    /**
+     * Метод постраничного чтения записей "вперед" (keyset pagination).
+     * Вместо OFFSET, который заставляет базу пропускать все предыдущие строки, мы ищем страницу
+     * по ключу (id > последнего прочитанного) - это поиск по primary key, стоимость которого не
+     * зависит от того, насколько далеко мы "пролистали" таблицу.
+     * Читаем только столбцы, которые показывает список (id, title, preview, timestamp): полный текст
+     * не нужен для отображения и только раздувает окно курсора
+     * @param afterId id последней записи предыдущей страницы (0 - с начала таблицы)
+     * @param limit размер страницы
+     * @return объект Cursor со страницей записей, упорядоченных по возрастанию id
+     */
+    @Query("SELECT id, title, preview, timestamp FROM entries WHERE id > :afterId ORDER BY id ASC LIMIT :limit")
+    Cursor getPreviewsAfter(int afterId, int limit);
+
+    /**
+     * Метод чтения записей целиком (со всеми столбцами) порциями по id. Используется для экспорта:
+     * таблица читается частями, а не одним курсором на всю таблицу
+     * @param afterId id последней записи предыдущей порции (0 - с начала таблицы)
+     * @param limit размер порции
+     * @return объект Cursor с порцией записей, упорядоченных по возрастанию id
+     */
+    @Query("SELECT * FROM entries WHERE id > :afterId ORDER BY id ASC LIMIT :limit")
+    Cursor getEntriesAfter(int afterId, int limit);
+
+    /**
+     * Метод постраничного чтения записей "назад" (keyset pagination). Нужен, когда пользователь
+     * листает вверх, а начало окна уже было выгружено из памяти. Внутренний запрос выбирает
+     * ближайшие к beforeId записи, внешний - возвращает их в привычном порядке (по возрастанию id)
+     * @param beforeId id первой записи следующей страницы
+     * @param limit размер страницы
+     * @return объект Cursor со страницей записей, упорядоченных по возрастанию id
+     */
+    @Query("SELECT id, title, preview, timestamp FROM "
+            + "(SELECT id, title, preview, timestamp FROM entries WHERE id < :beforeId ORDER BY id DESC LIMIT :limit) "
+            + "ORDER BY id ASC")
+    Cursor getPreviewsBefore(int beforeId, int limit);
+
     /**
      * Метод удаления записи по id
      * Room предлагает только примитивное удаление элемента базы данных (@Delete),
@@ -49,6 +86,34 @@ public interface EntryDAO {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     long insertEntry(Entry entry);
 
+    /**
+     * Метод пакетного добавления записей. Room выполняет вставку всего списка в одной транзакции,
+     * то есть один fsync на весь пакет вместо одного на каждую запись
+     * @param entries записи, которые необходимо добавить
+     * @return id добавленных записей в том же порядке
+     */
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    List<Long> insertEntries(List<Entry> entries);
+
+    /**
+     * Метод удаления множества записей по списку id одним запросом.
+     * SQLite ограничивает количество параметров запроса (999), поэтому длинные списки
+     * DatabaseManager делит на части и выполняет в одной общей транзакции
+     * @param ids список id записей, которые необходимо удалить
+     * @return количество удаленных записей
+     */
+    @Query("DELETE FROM entries WHERE id IN (:ids)")
+    int deleteEntriesByIds(List<Integer> ids);
+
+    /**
+     * Метод удаления диапазона записей (по primary key, без перебора строк)
+     * @param fromId id первой записи диапазона (включительно)
+     * @param toId id последней записи диапазона (включительно)
+     * @return количество удаленных записей
+     */
+    @Query("DELETE FROM entries WHERE id BETWEEN :fromId AND :toId")
+    int deleteEntriesInRange(int fromId, int toId);
+
     /**
      * Метод обноления записи в базе данных. Фактически, метод замены записей
      * @param entry запись, которую необходимо обновить
@@ -57,6 +122,83 @@ public interface EntryDAO {
     @Update(onConflict = OnConflictStrategy.REPLACE)
     int updateEntry(Entry entry);
 
+    /**
+     * Метод чтения записей по списку id (для применения изменений из журнала). Как и при
+     * постраничном чтении, читаем только столбцы списка
+     * @param ids список id записей (не более 999 - ограничение SQLite)
+     * @return объект Cursor с найденными записями (id, title, preview, timestamp)
+     */
+    @Query("SELECT id, title, preview, timestamp FROM entries WHERE id IN (:ids)")
+    Cursor getPreviewsByIds(List<Integer> ids);
+
+    /**
+     * Метод чтения одной записи целиком (для редактирования)
+     * @param id записи
+     * @return объект Cursor с записью (пустой, если записи нет)
+     */
+    @Query("SELECT * FROM entries WHERE id = :id")
+    Cursor getEntryById(int id);
+
+    /**
+     * Метод чтения журнала изменений после заданного seq
+     * @param since seq последнего известного клиенту изменения
+     * @param limit максимальное количество изменений
+     * @return объект Cursor с изменениями по возрастанию seq
+     */
+    @Query("SELECT * FROM entry_changes WHERE seq > :since ORDER BY seq ASC LIMIT :limit")
+    Cursor getChangesSince(long since, int limit);
+
+    /**
+     * @return seq самого раннего изменения, оставшегося в журнале (0, если журнал пуст)
+     */
+    @Query("SELECT IFNULL(MIN(seq), 0) FROM entry_changes")
+    long getFirstChangeSeq();
+
+    /**
+     * @return seq последнего изменения в журнале (0, если журнал пуст)
+     */
+    @Query("SELECT IFNULL(MAX(seq), 0) FROM entry_changes")
+    long getLastChangeSeq();
+
+    /**
+     * Метод очистки старой части журнала изменений
+     * @param seq изменения с seq не больше этого значения будут удалены
+     * @return количество удаленных изменений
+     */
+    @Query("DELETE FROM entry_changes WHERE seq <= :seq")
+    int deleteChangesUpTo(long seq);
+
+    /**
+     * Метод чтения имени файла с текстом записи (см. EntryFileStore)
+     * @param id записи
+     * @return имя файла или null, если текст хранится в таблице
+     */
+    @Query("SELECT text_file FROM entries WHERE id = :id")
+    String getTextFile(int id);
+
+    /**
+     * Метод чтения имен файлов с текстами записей по списку id
+     * @param ids список id записей (не более 999 - ограничение SQLite)
+     * @return имена файлов записей, тексты которых вынесены в файлы
+     */
+    @Query("SELECT text_file FROM entries WHERE id IN (:ids) AND text_file IS NOT NULL")
+    List<String> getTextFilesByIds(List<Integer> ids);
+
+    /**
+     * Метод чтения имен файлов с текстами записей диапазона id
+     * @param fromId id первой записи диапазона (включительно)
+     * @param toId id последней записи диапазона (включительно)
+     * @return имена файлов записей, тексты которых вынесены в файлы
+     */
+    @Query("SELECT text_file FROM entries WHERE id BETWEEN :fromId AND :toId AND text_file IS NOT NULL")
+    List<String> getTextFilesInRange(int fromId, int toId);
+
+    /**
+     * @return имена всех файлов, на которые ссылаются записи таблицы
+     */
+    @Query("SELECT text_file FROM entries WHERE text_file IS NOT NULL")
+    List<String> getTextFilesAll();
+
     // Вот этот "красавец", который удаляет запись только по сущности, переданной в качестве аргумента ))
     // В текущей версии не используется. Оставил для напоминания
     @Delete
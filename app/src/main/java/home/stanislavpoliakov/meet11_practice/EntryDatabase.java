@@ -3,7 +3,7 @@ package home.stanislavpoliakov.meet11_practice;
 import android.arch.persistence.room.Database;
 import android.arch.persistence.room.RoomDatabase;
 
-@Database(entities = {Entry.class}, version = 1)
+@Database(entities = {Entry.class, EntryChange.class}, version = 8)
 public abstract class EntryDatabase extends RoomDatabase {
     public abstract EntryDAO getEntryDAO();
 }
@@ -0,0 +1,45 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import java.util.List;
+
+/**
+ * Класс "дельты" - свернутых изменений таблицы записей после некоторого seq журнала изменений:
+ * lastSeq - seq последнего учтенного изменения (с него нужно начинать следующий запрос)
+ * isReset - запрошенная часть журнала уже удалена (или изменений слишком много), данные нужно
+ * перечитать целиком
+ * deletedIds - id удаленных записей
+ * changedEntries - добавленные или измененные записи в их текущем состоянии
+ */
+public class EntryDelta {
+    private final long lastSeq;
+    private final boolean isReset;
+    private final List<Integer> deletedIds;
+    private final List<Entry> changedEntries;
+
+    public EntryDelta(long lastSeq, boolean isReset, List<Integer> deletedIds, List<Entry> changedEntries) {
+        this.lastSeq = lastSeq;
+        this.isReset = isReset;
+        this.deletedIds = deletedIds;
+        this.changedEntries = changedEntries;
+    }
+
+    public long getLastSeq() {
+        return this.lastSeq;
+    }
+
+    public boolean isReset() {
+        return this.isReset;
+    }
+
+    public List<Integer> getDeletedIds() {
+        return this.deletedIds;
+    }
+
+    public List<Entry> getChangedEntries() {
+        return this.changedEntries;
+    }
+
+    public boolean isEmpty() {
+        return !isReset && deletedIds.isEmpty() && changedEntries.isEmpty();
+    }
+}
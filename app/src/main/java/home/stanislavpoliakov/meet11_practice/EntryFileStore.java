@@ -0,0 +1,118 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Файловое хранилище больших текстов записей. Содержит статические методы. Ненаследуемый
+ *
+ * Текст длиннее LARGE_TEXT_THRESHOLD символов не хранится в строке таблицы: он записывается в
+ * отдельный файл в приватном каталоге приложения, а в таблице остается только имя файла (text_file).
+ * Так большие записи не раздувают страницы базы и окно курсора (CursorWindow) при чтении списка.
+ * Файл читается лениво - при первом обращении к Entry.getText() - через memory-mapped I/O, без
+ * промежуточного копирования в буфер потока.
+ *
+ * Каждое сохранение большого текста пишет новый файл с уникальным именем, поэтому файл, на который
+ * ссылается зафиксированная строка, никогда не перезаписывается. Старые файлы удаляет DatabaseManager
+ * после коммита обновления или удаления записи, а файлы, оставшиеся от откаченных транзакций,
+ * удаляются при открытии базы (sweep)
+ */
+public final class EntryFileStore {
+    // Порог (в символах), начиная с которого текст выносится в файл
+    public static final int LARGE_TEXT_THRESHOLD = 32 * 1024;
+
+    private static final String TAG = "meet11_logs";
+    private static final String DIRECTORY = "entries";
+    private static final String EXTENSION = ".txt";
+    private static volatile File directory;
+
+    private EntryFileStore() {
+    }
+
+    /**
+     * Метод инициализации хранилища. Вызывается DatabaseManager до первого обращения к базе
+     * @param context контекст приложения
+     */
+    public static void init(Context context) {
+        File dir = new File(context.getFilesDir(), DIRECTORY);
+        if (!dir.isDirectory() && !dir.mkdirs()) Log.w(TAG, "Can't create " + dir);
+        directory = dir;
+    }
+
+    /**
+     * Метод выноса большого текста записи в файл. Вызывается в потоке базы данных перед вставкой
+     * или обновлением записи. Файл записывается и синхронизируется с диском до коммита транзакции,
+     * которая на него сошлется
+     * @param entry запись. Если текст большой, в записи остается только ссылка на файл
+     * @return true, если текст вынесен в файл
+     * @throws IOException если файл не удалось записать
+     */
+    public static boolean spillIfLarge(Entry entry) throws IOException {
+        String text = entry.getText();
+        if (text == null || text.length() < LARGE_TEXT_THRESHOLD) return false;
+
+        String name = UUID.randomUUID().toString() + EXTENSION;
+        try (FileOutputStream stream = new FileOutputStream(new File(directory, name))) {
+            stream.write(text.getBytes(StandardCharsets.UTF_8));
+            stream.getFD().sync();
+        }
+        entry.setStoredText(null);
+        entry.setTextFile(name);
+        return true;
+    }
+
+    /**
+     * Метод чтения текста из файла через memory-mapped I/O. Страницы файла подгружаются ядром по
+     * мере декодирования, а не копируются заранее в Java-буфер
+     * @param name имя файла (столбец text_file)
+     * @return текст записи или null, если файл не удалось прочитать
+     */
+    public static String read(String name) {
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, name), "r");
+             FileChannel channel = file.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return StandardCharsets.UTF_8.decode(buffer).toString();
+        } catch (IOException ex) {
+            Log.e(TAG, "Can't read entry text " + name, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Метод удаления файлов, на которые больше не ссылается ни одна запись
+     * @param names имена файлов
+     */
+    public static void delete(Collection<String> names) {
+        for (String name : names) {
+            File file = new File(directory, name);
+            if (file.exists() && !file.delete()) Log.w(TAG, "Can't delete " + file);
+        }
+    }
+
+    /**
+     * Метод удаления "осиротевших" файлов: файлов, оставшихся от откаченных транзакций или
+     * замененных записей. Вызывается в потоке базы данных, поэтому одновременно с ним новые файлы
+     * не создаются
+     * @param referenced имена файлов, на которые ссылаются записи таблицы
+     * @return количество удаленных файлов
+     */
+    public static int sweep(Set<String> referenced) {
+        File[] files = directory.listFiles();
+        if (files == null) return 0;
+        int deleted = 0;
+        for (File file : files) {
+            if (!referenced.contains(file.getName()) && file.delete()) deleted++;
+        }
+        return deleted;
+    }
+}
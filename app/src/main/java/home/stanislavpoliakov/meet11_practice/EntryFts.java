@@ -0,0 +1,184 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LongSparseArray;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Полнотекстовый индекс записей (FTS4). Содержит статические методы. Ненаследуемый
+ *
+ * Виртуальная таблица entries_fts(title, body) повторяет название и текст записей, docid = id
+ * записи. Room 1.1 не знает о виртуальных таблицах, поэтому таблица создается обычным SQL в
+ * Callback базы данных, а заполняет ее DatabaseManager в той же транзакции, что и запись в entries.
+ * Триггеры здесь не подходят: текст больших записей хранится не в таблице, а в файле (EntryFileStore).
+ *
+ * Поиск идет по индексу (MATCH), а не полным перебором таблицы (LIKE '%q%'). Результаты
+ * упорядочиваются по релевантности, которую считаем по matchinfo: совпадения в названии весят
+ * больше, чем совпадения в тексте, а редкие слова - больше, чем частые
+ */
+public final class EntryFts {
+    // Столбцы результата поиска
+    public static final String[] COLUMNS = {"id", "snippet", "rank"};
+
+    static final String CREATE =
+            "CREATE VIRTUAL TABLE IF NOT EXISTS entries_fts USING fts4(title, body)";
+    static final String DROP = "DROP TABLE IF EXISTS entries_fts";
+
+    private static final String INSERT = "INSERT INTO entries_fts(docid, title, body) VALUES (?, ?, ?)";
+    private static final String DELETE = "DELETE FROM entries_fts WHERE docid = ?";
+    private static final String DELETE_RANGE = "DELETE FROM entries_fts WHERE docid BETWEEN ? AND ?";
+
+    // Первый проход: релевантность всех совпадений (matchinfo дешевле snippet)
+    private static final String RANK = "SELECT docid, matchinfo(entries_fts, 'pcx') "
+            + "FROM entries_fts WHERE entries_fts MATCH ?";
+    // Второй проход: фрагменты текста только для лучших limit записей
+    private static final String SNIPPETS = "SELECT docid, snippet(entries_fts, '[', ']', '…', -1, 12) "
+            + "FROM entries_fts WHERE entries_fts MATCH ? AND docid IN ";
+
+    // Вес совпадений в столбцах title и body
+    private static final double[] WEIGHTS = {2.0, 1.0};
+
+    /**
+     * Найденная запись и ее релевантность
+     */
+    private static class Match {
+        private final long id;
+        private final double rank;
+
+        private Match(long id, double rank) {
+            this.id = id;
+            this.rank = rank;
+        }
+    }
+
+    private EntryFts() {
+    }
+
+    /**
+     * Метод добавления (или замены) записи в индексе. Вызывается в транзакции записи
+     * @param db база данных
+     * @param id записи
+     * @param title название записи
+     * @param text полный текст записи
+     */
+    static void index(SupportSQLiteDatabase db, long id, String title, String text) {
+        db.execSQL(DELETE, new Object[] {id});
+        db.execSQL(INSERT, new Object[] {id, title, text});
+    }
+
+    /**
+     * Метод удаления записей из индекса
+     * @param db база данных
+     * @param ids список id записей
+     */
+    static void delete(SupportSQLiteDatabase db, List<Integer> ids) {
+        for (Integer id : ids) db.execSQL(DELETE, new Object[] {id});
+    }
+
+    /**
+     * Метод удаления диапазона записей из индекса
+     * @param db база данных
+     * @param fromId id первой записи диапазона (включительно)
+     * @param toId id последней записи диапазона (включительно)
+     */
+    static void deleteRange(SupportSQLiteDatabase db, int fromId, int toId) {
+        db.execSQL(DELETE_RANGE, new Object[] {fromId, toId});
+    }
+
+    /**
+     * Метод поиска записей. Запрос пользователя превращается в набор слов (все слова должны
+     * встретиться в записи), упорядочиваем по релевантности и возвращаем первые limit записей
+     * @param db база данных
+     * @param query запрос пользователя
+     * @param limit максимальное количество результатов
+     * @return объект Cursor (id, snippet, rank) по убыванию релевантности
+     */
+    static Cursor search(SupportSQLiteDatabase db, String query, int limit) {
+        MatrixCursor result = new MatrixCursor(COLUMNS);
+        String match = toMatchQuery(query);
+        if (match.isEmpty()) return result;
+
+        // Оставляем limit лучших совпадений: куча с наименее релевантным совпадением наверху
+        PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, (a, b) -> Double.compare(a.rank, b.rank));
+        try (Cursor cursor = db.query(RANK, new Object[] {match})) {
+            while (cursor.moveToNext()) {
+                best.add(new Match(cursor.getLong(0), rank(cursor.getBlob(1))));
+                if (best.size() > limit) best.poll();
+            }
+        }
+        if (best.isEmpty()) return result;
+
+        List<Match> ranked = new ArrayList<>(best);
+        Collections.sort(ranked, (a, b) -> Double.compare(b.rank, a.rank));
+
+        // Фрагменты текста с подсвеченными совпадениями - только для найденных записей
+        StringBuilder ids = new StringBuilder("(");
+        for (Match found : ranked) {
+            if (ids.length() > 1) ids.append(',');
+            ids.append(found.id);
+        }
+        ids.append(')');
+        LongSparseArray<String> snippets = new LongSparseArray<>(ranked.size());
+        try (Cursor cursor = db.query(SNIPPETS + ids, new Object[] {match})) {
+            while (cursor.moveToNext()) snippets.put(cursor.getLong(0), cursor.getString(1));
+        }
+
+        for (Match found : ranked) {
+            result.addRow(new Object[] {found.id, snippets.get(found.id), found.rank});
+        }
+        return result;
+    }
+
+    /**
+     * Метод преобразования запроса пользователя в запрос MATCH. Каждое слово берем в кавычки, чтобы
+     * символы синтаксиса FTS (*, -, OR, NEAR...) во вводе пользователя не ломали запрос
+     * @param query запрос пользователя
+     * @return запрос MATCH (пустая строка, если в запросе нет слов)
+     */
+    static String toMatchQuery(String query) {
+        StringBuilder match = new StringBuilder();
+        if (query == null) return "";
+        for (String word : query.trim().split("\\s+")) {
+            String term = word.replace("\"", "");
+            if (term.isEmpty()) continue;
+            if (match.length() > 0) match.append(' ');
+            match.append('"').append(term).append('"');
+        }
+        return match.toString();
+    }
+
+    /**
+     * Метод расчета релевантности по matchinfo(..., 'pcx'): количество фраз p, количество столбцов c,
+     * затем для каждой фразы и столбца - совпадения в этой записи, совпадения во всех записях и
+     * количество записей с совпадениями. Каждое совпадение весит тем больше, чем реже фраза
+     * встречается во всей таблице
+     * @param matchinfo значение matchinfo (32-битные числа в порядке байтов платформы)
+     * @return релевантность записи
+     */
+    static double rank(byte[] matchinfo) {
+        IntBuffer info = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phrases = info.get(0);
+        int columns = info.get(1);
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns; column++) {
+                int offset = 2 + (phrase * columns + column) * 3;
+                int hitsInRow = info.get(offset);
+                int hitsInAllRows = info.get(offset + 1);
+                if (hitsInRow > 0) {
+                    double weight = column < WEIGHTS.length ? WEIGHTS[column] : 1.0;
+                    score += weight * hitsInRow / hitsInAllRows;
+                }
+            }
+        }
+        return score;
+    }
+}
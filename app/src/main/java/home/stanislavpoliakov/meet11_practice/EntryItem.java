@@ -0,0 +1,143 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.content.Context;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.format.DateUtils;
+import android.widget.TextView;
+
+/**
+ * Модель отображения элемента списка: все, что показывает элемент, в готовом для TextView виде.
+ * Строится в фоновом потоке MyAdapter вместе с расчетом различий, поэтому onBindViewHolder только
+ * передает готовые строки в TextView - без обращений к записи, форматирования даты и выделения
+ * памяти.
+ *
+ * Превью обрезается до строк, которые помещаются в элемент (TextMetrics): разметка текста
+ * (перенос строк) выполняется здесь же, в фоновом потоке, и TextView размечает в UI-Thread только
+ * видимые строки, а не все превью. Пока размер элемента неизвестен (до первой разметки), превью
+ * не обрезается
+ */
+public class EntryItem {
+    private static final String ELLIPSIS = "…";
+
+    private final Entry entry;
+    private final TextMetrics metrics;
+    private final String title;
+    private final CharSequence body;
+    private final String timeStamp;
+
+    /**
+     * Параметры разметки превью: шрифт, ширина текста и количество строк в элементе. Снимаются с
+     * TextView превью после его разметки (в UI-Thread), используются в фоновом потоке. Неизменяемый:
+     * при изменении размера создается новый объект
+     */
+    public static class TextMetrics {
+        private final TextPaint paint;
+        private final int width;
+        private final int maxLines;
+
+        private TextMetrics(TextPaint paint, int width, int maxLines) {
+            this.paint = paint;
+            this.width = width;
+            this.maxLines = maxLines;
+        }
+
+        /**
+         * @param body TextView превью после разметки
+         * @return параметры разметки или null, если TextView еще не размечен
+         */
+        public static TextMetrics of(TextView body) {
+            int width = body.getWidth() - body.getTotalPaddingLeft() - body.getTotalPaddingRight();
+            if (width <= 0 || body.getMaxLines() <= 0 || body.getMaxLines() == Integer.MAX_VALUE) return null;
+            return new TextMetrics(new TextPaint(body.getPaint()), width, body.getMaxLines());
+        }
+
+        /**
+         * @param body TextView превью
+         * @return true, если разметка TextView совпадает с этими параметрами
+         */
+        public boolean matches(TextView body) {
+            return width == body.getWidth() - body.getTotalPaddingLeft() - body.getTotalPaddingRight()
+                    && maxLines == body.getMaxLines()
+                    && paint.getTextSize() == body.getPaint().getTextSize();
+        }
+    }
+
+    private EntryItem(Entry entry, TextMetrics metrics, String title, CharSequence body, String timeStamp) {
+        this.entry = entry;
+        this.metrics = metrics;
+        this.title = title;
+        this.body = body;
+        this.timeStamp = timeStamp;
+    }
+
+    /**
+     * Метод построения модели. Вызывается в фоновом потоке
+     * @param entry запись из слепка
+     * @param context контекст приложения (формат даты и времени пользователя)
+     * @param metrics параметры разметки превью или null, если они еще неизвестны
+     * @return модель отображения
+     */
+    public static EntryItem create(Entry entry, Context context, TextMetrics metrics) {
+        return new EntryItem(entry, metrics, entry.getTitle(), fitPreview(entry.getPreview(), metrics),
+                formatTimeStamp(context, entry.getTimeStamp()));
+    }
+
+    /**
+     * Метод обрезки превью до строк, которые помещаются в элемент
+     * @param preview превью записи
+     * @param metrics параметры разметки
+     * @return превью или его первые metrics.maxLines строк с многоточием
+     */
+    private static CharSequence fitPreview(String preview, TextMetrics metrics) {
+        if (preview == null || metrics == null) return preview;
+        StaticLayout layout = StaticLayout.Builder
+                .obtain(preview, 0, preview.length(), metrics.paint, metrics.width)
+                .build();
+        if (layout.getLineCount() <= metrics.maxLines) return preview;
+        int end = layout.getLineEnd(metrics.maxLines - 1);
+        while (end > 0 && Character.isWhitespace(preview.charAt(end - 1))) end--;
+        if (end > 0 && Character.isHighSurrogate(preview.charAt(end - 1))) end--;
+        return preview.substring(0, end) + ELLIPSIS;
+    }
+
+    /**
+     * @param context контекст (для формата даты и времени пользователя)
+     * @param timeStamp время изменения записи (0 - запись еще не сохранена в базе)
+     * @return дата и время изменения записи
+     */
+    private static String formatTimeStamp(Context context, long timeStamp) {
+        if (timeStamp == 0) return "";
+        return DateUtils.formatDateTime(context, timeStamp,
+                DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME | DateUtils.FORMAT_ABBREV_ALL);
+    }
+
+    /**
+     * @param entry запись из нового слепка
+     * @param metrics текущие параметры разметки
+     * @return true, если модель построена для этой же записи (того же объекта) с теми же параметрами
+     */
+    public boolean isBuiltFor(Entry entry, TextMetrics metrics) {
+        return this.entry == entry && this.metrics == metrics;
+    }
+
+    public Entry getEntry() {
+        return entry;
+    }
+
+    public long getId() {
+        return entry.getId();
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public CharSequence getBody() {
+        return body;
+    }
+
+    public String getTimeStamp() {
+        return timeStamp;
+    }
+}
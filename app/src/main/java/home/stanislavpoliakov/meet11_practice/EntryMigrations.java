@@ -0,0 +1,185 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.room.migration.Migration;
+import android.database.Cursor;
+
+/**
+ * Миграции схемы базы данных. Содержит статические методы. Ненаследуемый
+ *
+ * Каждая миграция переводит схему на одну версию вперед, Room выполняет цепочку от версии на
+ * устройстве до текущей (EntryDatabase) в транзакции открытия базы. Данные пользователя не удаляются.
+ *
+ * В транзакции открытия делаем только то, без чего Room не примет схему: новые столбцы, таблицы,
+ * индексы. Заполнение новых столбцов по существующим записям (превью, полнотекстовый индекс)
+ * может занять долго на большой таблице, поэтому миграция только ставит задачу в таблицу
+ * backfill_progress, а выполняет ее DatabaseManager в потоке базы данных небольшими пакетами
+ * (backfillBatch) после открытия. Прогресс (id последней обработанной записи) хранится там же,
+ * поэтому прерванное заполнение продолжается при следующем запуске, а не начинается заново.
+ * Пока задача не завершена, у части старых записей нет превью, и поиск их не находит
+ */
+public final class EntryMigrations {
+    // Задачи заполнения: превью текста (версия 4) и полнотекстовый индекс (версия 5)
+    static final String BACKFILL_PREVIEW = "preview";
+    static final String BACKFILL_FTS = "fts";
+
+    static final String CREATE_BACKFILL = "CREATE TABLE IF NOT EXISTS backfill_progress "
+            + "(task TEXT PRIMARY KEY NOT NULL, last_id INTEGER NOT NULL)";
+
+    /**
+     * 1 -> 2: журнал изменений (см. EntryChange). Триггеры создаются при каждом открытии базы
+     */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `entry_changes` (`seq` INTEGER PRIMARY KEY "
+                    + "AUTOINCREMENT NOT NULL, `op` INTEGER NOT NULL, `entry_id` INTEGER NOT NULL)");
+        }
+    };
+
+    /**
+     * 2 -> 3: ссылка на файл с текстом большой записи (см. EntryFileStore). У старых записей
+     * текст в базе, файла нет - заполнять нечего
+     */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `entries` ADD COLUMN `text_file` TEXT");
+        }
+    };
+
+    /**
+     * 3 -> 4: превью текста. Заполняется в фоне (BACKFILL_PREVIEW)
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `entries` ADD COLUMN `preview` TEXT");
+            scheduleBackfill(db, BACKFILL_PREVIEW);
+        }
+    };
+
+    /**
+     * 4 -> 5: полнотекстовый индекс (см. EntryFts). Заполняется в фоне (BACKFILL_FTS)
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(SupportSQLiteDatabase db) {
+            db.execSQL(EntryFts.CREATE);
+            scheduleBackfill(db, BACKFILL_FTS);
+        }
+    };
+
+    /**
+     * 5 -> 6: timestamp из TEXT в INTEGER NOT NULL с индексом. Тип столбца в SQLite не меняется,
+     * поэтому таблица пересоздается и копируется одним запросом (без преобразования в Java это
+     * быстро даже для большой таблицы). Раньше время не записывалось, поэтому у старых записей
+     * timestamp = 0 ("неизвестно"). Триггеры журнала удаляются вместе со старой таблицей и
+     * создаются снова при открытии базы. Счетчик AUTOINCREMENT переносим (и для пустой таблицы),
+     * чтобы id удаленных записей не выдавались повторно. Индекс по id не создаем: 6 -> 7 его удаляет
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE `entries_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`title` TEXT, `entry_text` TEXT, `text_file` TEXT, `preview` TEXT, "
+                    + "`timestamp` INTEGER NOT NULL)");
+            db.execSQL("INSERT INTO `entries_new` (id, title, entry_text, text_file, preview, timestamp) "
+                    + "SELECT id, title, entry_text, text_file, preview, "
+                    + "IFNULL(CAST(timestamp AS INTEGER), 0) FROM `entries`");
+            // Строка счетчика новой таблицы есть, только если в нее что-то скопировали. В
+            // sqlite_sequence нет уникального ключа по name, поэтому строку заменяем явно
+            db.execSQL("DELETE FROM sqlite_sequence WHERE name = 'entries_new'");
+            db.execSQL("INSERT INTO sqlite_sequence (name, seq) "
+                    + "SELECT 'entries_new', seq FROM sqlite_sequence WHERE name = 'entries'");
+            db.execSQL("DROP TABLE `entries`");
+            db.execSQL("ALTER TABLE `entries_new` RENAME TO `entries`");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_entries_timestamp` ON `entries` (`timestamp`)");
+        }
+    };
+
+    /**
+     * 6 -> 7: удаляем индекс по id. id - INTEGER PRIMARY KEY, то есть сам rowid таблицы, и поиск по
+     * нему индекса не требует; отдельный индекс только удваивал работу на каждой записи
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(SupportSQLiteDatabase db) {
+            db.execSQL("DROP INDEX IF EXISTS `index_entries_id`");
+        }
+    };
+
+    /**
+     * 7 -> 8: сжатый текст записи (см. EntryCompression). Старые записи остаются несжатыми в
+     * entry_text и читаются как раньше; сжимаются новые и измененные записи. Таблица словарей
+     * создается при каждом открытии базы
+     */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `entries` ADD COLUMN `text_deflated` BLOB");
+        }
+    };
+
+    public static final Migration[] ALL = {MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4,
+            MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8};
+
+    private EntryMigrations() {
+    }
+
+    /**
+     * Метод постановки задачи фонового заполнения (с начала таблицы)
+     * @param db база данных (в транзакции миграции)
+     * @param task задача (BACKFILL_*)
+     */
+    static void scheduleBackfill(SupportSQLiteDatabase db, String task) {
+        db.execSQL(CREATE_BACKFILL);
+        db.execSQL("INSERT OR REPLACE INTO backfill_progress (task, last_id) VALUES (?, 0)",
+                new Object[] {task});
+    }
+
+    /**
+     * Метод выполнения одного пакета фонового заполнения: следующие batchSize записей первой
+     * незавершенной задачи. Вызывается в потоке базы данных, в транзакции: пакет и его прогресс
+     * фиксируются вместе
+     * @param db база данных
+     * @param batchSize количество записей в пакете
+     * @return true, если работа еще осталась
+     */
+    static boolean backfillBatch(SupportSQLiteDatabase db, int batchSize) {
+        String task;
+        long lastId;
+        try (Cursor cursor = db.query("SELECT task, last_id FROM backfill_progress ORDER BY task LIMIT 1")) {
+            if (!cursor.moveToFirst()) return false;
+            task = cursor.getString(0);
+            lastId = cursor.getLong(1);
+        }
+
+        int rows = 0;
+        // Записи, сохраненные уже после миграции, могут быть сжаты (см. EntryCompression)
+        try (Cursor cursor = db.query("SELECT id, title, entry_text, text_file, text_deflated FROM entries "
+                + "WHERE id > ? ORDER BY id ASC LIMIT ?", new Object[] {lastId, batchSize})) {
+            while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+                String text;
+                if (!cursor.isNull(3)) text = EntryFileStore.read(cursor.getString(3));
+                else if (!cursor.isNull(4)) text = EntryCompression.decompress(cursor.getBlob(4));
+                else text = cursor.getString(2);
+                if (BACKFILL_PREVIEW.equals(task)) {
+                    db.execSQL("UPDATE entries SET preview = ? WHERE id = ?",
+                            new Object[] {Entry.makePreview(text), lastId});
+                } else if (BACKFILL_FTS.equals(task)) {
+                    EntryFts.index(db, lastId, cursor.getString(1), text);
+                }
+                rows++;
+            }
+        }
+
+        if (rows < batchSize) {
+            db.execSQL("DELETE FROM backfill_progress WHERE task = ?", new Object[] {task});
+        } else {
+            db.execSQL("UPDATE backfill_progress SET last_id = ? WHERE task = ?", new Object[] {lastId, task});
+        }
+        return true;
+    }
+}
@@ -0,0 +1,148 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Двоичный снимок первого экрана списка. Содержит статические методы. Ненаследуемый
+ *
+ * При запуске Activity показывает список из снимка сразу, не дожидаясь открытия базы и чтения
+ * первой страницы, а затем сверяет его с базой. Поэтому в снимке только то, что отрисовывает
+ * элемент списка (id, название, превью, время изменения), а чтение - это отображение файла в
+ * память (memory-mapped I/O) и разбор без промежуточных потоков и объектов.
+ *
+ * Формат (порядок байтов big-endian): заголовок MAGIC, VERSION, длина данных, CRC32 данных, затем
+ * данные - количество записей и записи (id int, timestamp long, title, preview). Строка - длина в
+ * байтах UTF-8 (-1 для null) и байты. Файл пишется во временный и заменяет старый переименованием,
+ * поэтому при сбое во время записи остается предыдущий снимок. Снимок с другой версией формата или
+ * с несовпавшей контрольной суммой считается отсутствующим
+ */
+public final class EntrySnapshot {
+    private static final int MAGIC = 0x4D313153;  // "M11S"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private EntrySnapshot() {
+    }
+
+    /**
+     * Метод записи снимка. Вызывается в фоновом потоке
+     * @param file файл снимка
+     * @param entries записи первого экрана
+     * @throws IOException если файл не удалось записать
+     */
+    public static void write(File file, List<Entry> entries) throws IOException {
+        // Сначала кодируем строки: размер файла должен быть известен до отображения в память
+        byte[][] titles = new byte[entries.size()][];
+        byte[][] previews = new byte[entries.size()][];
+        int dataSize = Integer.BYTES;
+        for (int i = 0; i < entries.size(); i++) {
+            titles[i] = encode(entries.get(i).getTitle());
+            previews[i] = encode(entries.get(i).getPreview());
+            dataSize += Integer.BYTES + Long.BYTES + sizeOf(titles[i]) + sizeOf(previews[i]);
+        }
+
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw");
+             FileChannel channel = out.getChannel()) {
+            out.setLength(HEADER_SIZE + dataSize);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + dataSize);
+            buffer.position(HEADER_SIZE);
+            buffer.putInt(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                buffer.putInt(entries.get(i).getId());
+                buffer.putLong(entries.get(i).getTimeStamp());
+                putString(buffer, titles[i]);
+                putString(buffer, previews[i]);
+            }
+
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(Integer.BYTES, VERSION);
+            buffer.putInt(2 * Integer.BYTES, dataSize);
+            buffer.putInt(3 * Integer.BYTES, checksum(buffer, dataSize));
+            buffer.force();
+        }
+        if (!temp.renameTo(file)) throw new IOException("Can't replace " + file);
+    }
+
+    /**
+     * Метод чтения снимка
+     * @param file файл снимка
+     * @return записи первого экрана (только id, название, превью и время изменения) или пустой
+     * список, если снимка нет или он поврежден
+     * @throws IOException если файл не удалось прочитать
+     */
+    public static List<Entry> read(File file) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (!file.isFile() || file.length() < HEADER_SIZE) return entries;
+
+        try (RandomAccessFile in = new RandomAccessFile(file, "r");
+             FileChannel channel = in.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int dataSize = buffer.getInt(2 * Integer.BYTES);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION
+                    || dataSize != buffer.capacity() - HEADER_SIZE
+                    || buffer.getInt(3 * Integer.BYTES) != checksum(buffer, dataSize)) {
+                return entries;
+            }
+
+            buffer.position(HEADER_SIZE);
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                int id = buffer.getInt();
+                long timeStamp = buffer.getLong();
+                String title = getString(buffer);
+                String preview = getString(buffer);
+                entries.add(new Entry(id, title, null, null, preview, timeStamp));
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            // Контрольная сумма совпала, но данные не разбираются - считаем, что снимка нет
+            entries.clear();
+        }
+        return entries;
+    }
+
+    private static byte[] encode(String value) {
+        return (value == null) ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int sizeOf(byte[] value) {
+        return Integer.BYTES + ((value == null) ? 0 : value.length);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(value.length);
+        buffer.put(value);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        if (length > buffer.remaining()) throw new BufferUnderflowException();
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static int checksum(ByteBuffer buffer, int dataSize) {
+        ByteBuffer data = buffer.duplicate();
+        data.position(HEADER_SIZE).limit(HEADER_SIZE + dataSize);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,228 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.arch.persistence.room.RoomDatabase;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Очередь группового коммита (group commit) для одиночных операций записи.
+ *
+ * Независимые записи, пришедшие почти одновременно (быстрое редактирование, удаление из контекстного
+ * меню, внешние клиенты ContentProvider), раньше выполнялись каждая в своей транзакции, то есть
+ * каждая платила за свой fsync. Здесь записи накапливаются в течение короткого окна (windowMillis)
+ * или до maxBatchSize штук и выполняются в одной транзакции. При этом каждый вызывающий получает
+ * свой собственный результат (id вставленной записи или количество измененных строк), как и раньше.
+ *
+ * Если одна из записей группы завершилась ошибкой, транзакция группы откатывается, и записи
+ * повторяются по одной - так ошибка достается только "своему" вызывающему. Побочные эффекты
+ * записей вне базы (файлы текстов) откат не отменяет - их отменяет TransactionListener до повтора.
+ *
+ * Каждая запись занимает место в очереди своего класса (PriorityScheduler.reserve) с момента
+ * постановки до выполнения группы: ограничение и Overflow класса действуют и на одиночные записи,
+ * при заполненной очереди запись ждет места или получает RejectedExecutionException. Группа
+ * выполняется только в потоке базы данных (единственный поток scheduler) с классом самой важной
+ * записи группы. Сама задача коммита ставится в очередь без учета ограничения
+ * (PriorityScheduler.schedule) - места ее записей уже заняты
+ */
+public class GroupCommitQueue {
+    private final RoomDatabase database;
+    private final PriorityScheduler scheduler;
+    private volatile long windowMillis;
+    private volatile int maxBatchSize;
+
+    private final Object lock = new Object();
+    private List<PendingWrite<?>> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private PriorityScheduler.Priority flushPriority;
+    private long windowEnd;
+    private TransactionListener listener = NO_LISTENER;
+
+    /**
+     * Слушатель транзакций группы и повторов по одной. Вызывается в потоке базы данных: onBegin -
+     * перед выполнением записей транзакции, затем onCommit или onRollback
+     */
+    public interface TransactionListener {
+        void onBegin();
+        void onCommit();
+        void onRollback();
+    }
+
+    private static final TransactionListener NO_LISTENER = new TransactionListener() {
+        @Override
+        public void onBegin() {
+        }
+
+        @Override
+        public void onCommit() {
+        }
+
+        @Override
+        public void onRollback() {
+        }
+    };
+
+    /**
+     * Одиночная операция записи, ожидающая коммита группы
+     * @param <T> тип результата операции
+     */
+    private static class PendingWrite<T> {
+        private final PriorityScheduler.Priority priority;
+        private final Supplier<T> write;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T result;
+
+        private PendingWrite(PriorityScheduler.Priority priority, Supplier<T> write) {
+            this.priority = priority;
+            this.write = write;
+        }
+
+        /**
+         * Выполнение операции внутри транзакции группы. Результат отдаем только после коммита
+         */
+        private void run() {
+            result = write.get();
+        }
+
+        private void complete() {
+            future.complete(result);
+        }
+
+        /**
+         * Выполнение операции в собственной транзакции (после отката группы)
+         */
+        private void runAlone(TransactionListener listener) {
+            listener.onBegin();
+            T result;
+            try {
+                result = write.get();
+            } catch (Throwable ex) {
+                listener.onRollback();
+                future.completeExceptionally(ex);
+                return;
+            }
+            listener.onCommit();
+            future.complete(result);
+        }
+    }
+
+    /**
+     * @param database база данных, в транзакции которой выполняется группа
+     * @param scheduler пул потока базы данных
+     * @param windowMillis окно накопления записей в миллисекундах
+     * @param maxBatchSize максимальный размер группы, при достижении которого группа выполняется
+     *                     не дожидаясь окончания окна
+     */
+    public GroupCommitQueue(RoomDatabase database, PriorityScheduler scheduler,
+                            long windowMillis, int maxBatchSize) {
+        this.database = database;
+        this.scheduler = scheduler;
+        configure(windowMillis, maxBatchSize);
+    }
+
+    /**
+     * Метод настройки окна и размера группы
+     * @param windowMillis окно накопления записей в миллисекундах (0 - группа выполняется при
+     *                     первой возможности, без ожидания)
+     * @param maxBatchSize максимальный размер группы
+     */
+    public void configure(long windowMillis, int maxBatchSize) {
+        if (windowMillis < 0 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("window = " + windowMillis + ", max batch = " + maxBatchSize);
+        }
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Метод установки слушателя транзакций. Вызывается до первой записи
+     * @param listener слушатель (null - без слушателя)
+     */
+    public void setTransactionListener(TransactionListener listener) {
+        this.listener = (listener == null) ? NO_LISTENER : listener;
+    }
+
+    /**
+     * Метод постановки операции записи в очередь
+     * @param priority класс приоритета записи
+     * @param write операция записи (вызов DAO)
+     * @return CompletableFuture с результатом операции, завершается после коммита группы
+     * @throws RejectedExecutionException если очередь класса заполнена (и места не дождались)
+     */
+    public <T> CompletableFuture<T> submit(PriorityScheduler.Priority priority, Supplier<T> write) {
+        // Место занимаем вне lock: ожидание места (BLOCK) не должно мешать flush освободить места
+        scheduler.reserve(priority);
+        PendingWrite<T> pendingWrite = new PendingWrite<>(priority, write);
+        synchronized (lock) {
+            pending.add(pendingWrite);
+            if (pending.size() >= maxBatchSize) {
+                scheduleFlush(isHigher(priority) ? priority : flushPriority, 0);
+            } else if (pending.size() == 1) {
+                windowEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+                scheduleFlush(priority, windowMillis);
+            } else if (isHigher(priority)) {
+                // Запись более важного класса: та же группа, но в очереди ее класса
+                scheduleFlush(priority, TimeUnit.NANOSECONDS.toMillis(Math.max(0, windowEnd - System.nanoTime())));
+            }
+        }
+        return pendingWrite.future;
+    }
+
+    /**
+     * Метод (пере)планирования коммита группы (под lock). Если прежняя задача уже стоит в очереди,
+     * отменить ее нельзя - она выполнится позже и найдет пустую группу
+     */
+    private void scheduleFlush(PriorityScheduler.Priority priority, long delayMillis) {
+        if (scheduledFlush != null) scheduledFlush.cancel(false);
+        flushPriority = priority;
+        scheduledFlush = scheduler.schedule(priority, this::flush, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return класс priority важнее класса запланированного коммита (под lock)
+     */
+    private boolean isHigher(PriorityScheduler.Priority priority) {
+        return flushPriority == null || priority.ordinal() < flushPriority.ordinal();
+    }
+
+    /**
+     * Метод выполнения накопленной группы. Вызывается только в потоке базы данных: по окончании
+     * окна, при достижении максимального размера группы, а также перед любой другой задачей
+     * потока базы данных (чтением, пакетной операцией), чтобы сохранить порядок операций
+     */
+    public void flush() {
+        List<PendingWrite<?>> group;
+        synchronized (lock) {
+            if (pending.isEmpty()) return;
+            group = pending;
+            pending = new ArrayList<>();
+            if (scheduledFlush != null) scheduledFlush.cancel(false);
+            scheduledFlush = null;
+            flushPriority = null;
+        }
+
+        // Записи группы покинули очередь: освобождаем их места в очередях классов
+        int[] counts = new int[PriorityScheduler.Priority.values().length];
+        for (PendingWrite<?> pendingWrite : group) counts[pendingWrite.priority.ordinal()]++;
+        for (PriorityScheduler.Priority priority : PriorityScheduler.Priority.values()) {
+            scheduler.release(priority, counts[priority.ordinal()]);
+        }
+
+        listener.onBegin();
+        try {
+            database.runInTransaction(() -> {
+                for (PendingWrite<?> pendingWrite : group) pendingWrite.run();
+            });
+        } catch (RuntimeException ex) {
+            listener.onRollback();
+            for (PendingWrite<?> pendingWrite : group) pendingWrite.runAlone(listener);
+            return;
+        }
+        listener.onCommit();
+        for (PendingWrite<?> pendingWrite : group) pendingWrite.complete();
+    }
+}
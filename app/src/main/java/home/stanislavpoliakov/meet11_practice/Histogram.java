@@ -0,0 +1,102 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма неотрицательных значений (время в микросекундах, длина очереди) в духе HdrHistogram:
+ * значения до 16 хранятся точно, дальше каждый интервал [2^k, 2^(k+1)) делится на 16 равных
+ * корзин, то есть относительная погрешность процентилей не больше 1/16 (6.25%) на всем диапазоне.
+ *
+ * Запись - несколько атомарных инкрементов без блокировок и без создания объектов, поэтому
+ * гистограмму можно обновлять на каждой операции из любых потоков. Снимок (процентили) не
+ * атомарен относительно параллельной записи - для мониторинга это допустимо
+ */
+public class Histogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    // Значения больше MAX_VALUE (~2.4 часа в микросекундах) попадают в последнюю корзину
+    private static final long MAX_VALUE = (1L << 33) - 1;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Метод записи значения
+     * @param value значение (отрицательные значения записываются как 0)
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(index(Math.min(value, MAX_VALUE)));
+        count.increment();
+        sum.add(value);
+        if (value > max.get()) max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long total = count.sum();
+        return (total == 0) ? 0 : (double) sum.sum() / total;
+    }
+
+    /**
+     * @param percentile процентиль (0..100)
+     * @return наибольшее значение корзины, в которую попадает процентиль (не больше максимума),
+     * или 0, если значений нет
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += counts.get(i);
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen < rank) continue;
+            // Последняя корзина не ограничена сверху
+            return (i == BUCKETS - 1) ? max.get() : Math.min(highestValue(i), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    /**
+     * Номер корзины: значения до SUB_COUNT - каждое в своей корзине, дальше - порядок (номер
+     * старшего бита) и следующие SUB_BITS бит значения
+     */
+    private static int index(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int sub = (int) (value >>> exponent) - SUB_COUNT;
+        return SUB_COUNT + exponent * SUB_COUNT + sub;
+    }
+
+    /**
+     * @return наибольшее значение, которое попадает в корзину index
+     */
+    private static long highestValue(int index) {
+        if (index < SUB_COUNT) return index;
+        int exponent = (index - SUB_COUNT) / SUB_COUNT;
+        int sub = (index - SUB_COUNT) % SUB_COUNT;
+        return ((long) (SUB_COUNT + sub + 1) << exponent) - 1;
+    }
+}
@@ -0,0 +1,166 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import java.util.Arrays;
+
+/**
+ * Хэш-таблица int -> int с открытой адресацией (линейное пробирование), без упаковки ключей и
+ * значений в Integer. Используется как индекс id записи -> позиция в слепке списка: поиск,
+ * добавление и удаление ключа за O(1) и без создания объектов на каждую операцию. Сколько
+ * ключей переписывается при изменении слепка, определяет MainActivity (см. positionBase).
+ *
+ * Ключ 0 служит признаком свободной ячейки, поэтому он хранится отдельно (hasZeroKey).
+ * Удаление - со сдвигом следующих ячеек цепочки назад, без "надгробий" (tombstones), поэтому
+ * таблица не деградирует при частых удалениях
+ */
+public class IntIntMap {
+    private static final int FREE_KEY = 0;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    private boolean hasZeroKey;
+    private int zeroValue;
+
+    /**
+     * @param expectedSize ожидаемое количество элементов (таблица растет и сама)
+     */
+    public IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * @param key ключ
+     * @param missing значение, которое вернем, если ключа нет
+     * @return значение по ключу или missing
+     */
+    public int get(int key, int missing) {
+        if (key == FREE_KEY) return hasZeroKey ? zeroValue : missing;
+        int slot = slot(key);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == key) return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return missing;
+    }
+
+    public boolean containsKey(int key) {
+        if (key == FREE_KEY) return hasZeroKey;
+        int slot = slot(key);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == key) return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Метод добавления или замены значения по ключу
+     * @param key ключ
+     * @param value значение
+     */
+    public void put(int key, int value) {
+        if (key == FREE_KEY) {
+            if (!hasZeroKey) size++;
+            hasZeroKey = true;
+            zeroValue = value;
+            return;
+        }
+        int slot = slot(key);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size >= threshold) rehash(keys.length << 1);
+    }
+
+    /**
+     * Метод удаления ключа
+     * @param key ключ
+     * @return true, если ключ был в таблице
+     */
+    public boolean remove(int key) {
+        if (key == FREE_KEY) {
+            if (!hasZeroKey) return false;
+            hasZeroKey = false;
+            size--;
+            return true;
+        }
+        int slot = slot(key);
+        while (keys[slot] != key) {
+            if (keys[slot] == FREE_KEY) return false;
+            slot = (slot + 1) & mask;
+        }
+        shiftKeys(slot);
+        size--;
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        hasZeroKey = false;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Сдвиг назад элементов цепочки, следующих за освободившейся ячейкой: каждый элемент,
+     * "домашняя" ячейка которого не лежит между освободившейся ячейкой и его текущей ячейкой,
+     * переносится в освободившуюся
+     * @param free освободившаяся ячейка
+     */
+    private void shiftKeys(int free) {
+        int slot = free;
+        while (true) {
+            slot = (slot + 1) & mask;
+            int key = keys[slot];
+            if (key == FREE_KEY) break;
+            int home = slot(key);
+            boolean isBetween = (free <= slot) ? (free < home && home <= slot)
+                    : (free < home || home <= slot);
+            if (isBetween) continue;
+            keys[free] = key;
+            values[free] = values[slot];
+            free = slot;
+        }
+        keys[free] = FREE_KEY;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        size = hasZeroKey ? 1 : 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE_KEY) put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * "Домашняя" ячейка ключа. Перемешиваем биты (id идут подряд), чтобы соседние ключи не
+     * образовывали длинных цепочек
+     */
+    private int slot(int key) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
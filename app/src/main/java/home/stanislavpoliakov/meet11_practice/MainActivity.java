@@ -1,22 +1,40 @@
 package home.stanislavpoliakov.meet11_practice;
 
+import android.content.Intent;
 import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v4.app.FragmentManager;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.Toast;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-public class MainActivity extends AppCompatActivity implements CRUDable{
+public class MainActivity extends AppCompatActivity implements CRUDable,
+        MyAdapter.OnPageRequestListener {
     private static final String TAG = "meet11_logs";
 
     // Элементы адреса Shared-таблицы в ContentProvider, где:
@@ -25,16 +43,91 @@ public class MainActivity extends AppCompatActivity implements CRUDable{
     private static final String AUTHORITY = "content_provider";
     private static final String ENTRIES_TABLE = "new_database";
 
+    // Размер страницы и максимальный размер окна записей, которое мы держим в памяти. Записи,
+    // вышедшие за пределы окна, выгружаются и будут прочитаны заново при прокрутке обратно
+    private static final int PAGE_SIZE = 50;
+    private static final int WINDOW_SIZE = PAGE_SIZE * 4;
+
+    // Размер части первой страницы, которая приходит через Handler (DATABASE_ENTRIES). Примерно
+    // один экран: его показываем, не дожидаясь остальной страницы
+    private static final int FIRST_CHUNK_SIZE = 16;
+
+    // Снимок первого экрана (EntrySnapshot): сколько записей в нем хранить (пара экранов) и через
+    // сколько миллисекунд после последнего изменения списка его записывать
+    private static final String SNAPSHOT_FILE = "first_screen.snapshot";
+    private static final int SNAPSHOT_SIZE = FIRST_CHUNK_SIZE * 2;
+    private static final long SNAPSHOT_DELAY_MS = 1000;
+
+    // Источники данных первого кадра списка (метрики first_frame)
+    private static final String FRAME_SNAPSHOT = "snapshot";
+    private static final String FRAME_DATABASE = "database";
+
+    // Поток записи снимка, общий для всех экземпляров Activity
+    private static final Executor SNAPSHOT_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    // Коды запросов выбора файла резервной копии (Storage Access Framework) и тип файла
+    private static final int REQUEST_EXPORT = 1;
+    private static final int REQUEST_IMPORT = 2;
+    private static final String BACKUP_MIME_TYPE = "application/octet-stream";
+    private static final String BACKUP_FILE_NAME = "entries.backup";
+
     private UIHandler uiHandler = new UIHandler();
+    private DatabaseManager dbManager;
+
+    // Executor, который выполняет продолжения CompletableFuture в UI-Thread. Время от отправки в
+    // очередь UI-Thread до выполнения попадает в метрики DatabaseManager (фаза deliver)
+    private final Executor mainThread = command -> {
+        long posted = System.nanoTime();
+        uiHandler.post(() -> {
+            dbManager.recordDelivery(System.nanoTime() - posted);
+            command.run();
+        });
+    };
+
+    // Слепок базы данных. Теперь это не вся таблица, а окно из нескольких страниц
+    private volatile List<Entry> data = new ArrayList<>();
 
-    // Слепок базы данных
-    private volatile List<Entry> data;
+    // Индекс id записи -> позиция в слепке. Поиск записи по id - O(1), без перебора списка и без
+    // упаковки в Integer. Слепок меняется только через методы ниже (addEntry, removeEntry...),
+    // которые поддерживают индекс. В индексе хранится позиция + positionBase: при сдвиге всех
+    // записей (страница добавлена или отрезана в начале окна) меняется только positionBase
+    private static final int NOT_INDEXED = Integer.MIN_VALUE;
+    private final IntIntMap positions = new IntIntMap(WINDOW_SIZE + PAGE_SIZE);
+    private int positionBase = 0;
+
+    // Есть ли в базе записи до начала и после конца окна
+    private boolean hasMoreBefore = false;
+    private boolean hasMoreAfter = true;
+    private boolean isPageLoading = false;
+
+    // seq последнего изменения из журнала изменений, которое уже учтено в слепке
+    private long lastChangeSeq = 0;
+    private boolean isApplyingChanges = false;
+    private boolean hasPendingChanges = false;
 
     private MyAdapter mAdapter;
+
+    // Пул элементов списка. Живет вместе с Activity и переживает замену адаптера
+    private final RecyclerView.RecycledViewPool viewPool = MyAdapter.newViewPool();
     private FragmentManager fragmentManager = getSupportFragmentManager();
     private ContentObserver mContentObserver;
     private boolean isFirstLaunch = true;
 
+    // Идентификатор текущего потокового чтения: части других (устаревших) чтений игнорируем
+    private int streamToken = 0;
+
+    // Снимок первого экрана. Пока первая страница читается из базы, окно начинается с записей
+    // снимка: reconciledCount первых записей окна уже сверены с базой, остальные - из снимка
+    // (-1 - сверка не идет). savedSnapshot - последний записанный снимок
+    private File snapshotFile;
+    private List<Entry> savedSnapshot = new ArrayList<>();
+    private int reconciledCount = -1;
+    private final Runnable saveSnapshot = this::saveSnapshot;
+    private boolean isSnapshotPending = false;
+
+    // Время создания Activity (uptime), от него считаем время до первого кадра
+    private long createdAt;
+
     /**
      * Класс Observer для ContentProvider.
      * Создается в onCreate, регистрируется в onResume и снимаем регистрацию в onPause, что
@@ -51,14 +144,14 @@ public class MainActivity extends AppCompatActivity implements CRUDable{
         }
 
         /**
-         * Метод, в котором мы реагируем на изменения в ContentProvider. Просто перерисовываем
-         * RecyclerView
+         * Метод, в котором мы реагируем на изменения в ContentProvider. Запрашиваем из журнала
+         * только изменения после последнего известного нам seq и применяем их к окну записей
          * @param selfChange ?
          */
         @Override
         public void onChange(boolean selfChange) {
             super.onChange(selfChange);
-            repaintRecycler();
+            applyChanges();
             //Log.d(TAG, "onChange: ");
         }
     }
@@ -68,19 +161,20 @@ public class MainActivity extends AppCompatActivity implements CRUDable{
      */
     private class UIHandler extends Handler {
         @Override
+        @SuppressWarnings("unchecked")
         public void handleMessage (Message msg){
-            // Получаем сообщение с записями базы данных (SELECT * FROM entries) в теле сообщения.
-            // Если это первый запуск системы - продолжаем инициализацию, если нет - перерисовываем
-            // изменения в RecyclerView
+            // Очередная часть первой страницы записей
             if (msg.what == DatabaseManager.DATABASE_ENTRIES) {
-                data = (List<Entry>) msg.obj;
-                if (isFirstLaunch) initRecyclerView();
-                else repaintRecycler();
+                // when - время постановки сообщения в очередь (миллисекунды uptime)
+                dbManager.recordDelivery(TimeUnit.MILLISECONDS.toNanos(
+                        SystemClock.uptimeMillis() - msg.getWhen()));
+                if (msg.arg1 == streamToken) onEntriesChunk((List<Entry>) msg.obj);
+            }
 
             // Это наследие предыдущих состояний системы. По факту, потоки, работающие с базой
             // данных до сих пор присылают сообщение-запрос для отрисовки результатов в RecyclerView,
             // но реализация этого поведения перенесена в Observer
-            } else if (msg.what == DatabaseManager.REPAINT_REQUEST) {
+            if (msg.what == DatabaseManager.REPAINT_REQUEST) {
                 //repaintRecycler();
             }
         }
@@ -91,6 +185,7 @@ public class MainActivity extends AppCompatActivity implements CRUDable{
      */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        createdAt = SystemClock.uptimeMillis();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         Toolbar toolbar = findViewById(R.id.toolbar);
@@ -104,8 +199,8 @@ public class MainActivity extends AppCompatActivity implements CRUDable{
 
     /**
      * При восстановлении рабочего состояния Activity регистрируем Observer на изменения в
-     * ContentProvider, а также проверяем, изменилось ли текущее состояние базы данных, и, если
-     * изменилось, инициируем отрисовку RecyclerView
+     * ContentProvider, а также применяем изменения базы данных, случившиеся, пока нас не было
+     * (по журналу изменений)
      * isFirstLaunch - при первом запуске мы не перерисовываем RecyclerView, т.к. он не инициализирован
      */
     @Override
@@ -114,21 +209,258 @@ public class MainActivity extends AppCompatActivity implements CRUDable{
         getContentResolver().registerContentObserver(
                 Uri.parse("content://" + AUTHORITY + "/" + ENTRIES_TABLE + "/#"),
                 true, mContentObserver);
-       if (!isFirstLaunch) checkForUpdates();
+       if (!isFirstLaunch) applyChanges();
     }
 
     /**
-     * Метод обновления RecyclerView после возобновления рабочего сосотяния (onCreate)
-     * Я не инициирую отрисовку результатов здесь, потому что результат отрисовывается
-     * после чтения всех записей в Handler. Это наследие от предыдущих версий программы,
-     * когда не надо было реализовывать ContentProvider
+     * Метод полного обновления окна записей. Используется, только если журнал изменений не может
+     * дать нам дельту (мы слишком отстали). Перечитываем текущее окно, начиная с его первой записи
+     * (а не всю таблицу), и отдаем его адаптеру, который сам оценит, что изменилось. seq журнала
+     * запоминаем до чтения окна, чтобы не пропустить изменения, случившиеся во время чтения
      */
     private void checkForUpdates() {
-        // Получаем адрес таблицы с записями
-        Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/" + ENTRIES_TABLE);
+        dbManager.readLastChangeSeqAsync()
+                .whenCompleteAsync((changeSeq, ex) -> {
+                    if (ex != null) Log.w(TAG, "checkForUpdates: ", ex);
+                    else reloadWindow(changeSeq);
+                }, mainThread);
+    }
 
-        // Получаем записи всей таблицы в виде объекта Cursor (SELECT * FROM entries")
-        getContentResolver().query(CONTENT_URI, null, null, null, null);
+    private void reloadWindow(long changeSeq) {
+        int fromId = (hasMoreBefore && !data.isEmpty()) ? data.get(0).getId() - 1 : 0;
+        dbManager.readEntriesAfterAsync(fromId, WINDOW_SIZE)
+                .whenCompleteAsync((window, ex) -> {
+                    if (ex != null) {
+                        Log.w(TAG, "reloadWindow: ", ex);
+                        return;
+                    }
+                    hasMoreAfter = window.size() == WINDOW_SIZE;
+                    lastChangeSeq = changeSeq;
+                    setWindow(window);
+                    repaintRecycler();
+                }, mainThread);
+    }
+
+    /**
+     * Метод применения изменений базы данных по журналу изменений. Вместо чтения всей таблицы
+     * получаем только записи, изменившиеся после lastChangeSeq. Если изменения приходят, пока мы
+     * применяем предыдущие, запрашиваем их еще раз по окончании
+     */
+    private void applyChanges() {
+        if (isFirstLaunch) return;
+        // Во время сверки снимка с базой окно еще не соответствует lastChangeSeq
+        if (isApplyingChanges || reconciledCount >= 0) {
+            hasPendingChanges = true;
+            return;
+        }
+        isApplyingChanges = true;
+
+        dbManager.readChangesAsync(lastChangeSeq)
+                .whenCompleteAsync((delta, ex) -> {
+                    isApplyingChanges = false;
+                    if (ex != null) Log.w(TAG, "applyChanges: ", ex);
+                    else if (delta.isReset()) checkForUpdates();
+                    else if (!delta.isEmpty()) {
+                        applyDelta(delta);
+                        lastChangeSeq = delta.getLastSeq();
+                    }
+
+                    if (hasPendingChanges) {
+                        hasPendingChanges = false;
+                        applyChanges();
+                    }
+                }, mainThread);
+    }
+
+    /**
+     * Метод применения дельты к окну записей. Слепок упорядочен по id, поэтому позицию записи
+     * ищем бинарным поиском. Добавленные записи попадают в окно, только если их id лежит в
+     * пределах окна (или окно доходит до соответствующего края таблицы)
+     * @param delta дельта изменений
+     */
+    private void applyDelta(EntryDelta delta) {
+        for (int id : delta.getDeletedIds()) {
+            int position = findPosition(id);
+            if (position >= 0) removeEntry(position);
+        }
+
+        for (Entry entry : delta.getChangedEntries()) {
+            int position = findPosition(entry.getId());
+            if (position >= 0) data.set(position, entry);
+            else if (isInWindow(entry.getId())) addEntry(-position - 1, entry);
+        }
+        repaintRecycler();
+    }
+
+    /**
+     * Метод поиска записи в слепке по id. Позицию записи берем из индекса за O(1). Бинарный поиск
+     * нужен, только если записи в слепке нет - чтобы найти, куда ее вставить
+     * @param id записи
+     * @return позиция записи или (-(точка вставки) - 1), если записи в слепке нет
+     */
+    private int findPosition(int id) {
+        int indexed = positions.get(id, NOT_INDEXED);
+        if (indexed != NOT_INDEXED) return indexed - positionBase;
+
+        int low = 0;
+        int high = data.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleId = data.get(middle).getId();
+            if (middleId < id) low = middle + 1;
+            else if (middleId > id) high = middle - 1;
+            else return middle;
+        }
+        return -(low + 1);
+    }
+
+    /*
+     * Методы изменения слепка с поддержкой индекса positions. Замена записи с тем же id
+     * (data.set) индекс не меняет. Страницы добавляются и отрезаются с краев окна: индекс
+     * обновляется только для добавленных и удаленных записей, сдвиг остальных - это изменение
+     * positionBase. При вставке и удалении одной записи в середине окна сдвигается одна из
+     * частей окна - переиндексируем меньшую из них (до половины окна; столько же элементов
+     * сдвигает и сам ArrayList)
+     */
+
+    private void addEntry(int position, Entry entry) {
+        data.add(position, entry);
+        if (position < reconciledCount) reconciledCount++;
+        if (position < data.size() / 2) {
+            // Записи после position сдвинулись на +1 вместе с базой, записи до нее - переиндексируем
+            positionBase--;
+            index(0, position + 1);
+        } else {
+            index(position, data.size());
+        }
+    }
+
+    private void removeEntry(int position) {
+        positions.remove(data.remove(position).getId());
+        if (position < reconciledCount) reconciledCount--;
+        if (position < data.size() / 2) {
+            positionBase++;
+            index(0, position);
+        } else {
+            index(position, data.size());
+        }
+    }
+
+    private void appendEntries(List<Entry> entries) {
+        int from = data.size();
+        data.addAll(entries);
+        index(from, data.size());
+    }
+
+    private void prependEntries(List<Entry> entries) {
+        data.addAll(0, entries);
+        positionBase -= entries.size();
+        index(0, entries.size());
+    }
+
+    private void removeRange(int from, int to) {
+        List<Entry> removed = data.subList(from, to);
+        for (Entry entry : removed) positions.remove(entry.getId());
+        removed.clear();
+        if (from == 0) positionBase += to;
+        else index(from, data.size());
+    }
+
+    private void setWindow(List<Entry> window) {
+        data = window;
+        positions.clear();
+        positionBase = 0;
+        index(0, data.size());
+    }
+
+    private void index(int from, int to) {
+        for (int position = from; position < to; position++) {
+            positions.put(data.get(position).getId(), position + positionBase);
+        }
+    }
+
+    private boolean isInWindow(int id) {
+        if (data.isEmpty()) return !hasMoreBefore && !hasMoreAfter;
+        return (!hasMoreBefore || id >= data.get(0).getId())
+                && (!hasMoreAfter || id <= data.get(data.size() - 1).getId());
+    }
+
+    /**
+     * Запрос следующей страницы от адаптера. Чтение выполняется асинхронно, а результат
+     * применяется в UI-Thread следующим сообщением Looper (то есть уже не во время прокрутки)
+     */
+    @Override
+    public void onLoadNext() {
+        if (isPageLoading || !hasMoreAfter) return;
+        loadNextPage();
+    }
+
+    @Override
+    public void onLoadPrevious() {
+        if (isPageLoading || !hasMoreBefore) return;
+        loadPreviousPage();
+    }
+
+    /**
+     * Метод загрузки страницы после конца окна (keyset pagination)
+     */
+    private void loadNextPage() {
+        isPageLoading = true;
+        int lastId = data.isEmpty() ? 0 : data.get(data.size() - 1).getId();
+        dbManager.readEntriesAfterAsync(lastId, PAGE_SIZE)
+                .whenCompleteAsync((page, ex) -> {
+                    isPageLoading = false;
+                    if (ex != null) Log.w(TAG, "loadNextPage: ", ex);
+                    else appendPage(page);
+                }, mainThread);
+    }
+
+    /**
+     * Метод загрузки страницы перед началом окна (keyset pagination)
+     */
+    private void loadPreviousPage() {
+        isPageLoading = true;
+        int firstId = data.get(0).getId();
+        dbManager.readEntriesBeforeAsync(firstId, PAGE_SIZE)
+                .whenCompleteAsync((page, ex) -> {
+                    isPageLoading = false;
+                    if (ex != null) Log.w(TAG, "loadPreviousPage: ", ex);
+                    else prependPage(page);
+                }, mainThread);
+    }
+
+    /**
+     * Метод добавления страницы в конец окна. Если окно стало больше WINDOW_SIZE,
+     * выгружаем записи с его начала
+     * @param page страница записей
+     */
+    private void appendPage(List<Entry> page) {
+        hasMoreAfter = page.size() == PAGE_SIZE;
+
+        appendEntries(page);
+        int overflow = data.size() - WINDOW_SIZE;
+        if (overflow > 0) {
+            removeRange(0, overflow);
+            hasMoreBefore = true;
+        }
+        repaintRecycler();
+    }
+
+    /**
+     * Метод добавления страницы в начало окна. Если окно стало больше WINDOW_SIZE,
+     * выгружаем записи с его конца
+     * @param page страница записей
+     */
+    private void prependPage(List<Entry> page) {
+        hasMoreBefore = page.size() == PAGE_SIZE;
+
+        prependEntries(page);
+        int overflow = data.size() - WINDOW_SIZE;
+        if (overflow > 0) {
+            removeRange(data.size() - overflow, data.size());
+            hasMoreAfter = true;
+        }
+        repaintRecycler();
     }
 
     /**
@@ -139,13 +471,21 @@ public class MainActivity extends AppCompatActivity implements CRUDable{
     protected void onPause() {
         super.onPause();
         getContentResolver().unregisterContentObserver(mContentObserver);
+
+        // Отложенную запись снимка не откладываем дальше: процесс может быть остановлен
+        if (isSnapshotPending) {
+            uiHandler.removeCallbacks(saveSnapshot);
+            saveSnapshot();
+        }
     }
 
     /**
-     * Метод основной инициализации. Получаем объект DatabaseManager (Singleton) и передаем
+     * Метод основной инициализации. Если есть снимок первого экрана, сразу показываем его в
+     * RecyclerView. Получаем объект DatabaseManager (Singleton) и передаем
      * ему Handler для общения (если я правильно понимаю, то, фактически, передаем ему Looper).
-     * Далее считываем состояние базы, дальнейшая инициализация переходит в Handler (при чтении
-     * состояния базы). Здесь же инициализируем Floating Action Button
+     * Далее асинхронно считываем первую страницу записей: она заменит записи снимка, а без снимка
+     * инициализация RecyclerView продолжится по готовности ее первой части. Здесь же
+     * инициализируем Floating Action Button
      */
     private void init() {
         // Открываем новый Dialog-Fragment при нажатии на FAB
@@ -157,51 +497,209 @@ public class MainActivity extends AppCompatActivity implements CRUDable{
                     .commitNow();
         });
 
-        DatabaseManager dbManager = DatabaseManager.getInstance(this);
+        // Снимок маленький (пара экранов) и читается отображением в память - прямо в UI-Thread
+        snapshotFile = new File(getFilesDir(), SNAPSHOT_FILE);
+        try {
+            savedSnapshot = EntrySnapshot.read(snapshotFile);
+        } catch (IOException ex) {
+            Log.w(TAG, "init: can't read snapshot", ex);
+        }
+        if (!savedSnapshot.isEmpty()) {
+            setWindow(new ArrayList<>(savedSnapshot));
+            reconciledCount = 0;
+            initRecyclerView();
+        }
+
+        dbManager = DatabaseManager.getInstance(this);
         dbManager.setHandler(uiHandler);
 
-        Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/" + ENTRIES_TABLE);
-        getContentResolver().query(CONTENT_URI, null, null, null, null);
+        // Запоминаем seq журнала изменений до чтения первой страницы, чтобы потом применять
+        // только изменения, случившиеся после него
+        dbManager.readLastChangeSeqAsync()
+                .whenCompleteAsync((changeSeq, ex) -> {
+                    if (ex != null) Log.w(TAG, "init: ", ex);
+                    else lastChangeSeq = changeSeq;
+                    loadFirstPage();
+                }, mainThread);
     }
 
     /**
-     * Метод инициализации  RecyclerView, продолжающий общую инициализацию. Запускается через Handler
-     * при первом запуске (isFirstLaunch)
+     * Метод загрузки первой страницы при запуске. Страница приходит частями через Handler
+     * (DATABASE_ENTRIES, см. onEntriesChunk): RecyclerView инициализируется и показывает первый
+     * экран после первой части. Результат чтения (общее количество записей) приходит после
+     * последней части - тогда страница загружена
+     */
+    private void loadFirstPage() {
+        isPageLoading = true;
+        int token = ++streamToken;
+        dbManager.readEntriesChunkedAsync(0, PAGE_SIZE, FIRST_CHUNK_SIZE, token)
+                .whenCompleteAsync((count, ex) -> {
+                    if (token != streamToken) return;
+                    isPageLoading = false;
+                    if (ex != null) Log.w(TAG, "loadFirstPage: ", ex);
+                    else hasMoreAfter = count == PAGE_SIZE;
+                    if (reconciledCount >= 0) finishReconcile(ex == null);
+                    if (isFirstLaunch) initRecyclerView();
+                    scheduleSnapshot();
+                }, mainThread);
+    }
+
+    /**
+     * Метод сверки части первой страницы с записями снимка. Записи окна до последнего id части
+     * заменяются записями части; записи снимка после него пока остаются на экране. Окно
+     * заменяется целиком, а DiffUtil перерисует только записи, которые отличаются от снимка
+     * @param chunk часть записей
+     */
+    private void reconcileChunk(List<Entry> chunk) {
+        if (chunk.isEmpty()) return;
+        boolean isFirstChunk = reconciledCount == 0;
+        int lastId = chunk.get(chunk.size() - 1).getId();
+
+        List<Entry> window = new ArrayList<>(data.subList(0, reconciledCount));
+        window.addAll(chunk);
+        for (Entry entry : data.subList(reconciledCount, data.size())) {
+            if (entry.getId() > lastId) window.add(entry);
+        }
+        reconciledCount += chunk.size();
+        setWindow(window);
+
+        // Первый кадр с данными базы: после того как адаптер применит различия
+        if (isFirstChunk) {
+            mAdapter.onNewData(data, () -> whenDrawn(findViewById(R.id.recyclerView),
+                    () -> onFirstFrame(FRAME_DATABASE)));
+        } else {
+            repaintRecycler();
+        }
+    }
+
+    /**
+     * Метод завершения сверки снимка с базой. Записи снимка, которых не оказалось в первой
+     * странице, удалены из базы (или вышли за пределы страницы) - убираем их. Изменения, пришедшие
+     * во время сверки, применяем по журналу
+     * @param isLoaded первая страница прочитана без ошибок. Иначе оставляем записи снимка на экране
+     */
+    private void finishReconcile(boolean isLoaded) {
+        if (isLoaded) removeRange(reconciledCount, data.size());
+        reconciledCount = -1;
+        repaintRecycler();
+        if (hasPendingChanges) {
+            hasPendingChanges = false;
+            applyChanges();
+        }
+    }
+
+    /**
+     * Метод добавления части первой страницы в окно. Пока читаются остальные части, изменения из
+     * журнала уже могли добавить в окно записи этой части - их пропускаем (окно упорядочено по id)
+     * @param chunk часть записей
+     */
+    private void onEntriesChunk(List<Entry> chunk) {
+        if (reconciledCount >= 0) {
+            reconcileChunk(chunk);
+            return;
+        }
+        int lastId = data.isEmpty() ? 0 : data.get(data.size() - 1).getId();
+        for (Entry entry : chunk) {
+            if (entry.getId() > lastId) addEntry(data.size(), entry);
+        }
+        if (isFirstLaunch) initRecyclerView();
+        else repaintRecycler();
+    }
+
+    /**
+     * Метод инициализации  RecyclerView, продолжающий общую инициализацию. Запускается при первом
+     * запуске (isFirstLaunch) сразу со снимком первого экрана, а без снимка - после
+     * чтения первой части первой страницы записей
      */
     private void initRecyclerView() {
         RecyclerView recyclerView = findViewById(R.id.recyclerView);
-        mAdapter = new MyAdapter(data);
+        mAdapter = new MyAdapter(this, data);
+        mAdapter.setOnPageRequestListener(this);
+        recyclerView.setRecycledViewPool(viewPool);
         recyclerView.setAdapter(mAdapter);
         LinearLayoutManager manager = new LinearLayoutManager(this, LinearLayoutManager.VERTICAL, false);
         recyclerView.setLayoutManager(manager);
+        if (!data.isEmpty()) {
+            whenDrawn(recyclerView, () -> onFirstFrame(reconciledCount >= 0 ? FRAME_SNAPSHOT : FRAME_DATABASE));
+        }
 
         // Обнуляем флаг. Думаю, что корректнее переименовать флаг в isRecyclerInitiated
         isFirstLaunch = false;
     }
 
+    /**
+     * Метод выполнения действия перед ближайшей отрисовкой View (один раз)
+     * @param view View
+     * @param action действие
+     */
+    private static void whenDrawn(View view, Runnable action) {
+        ViewTreeObserver observer = view.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+                action.run();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Метод учета первого кадра списка: время от создания Activity попадает в лог и в метрики
+     * DatabaseManager (first_frame.snapshot, first_frame.database). Кадр с данными базы означает,
+     * что экран готов, - сообщаем об этом системе (reportFullyDrawn, строка "Fully drawn" в logcat)
+     * @param source источник данных кадра
+     */
+    private void onFirstFrame(String source) {
+        long millis = SystemClock.uptimeMillis() - createdAt;
+        Log.i(TAG, "First frame (" + source + "): " + millis + " ms");
+        dbManager.recordFirstFrame(source, TimeUnit.MILLISECONDS.toNanos(millis));
+        if (FRAME_DATABASE.equals(source)) reportFullyDrawn();
+    }
+
+    /**
+     * Метод записи снимка первого экрана. Снимок отражает начало таблицы, поэтому пишем его, только
+     * если окно начинается с первой записи и сверка с базой закончена. Если записи первого экрана
+     * не изменились (изменения заменяют объекты Entry в слепке), снимок не переписываем
+     */
+    private void saveSnapshot() {
+        isSnapshotPending = false;
+        if (hasMoreBefore || reconciledCount >= 0) return;
+        List<Entry> snapshot = new ArrayList<>(data.subList(0, Math.min(SNAPSHOT_SIZE, data.size())));
+        if (snapshot.equals(savedSnapshot)) return;
+        savedSnapshot = snapshot;
+
+        File file = snapshotFile;
+        SNAPSHOT_EXECUTOR.execute(() -> {
+            try {
+                EntrySnapshot.write(file, snapshot);
+            } catch (IOException ex) {
+                Log.w(TAG, "saveSnapshot: ", ex);
+            }
+        });
+    }
+
     /**
      * Метод инициализации dialog-фрагмента для редактирования записи. Запуск по выбору соотвествующего
      * пункта ("Edit") в контекстном меню.
-     * @param itemPosition позиция элемента, который мы хотим редактировать
+     * @param itemPosition позиция элемента (в отрисованном списке), который мы хотим редактировать
      */
     private void initEditDialog(int itemPosition) {
-        // Получаем запись из списка по номеру позиции
-        Entry entry = data.get(itemPosition);
+        // Получаем запись по номеру позиции из отрисованного списка: пока различия считаются в
+        // фоне, слепок может уже отличаться от того, что видит пользователь
+        Entry entry = mAdapter.getEntry(itemPosition);
 
         // Поскольку нам необходимо заполнить поля окна редактирования сущестующими значениями, а
         // сам объект в Bundle мы передать не можем, парсим запись на допустимые типы (String) и
         // передаем состояние записи фрагменту в качестве аргументов
+        // Полный текст записи в слепке списка не хранится (только превью), поэтому передаем id -
+        // фрагмент прочитает текст сам
         Bundle bundle = new Bundle();
         bundle.putString("title", entry.getTitle());
-        bundle.putString("body", entry.getText());
-
-        // Отдельно стоит сказать про позицию элемента. В дальнейшем, после успешного редактирования,
-        // мы запускаем метод обновления записи. Но по причине того, что в Bundle не помещается Object,
-        // мы должны заново найти запись в списке по порядковому номеру, чтобы вытащить из нее id.
-        // В принципе, можно предавть сразу id, но тогда для изменения состояния записи в списке
-        // придется искать запись по id, что не очень удобно
-        bundle.putInt("item position", itemPosition);
+        bundle.putInt("id", entry.getId());
 
+        // Позицию записи не передаем: пока открыто окно редактирования, позиции в слепке могут
+        // сдвинуться. После редактирования запись найдем по id (см. update)
 
         // Запускаем dialog-fragment
         EditFragment fragment = new EditFragment();
@@ -221,7 +719,7 @@ public class MainActivity extends AppCompatActivity implements CRUDable{
     public boolean onContextItemSelected(MenuItem item) {
         if ("Edit".equals(item.getTitle())) initEditDialog(item.getItemId());
         else if ("Delete".equals(item.getTitle())) {
-            Entry entry = data.get(item.getItemId());
+            Entry entry = mAdapter.getEntry(item.getItemId());
             delete(entry);
         }
         return super.onContextItemSelected(item);
@@ -233,85 +731,112 @@ public class MainActivity extends AppCompatActivity implements CRUDable{
      * необходимо оценить и перерисовать, если требуется
      */
     private void repaintRecycler() {
-        if (data != null || !data.isEmpty()) mAdapter.onNewData(data);
+        // До инициализации RecyclerView (первая страница еще читается) перерисовывать нечего
+        if (mAdapter != null) mAdapter.onNewData(data);
+        scheduleSnapshot();
+    }
+
+    /**
+     * Метод отложенной записи снимка первого экрана: список изменился, снимок запишем, когда
+     * изменения затихнут
+     */
+    private void scheduleSnapshot() {
+        uiHandler.removeCallbacks(saveSnapshot);
+        uiHandler.postDelayed(saveSnapshot, SNAPSHOT_DELAY_MS);
+        isSnapshotPending = true;
+    }
+
+    /**
+     * Метод чтения записи целиком (с полным текстом). Это метод интерфейса CRUDable: слепок списка
+     * хранит только превью текста, поэтому окно редактирования получает полный текст по id
+     * @param id записи
+     * @return CompletableFuture с записью (null, если записи уже нет), завершается в UI-Thread
+     */
+    @Override
+    public CompletableFuture<Entry> read(int id) {
+        return dbManager.readEntryAsync(id).thenApplyAsync(entry -> entry, mainThread);
     }
 
     /**
-     * Метод создания новой записи в слепке и в базе данных через ContentProvider. Это метод интерфейса
+     * Метод создания новой записи в слепке и в базе данных. Это метод интерфейса
      * CRUDable для взаимодействия фрагмента с Activity. Согласен, название метода create - некорректно в рамках
      * Android-разработки. "Insert" выглядит более корректным
      * @param entry запись, которую необходимо добавить
+     * @return CompletableFuture с добавленной записью (с актуальным id), завершается в UI-Thread
      */
     @Override
-    public void create(Entry entry) {
-        // Нам нужно любое id, чтобы добавить запись. Конечное значение id будет установлено в момент
-        // добавления записи в базу данных (id = primary key, autoincrement). Мы получим актуальное
-        // значение в конце итерации
-        int id = 0;
-
-        // Формируем адрес нового элемента (с нашим "каким-нибудь" значением id)
-        Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/" + ENTRIES_TABLE + "/" + id);
-
-        // Добавляем элемент (реализация в ContentProvider) и получаем актуальный URI нового элемента,
-        // который, среди прочего, содержит актуальный id (добавила база)
-        CONTENT_URI = getContentResolver().insert(CONTENT_URI, ConvertUtils.convertEntryToValues(entry));
-
-        // Получаем значение id в виде String и преобразуем к Integer
-        String stringID = CONTENT_URI.getLastPathSegment();
-        id = Integer.parseInt(stringID);
-
-        // Обновляем значение id в записи и добаляем запись к текущему слепку базы данных
-        entry.setId(id);
-        data.add(entry);
+    public CompletableFuture<Entry> create(Entry entry) {
+        // Добавляем элемент асинхронно. Конечное значение id будет установлено в момент
+        // добавления записи в базу данных (id = primary key, autoincrement)
+        return dbManager.insertEntryAsync(entry)
+                .thenApplyAsync(id -> {
+
+                    // Обновляем значение id в записи и добаляем запись к текущему слепку базы данных.
+                    // Новая запись всегда последняя (id = autoincrement), поэтому добавляем ее в окно,
+                    // только если окно доходит до конца таблицы. Иначе она будет прочитана при прокрутке.
+                    // Запись уже может быть в окне, если изменения из журнала применились раньше.
+                    // База хранит свою копию записи, время изменения в нашей ставим сами: точное
+                    // значение придет с изменениями из журнала
+                    entry.setId(id.intValue());
+                    entry.setTimeStamp(System.currentTimeMillis());
+                    int position = findPosition(entry.getId());
+                    if (!hasMoreAfter && position < 0) {
+                        addEntry(-position - 1, entry);
+                        repaintRecycler();
+                    }
+                    return entry;
+                }, mainThread);
     }
 
     /**
-     * Метод обновления записи в слепке и в базе данных через ContentProvider. Это метод интерфейса
+     * Метод обновления записи в слепке и в базе данных. Это метод интерфейса
      * CRUDable для взаимодействия фрагмента с Activity.
      * @param entryInfo информация, фактически, содержащая элементы записи, поскольку саму запись в
-     *                  Bundle мы передать не можем. Также содержит информацию о порядковом номере
-     *                  записи в списке, для поиска
+     *                  Bundle мы передать не можем. Также содержит id записи
+     * @return CompletableFuture с количеством обновленных записей
      */
     @Override
-    public void update(Bundle entryInfo) {
-        // Ищем запись в списке по порядковому номеру (полученному в Bundle)
-        Entry entry = data.get(entryInfo.getInt("item position"));
-
-        // Устанавливаем актуальные значения
-        entry.setTitle(entryInfo.getString("title"));
-        entry.setText(entryInfo.getString("body"));
-
-        // Получаем id для адреса ContentProvider и производим изменения в существующей записи
-        // базы данных (реализация в ContentProvider).
-        int id = entry.getId();
-        Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/" + ENTRIES_TABLE + "/" + id);
+    public CompletableFuture<Integer> update(Bundle entryInfo) {
+        // Создаем новый объект с актуальными значениями, а не меняем существующий: старый объект
+        // есть и в отрисованном слепке адаптера, и тогда DiffUtil не увидел бы изменений
+        Entry updatedEntry = new Entry(entryInfo.getString("title"), entryInfo.getString("body"),
+                entryInfo.getInt("id"));
+
+        // Объект уходит в слепок, поэтому после публикации не изменяется: время изменения ставим
+        // до нее, а база данных работает со своей копией (см. DatabaseManager.updateEntryAsync)
+        updatedEntry.setTimeStamp(System.currentTimeMillis());
+
+        // Ищем запись в слепке по id (позиция могла измениться, пока было открыто окно
+        // редактирования). Запись могла и выйти за пределы окна - тогда меняем только базу
+        int position = findPosition(updatedEntry.getId());
+        if (position >= 0) {
+            data.set(position, updatedEntry);
+            repaintRecycler();
+        }
 
-        // Поскольку напрямую вставить запись в базу (точнее, в контент) мы не можем из-за реализации
-        // метода update в ContentProvider (запись должна быть в ContentValues), конвертируем наш
-        // объект Entry в подходящий формат ContentValues. Реализация в классе ConvertUtils
-        getContentResolver().update(CONTENT_URI, ConvertUtils.convertEntryToValues(entry), null, null);
+        // Сохраняем изменения асинхронно
+        return dbManager.updateEntryAsync(updatedEntry);
     }
 
     /**
-     * Метод удаления записи в слепке и в базе данных через ContentProvider. Это метод интерфейса
+     * Метод удаления записи в слепке и в базе данных. Это метод интерфейса
      * CRUDable, не реализован во взаимодействии с фрагментами, но здесь просто для порядка :)
      *
      * Фактическое удаление записи происходит по id, но метод имеет "старую" сигнатуру, как наследие
      * от предыдущих версий программы
      *
      * @param entry запись, которую необходимо удалить
+     * @return CompletableFuture с количеством удаленных записей
      */
     @Override
-    public void delete(Entry entry) {
-        // Получаем id записи и формируем адрес записи в ContentProvider
-        int id = entry.getId();
-        Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/" + ENTRIES_TABLE + "/" + id);
-
-        // Удаляем элемент базы данных. Реализация в ContentProvider
-        getContentResolver().delete(CONTENT_URI, null, null);
-
+    public CompletableFuture<Integer> delete(Entry entry) {
         // Удаляем элемент в текущем слепке
-        data.remove(entry);
+        int position = findPosition(entry.getId());
+        if (position >= 0) removeEntry(position);
+        repaintRecycler();
+
+        // Удаляем элемент базы данных асинхронно. RecyclerView перерисуется по уведомлению Observer
+        return dbManager.deleteEntryByIdAsync(entry.getId());
     }
 
     /**
@@ -339,6 +864,102 @@ public class MainActivity extends AppCompatActivity implements CRUDable{
             return true;
         }
 
+        // Файл резервной копии выбирает пользователь (системный диалог), разрешения на доступ к
+        // памяти не нужны
+        if (id == R.id.action_export) {
+            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT)
+                    .addCategory(Intent.CATEGORY_OPENABLE)
+                    .setType(BACKUP_MIME_TYPE)
+                    .putExtra(Intent.EXTRA_TITLE, BACKUP_FILE_NAME);
+            startActivityForResult(intent, REQUEST_EXPORT);
+            return true;
+        }
+        if (id == R.id.action_import) {
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT)
+                    .addCategory(Intent.CATEGORY_OPENABLE)
+                    .setType("*/*");
+            startActivityForResult(intent, REQUEST_IMPORT);
+            return true;
+        }
+
         return super.onOptionsItemSelected(item);
     }
+
+    /**
+     * Метод получения файла резервной копии, выбранного пользователем
+     * @param requestCode REQUEST_EXPORT или REQUEST_IMPORT
+     * @param resultCode результат выбора
+     * @param intent адрес выбранного файла (getData)
+     */
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent intent) {
+        super.onActivityResult(requestCode, resultCode, intent);
+        if (resultCode != RESULT_OK || intent == null || intent.getData() == null) return;
+        if (requestCode == REQUEST_EXPORT) exportEntries(intent.getData());
+        else if (requestCode == REQUEST_IMPORT) importEntries(intent.getData());
+    }
+
+    /**
+     * Метод экспорта всех записей в файл. Прогресс показывается в подзаголовке toolbar
+     * @param uri адрес файла
+     */
+    private void exportEntries(Uri uri) {
+        OutputStream stream;
+        try {
+            stream = getContentResolver().openOutputStream(uri);
+        } catch (FileNotFoundException ex) {
+            onBackupDone(0, 0, ex);
+            return;
+        }
+        dbManager.exportEntriesAsync(stream, this::onBackupProgress)
+                .whenComplete((count, ex) -> closeQuietly(stream))
+                .whenCompleteAsync((count, ex) -> onBackupDone(R.string.export_done,
+                        (count == null) ? 0 : count, ex), mainThread);
+    }
+
+    /**
+     * Метод импорта записей из файла. Новые записи появятся в списке по уведомлениям
+     * ContentProvider, порция за порцией
+     * @param uri адрес файла
+     */
+    private void importEntries(Uri uri) {
+        InputStream stream;
+        try {
+            stream = getContentResolver().openInputStream(uri);
+        } catch (FileNotFoundException ex) {
+            onBackupDone(0, 0, ex);
+            return;
+        }
+        dbManager.importEntriesAsync(stream, this::onBackupProgress)
+                .whenComplete((count, ex) -> closeQuietly(stream))
+                .whenCompleteAsync((count, ex) -> onBackupDone(R.string.import_done,
+                        (count == null) ? 0 : count, ex), mainThread);
+    }
+
+    /**
+     * Прогресс экспорта / импорта. Вызывается в потоке базы данных или чтения
+     */
+    private void onBackupProgress(long entries, long bytes) {
+        uiHandler.post(() -> getSupportActionBar().setSubtitle(getString(R.string.backup_progress, entries)));
+    }
+
+    private void onBackupDone(int messageId, long count, Throwable ex) {
+        getSupportActionBar().setSubtitle(null);
+        String message;
+        if (ex == null) message = getString(messageId, count);
+        else {
+            Log.w(TAG, "Backup failed: ", ex);
+            Throwable cause = (ex.getCause() != null) ? ex.getCause() : ex;
+            message = getString(R.string.backup_failed, cause.getMessage());
+        }
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+
+    private static void closeQuietly(Closeable stream) {
+        try {
+            if (stream != null) stream.close();
+        } catch (IOException ex) {
+            Log.w(TAG, "Can't close backup stream", ex);
+        }
+    }
 }
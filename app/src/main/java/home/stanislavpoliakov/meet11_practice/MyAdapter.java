@@ -1,7 +1,11 @@
 package home.stanislavpoliakov.meet11_practice;
 
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.ContextMenu;
@@ -13,58 +17,296 @@ import android.widget.TextView;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.zip.Inflater;
 
 public class MyAdapter extends RecyclerView.Adapter<MyAdapter.MyViewHolder> {
     private static final String TAG = "meet11_logs";
+
+    // За сколько элементов до края окна начинаем подгружать следующую страницу
+    private static final int PREFETCH_DISTANCE = 10;
+
+    // Поток для расчета различий DiffUtil, общий для всех адаптеров
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    // Тип элемента списка (единственный) и сколько отвязанных элементов хранит пул. Пул по
+    // умолчанию держит 5 элементов: при быстрой прокрутке и подгрузке страниц их не хватает,
+    // и элементы приходится создавать (inflate) заново
+    private static final int VIEW_TYPE_ENTRY = 0;
+    private static final int VIEW_POOL_SIZE = 24;
+
+    // Отрисованный слепок. Список не изменяется, а заменяется целиком при применении различий,
+    // поэтому его можно безопасно читать в фоновом потоке при расчете следующих различий
     private List<Entry> data;
 
+    // Модели отображения отрисованного слепка (по позициям data). Заменяются вместе с data
+    private List<EntryItem> items;
+
+    // Параметры разметки, по которым построены items (только UI-Thread)
+    private EntryItem.TextMetrics itemMetrics;
+
+    // Последние параметры разметки превью. Пишутся в UI-Thread, читаются в DIFF_EXECUTOR
+    private volatile EntryItem.TextMetrics metrics;
+
+    // Последний слепок, переданный в onNewData (возможно, еще не отрисованный)
+    private List<Entry> latestData;
+
+    private final Context context;
+
+    // Сообщать ли RecyclerView измененные поля (см. DiffCall). Читается в DIFF_EXECUTOR
+    private volatile boolean isPartialRebind = true;
+    private OnPageRequestListener mPageListener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Номер поколения данных. Увеличивается при каждом вызове onNewData (только в UI-Thread)
+    private int generation = 0;
+
+    /**
+     * Интерфейс запроса страниц. Адаптер хранит только ограниченное "окно" записей, поэтому,
+     * когда пользователь долистывает до края окна, мы просим вызывающий контекст (Activity)
+     * подгрузить следующую (или предыдущую) страницу
+     */
+    public interface OnPageRequestListener {
+        void onLoadNext();
+        void onLoadPrevious();
+    }
+
+    /**
+     * Следим за прокруткой и запрашиваем страницы заранее, за PREFETCH_DISTANCE элементов до края
+     */
+    private final RecyclerView.OnScrollListener mScrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            if (mPageListener == null) return;
+            if (!(recyclerView.getLayoutManager() instanceof LinearLayoutManager)) return;
+            LinearLayoutManager manager = (LinearLayoutManager) recyclerView.getLayoutManager();
+
+            if (dy > 0 && manager.findLastVisibleItemPosition() >= items.size() - PREFETCH_DISTANCE) {
+                mPageListener.onLoadNext();
+            } else if (dy < 0 && manager.findFirstVisibleItemPosition() <= PREFETCH_DISTANCE) {
+                mPageListener.onLoadPrevious();
+            }
+        }
+    };
+
+    /**
+     * Следим за разметкой превью: по ней определяются параметры обрезки (ширина, шрифт, количество
+     * строк). Если они изменились, модели отрисованного слепка перестраиваются в фоновом потоке.
+     * Срабатывает при каждой разметке элемента, поэтому сравнение не выделяет памяти
+     */
+    private final View.OnLayoutChangeListener mBodyLayoutListener =
+            (view, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) -> {
+                TextView body = (TextView) view;
+                EntryItem.TextMetrics current = metrics;
+                if (current != null && current.matches(body)) return;
+                EntryItem.TextMetrics measured = EntryItem.TextMetrics.of(body);
+                if (measured == null) return;
+                metrics = measured;
+                onNewData(latestData);
+            };
+
     /**
-     * Конструктор
+     * Конструктор. Модели первого экрана строятся сразу, в UI-Thread, чтобы не откладывать первый
+     * кадр: параметры разметки еще неизвестны, поэтому превью пока не обрезаются
+     * @param context контекст (используется контекст приложения)
      * @param newData слепок базы, который необходимо отрисовать. Мы будем считать, что данные,
      *                полученные в конструкторе, то есть при создании, - это oldData, с точки зрения
      *                DiffUtil
      */
-    public MyAdapter(List<Entry> newData) {
-        this.data = new ArrayList<>();
-        this.data.addAll(newData);
+    public MyAdapter(Context context, List<Entry> newData) {
+        this.context = context.getApplicationContext();
+        this.data = new ArrayList<>(newData);
+        this.latestData = data;
+        this.items = buildItems(data, Collections.emptyList(), null);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Метод создания пула переиспользуемых элементов. Пул создается один на Activity и передается
+     * всем ее спискам записей: он хранит View, поэтому не должен переживать Activity
+     * @return пул, рассчитанный на быструю прокрутку списка записей
+     */
+    public static RecyclerView.RecycledViewPool newViewPool() {
+        RecyclerView.RecycledViewPool pool = new RecyclerView.RecycledViewPool();
+        pool.setMaxRecycledViews(VIEW_TYPE_ENTRY, VIEW_POOL_SIZE);
+        return pool;
     }
 
     @NonNull
     @Override
     public MyViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.view_holder, parent, false);
-        return new MyViewHolder(view);
+        MyViewHolder holder = new MyViewHolder(view);
+        holder.body.addOnLayoutChangeListener(mBodyLayoutListener);
+        return holder;
     }
 
     /**
-     * Метод запуска DiffUtil для подсчета различий и необходимости отрисовки RecyclerView
+     * Метод запуска DiffUtil для подсчета различий и необходимости отрисовки RecyclerView.
+     * Различия считаются в фоновом потоке, а в UI-Thread применяются только минимальные изменения
+     * (вставки, удаления, изменения конкретных элементов). Этот же метод используется при
+     * подгрузке и обрезке страниц окна: DiffUtil по id сам определит вставленный или удаленный
+     * диапазон, и видимые элементы останутся на месте.
+     *
+     * Каждый вызов получает номер поколения. Если пока считались различия, пришли еще более новые
+     * данные, результат устаревшего расчета отбрасывается: он посчитан относительно отрисованного
+     * слепка, а применять нужно только последние данные.
+     *
+     * Там же, в фоновом потоке, строятся модели отображения (EntryItem) новых записей; модели
+     * записей, которые не изменились, переиспользуются
      * @param newData новые данные (слепок с внесенными, но пока не отрисованными изменениями)
-     *                глобальная переменная data хранит "старые" данные (oldData)
+     *                глобальная переменная data хранит "старые" (отрисованные) данные (oldData)
      */
     public void onNewData(List<Entry> newData) {
-        DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffCall(data, newData));
-        result.dispatchUpdatesTo(this);
+        onNewData(newData, null);
+    }
+
+    /**
+     * @param newData новые данные
+     * @param onApplied действие после того, как изменения переданы RecyclerView (в UI-Thread). Не
+     *                  выполняется, если результат устарел
+     */
+    public void onNewData(List<Entry> newData, Runnable onApplied) {
+        final int currentGeneration = ++generation;
+        final List<Entry> oldSnapshot = data;
+        final List<EntryItem> oldItems = items;
+        final List<Entry> newSnapshot = new ArrayList<>(newData);
+        latestData = newSnapshot;
+
+        DIFF_EXECUTOR.execute(() -> {
+            EntryItem.TextMetrics builtMetrics = metrics;
+            List<EntryItem> newItems = buildItems(newSnapshot, oldItems, builtMetrics);
+            DiffUtil.DiffResult result = DiffUtil.calculateDiff(
+                    new DiffCall(oldSnapshot, newSnapshot, isPartialRebind), false);
 
-        // Сохраняем текущий слепок
-        data.clear();
-        data.addAll(newData);
+            mainHandler.post(() -> {
+                if (currentGeneration != generation) return;
 
-        notifyDataSetChanged(); // Чтобы RecyclerView не мигал :) "Чтобы цепь не слетала" (с)
+                // Сохраняем текущий слепок и сообщаем RecyclerView только о реальных изменениях.
+                // Если изменились параметры разметки, превью всех элементов обрезаны заново -
+                // обновляем в элементах только превью
+                boolean isRemeasured = itemMetrics != builtMetrics;
+                data = newSnapshot;
+                items = newItems;
+                itemMetrics = builtMetrics;
+                result.dispatchUpdatesTo(this);
+                if (isRemeasured) notifyItemRangeChanged(0, items.size(), DiffCall.CHANGED_BODY);
+                if (onApplied != null) onApplied.run();
+            });
+        });
     }
 
+    /**
+     * Метод построения моделей отображения слепка
+     * @param snapshot слепок
+     * @param oldItems модели предыдущего слепка. Модель переиспользуется, если построена для того
+     *                 же объекта записи с теми же параметрами разметки
+     * @param metrics параметры разметки превью или null, если они еще неизвестны
+     * @return модели по позициям слепка
+     */
+    private List<EntryItem> buildItems(List<Entry> snapshot, List<EntryItem> oldItems,
+                                       EntryItem.TextMetrics metrics) {
+        Map<Entry, EntryItem> built = new IdentityHashMap<>(oldItems.size());
+        for (EntryItem item : oldItems) built.put(item.getEntry(), item);
+
+        List<EntryItem> newItems = new ArrayList<>(snapshot.size());
+        for (Entry entry : snapshot) {
+            EntryItem item = built.get(entry);
+            newItems.add((item != null && item.isBuiltFor(entry, metrics))
+                    ? item : EntryItem.create(entry, context, metrics));
+        }
+        return newItems;
+    }
+
+    /**
+     * Метод включения (по умолчанию) и отключения обновления только измененных полей элемента.
+     * Без него измененный элемент перерисовывается целиком, с анимацией замены. Нужен для
+     * измерения времени кадра (см. EditFramesBenchmark)
+     * @param isPartialRebind true - обновлять только измененные поля
+     */
+    public void setPartialRebind(boolean isPartialRebind) {
+        this.isPartialRebind = isPartialRebind;
+    }
+
+    public void setOnPageRequestListener(OnPageRequestListener listener) {
+        mPageListener = listener;
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        recyclerView.addOnScrollListener(mScrollListener);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        recyclerView.removeOnScrollListener(mScrollListener);
+    }
 
     @Override
     public void onBindViewHolder(@NonNull MyViewHolder holder, int position) {
-        holder.title.setText(data.get(position).getTitle());
-        holder.body.setText(data.get(position).getText());
-        holder.timestamp.setText(String.valueOf(data.get(position).getId()));
+        // Все строки подготовлены заранее (см. EntryItem): здесь только передаем их в TextView
+        EntryItem item = items.get(position);
+        holder.title.setText(item.getTitle());
+        holder.body.setText(item.getBody());
+        holder.timestamp.setText(item.getTimeStamp());
+    }
+
+    /**
+     * Метод частичного обновления элемента: payloads - флаги изменившихся полей от DiffCall
+     * (несколько, если изменения элемента пришли до его отрисовки). Обновляются только TextView
+     * этих полей; без payload элемент привязывается целиком
+     */
+    @Override
+    public void onBindViewHolder(@NonNull MyViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+
+        // Обходим по индексу: итератор - лишний объект на каждую привязку
+        int changes = 0;
+        for (int i = 0; i < payloads.size(); i++) {
+            Object payload = payloads.get(i);
+            changes |= (payload instanceof Integer) ? (Integer) payload : DiffCall.CHANGED_ALL;
+        }
+
+        EntryItem item = items.get(position);
+        if ((changes & DiffCall.CHANGED_TITLE) != 0) holder.title.setText(item.getTitle());
+        if ((changes & DiffCall.CHANGED_BODY) != 0) holder.body.setText(item.getBody());
+        if ((changes & DiffCall.CHANGED_METADATA) != 0) holder.timestamp.setText(item.getTimeStamp());
+    }
+
+    /**
+     * @param position позиция элемента в отрисованном списке
+     * @return отрисованная запись
+     */
+    public Entry getEntry(int position) {
+        return items.get(position).getEntry();
+    }
+
+    /**
+     * Стабильные id: id записи в базе. Записи попадают в слепок только после вставки в базу,
+     * поэтому id уникальны, и RecyclerView сохраняет элементы при перестроении списка
+     */
+    @Override
+    public long getItemId(int position) {
+        return items.get(position).getId();
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return VIEW_TYPE_ENTRY;
     }
 
     @Override
     public int getItemCount() {
-        return data.size();
+        return items.size();
     }
 
     public class MyViewHolder extends RecyclerView.ViewHolder {
@@ -1,27 +1,92 @@
 package home.stanislavpoliakov.meet11_practice;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.util.Log;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
 
+/**
+ * ContentProvider для доступа к записям из других приложений. Об изменениях наблюдателей уведомляет
+ * DatabaseManager (после успешной записи), поэтому здесь notifyChange не вызывается
+ */
 public class MyContentProvider extends ContentProvider {
     private static final String TAG = "meet11_logs";
     private static final String AUTHORITY = "content_provider";
     private static final String ENTRIES_TABLE = "new_database";
-    private static final Uri CONTENT_URI =
+    static final Uri CONTENT_URI =
             Uri.parse("content://" + AUTHORITY + "/" + ENTRIES_TABLE);
 
+    // Параметры постраничного чтения (keyset pagination) для адреса всей таблицы, например:
+    // content://content_provider/new_database?after=120&limit=50
+    public static final String PARAM_AFTER = "after";
+    public static final String PARAM_BEFORE = "before";
+    public static final String PARAM_LIMIT = "limit";
+    private static final int DEFAULT_PAGE_SIZE = 50;
+
+    // Выборка по времени изменения записи (timestamp, миллисекунды эпохи Unix), по индексу:
+    // content://content_provider/new_database?from=T1&to=T2 - записи, измененные в [T1, T2);
+    // sortOrder = SORT_RECENT_FIRST - сначала новые (или SORT_OLDEST_FIRST). Следующая страница при
+    // порядке "новые сначала": to = timestamp и before = id последней записи страницы; при
+    // порядке "старые сначала": from = timestamp и after = id
+    public static final String PARAM_FROM = "from";
+    public static final String PARAM_TO = "to";
+    public static final String SORT_RECENT_FIRST = "timestamp DESC";
+    public static final String SORT_OLDEST_FIRST = "timestamp ASC";
+
+    // Адрес журнала изменений: content://content_provider/new_database/changes?since=N
+    // Возвращает изменения (seq, op, entry_id) после seq = N, см. EntryChange
+    public static final String CHANGES_PATH = "changes";
+    public static final String PARAM_SINCE = "since";
+
+    // Адрес полнотекстового поиска: content://content_provider/new_database/search?q=слова&limit=50
+    // Возвращает найденные записи (id, snippet, rank) по убыванию релевантности, см. EntryFts
+    public static final String SEARCH_PATH = "search";
+    public static final String PARAM_QUERY = "q";
+
+    // Адрес метрик операций базы данных: content://content_provider/new_database/metrics?reset=1
+    // Возвращает по строке на каждую фазу каждой операции (ожидание в очереди, выполнение,
+    // конвертация) и на каждую очередь, см. OperationMetrics. reset=1 обнуляет метрики после снимка
+    public static final String METRICS_PATH = "metrics";
+    public static final String PARAM_RESET = "reset";
+
+    // Метод call(): счетчики попаданий и промахов кэша чтений DatabaseManager (см. EntryCache)
+    public static final String METHOD_CACHE_STATS = "cache_stats";
+
+    // Поддерживаемые условия пакетного удаления для адреса всей таблицы. Произвольный SQL из
+    // selection мы не выполняем (provider экспортирован), а распознаем только эти два шаблона:
+    // "id IN (?, ?, ...)" (см. selectionIdIn) и "id BETWEEN ? AND ?"
+    public static final String SELECTION_ID_BETWEEN = "id BETWEEN ? AND ?";
+    private static final Pattern ID_IN_PATTERN =
+            Pattern.compile("^\\s*id\\s+IN\\s*\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)\\s*$",
+                    Pattern.CASE_INSENSITIVE);
+    private static final Pattern ID_BETWEEN_PATTERN =
+            Pattern.compile("^\\s*id\\s+BETWEEN\\s+\\?\\s+AND\\s+\\?\\s*$",
+                    Pattern.CASE_INSENSITIVE);
+
     private static final int ENTRIES = 100;
     private static final int ENTRY_ID = 101;
+    private static final int CHANGES = 102;
+    private static final int SEARCH = 103;
+    private static final int METRICS = 104;
 
     private static final UriMatcher uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
     static {
         uriMatcher.addURI(AUTHORITY, ENTRIES_TABLE, ENTRIES);
         uriMatcher.addURI(AUTHORITY, ENTRIES_TABLE + "/#", ENTRY_ID);
+        uriMatcher.addURI(AUTHORITY, ENTRIES_TABLE + "/" + CHANGES_PATH, CHANGES);
+        uriMatcher.addURI(AUTHORITY, ENTRIES_TABLE + "/" + SEARCH_PATH, SEARCH);
+        uriMatcher.addURI(AUTHORITY, ENTRIES_TABLE + "/" + METRICS_PATH, METRICS);
     }
 
     private DatabaseManager mDatabase;
@@ -36,14 +101,21 @@ public class MyContentProvider extends ContentProvider {
     }
 
     /**
-     * Метод получения всех элементов базы в виде объекта Cursor. Реализация: Тип возвращаемого значения
-     * метода DAO - Cursor. Реализация в DatabaseManager - получаем cursor, конвертируем в List<Entry>
-     * и на отрисовку в RecyclerView отправляется уже список элементов. Но здесь светит Cursor
-     * @param uri фактически, это адрес всей таблицы
-     * @param projection не реализовано здесь
+     * Метод получения элементов базы в виде объекта Cursor. Реализация: Тип возвращаемого значения
+     * метода DAO - Cursor. Если в адресе нет параметров страницы, возвращаем всю таблицу, как и
+     * раньше. Если есть (after / before / limit) - возвращаем одну страницу, найденную по ключу id.
+     * Для адреса записи (ENTRY_ID) возвращаем одну запись - из кэша записей, если она там есть.
+     * Для адреса журнала изменений возвращаем изменения после seq = since, для адреса поиска -
+     * найденные записи по убыванию релевантности, для адреса метрик - снимок метрик операций
+     * @param uri фактически, это адрес всей таблицы (возможно, с параметрами страницы), журнала,
+     *            поиска или метрик
+     * @param projection столбцы таблицы записей, которые нужно вернуть (null - все столбцы). Для
+     *                   списка достаточно id, title и preview - полный текст тогда не читается.
+     *                   Для журнала изменений и поиска не используется
      * @param selection не реализовано здесь
      * @param selectionArgs не реализовано здесь
-     * @param sortOrder не реализовано здесь
+     * @param sortOrder для адреса всей таблицы: SORT_RECENT_FIRST или SORT_OLDEST_FIRST (выборка
+     *                  по времени изменения, см. PARAM_FROM)
      * @return объект Cursor на список найденных значений
      */
     @Override
@@ -52,7 +124,34 @@ public class MyContentProvider extends ContentProvider {
         int uriType = uriMatcher.match(uri);
         Cursor cursor;
         if (uriType == ENTRIES) {
-            cursor = mDatabase.readEntriesAll();
+            String after = uri.getQueryParameter(PARAM_AFTER);
+            String before = uri.getQueryParameter(PARAM_BEFORE);
+            String limit = uri.getQueryParameter(PARAM_LIMIT);
+
+            String from = uri.getQueryParameter(PARAM_FROM);
+            String to = uri.getQueryParameter(PARAM_TO);
+            boolean isByTime = from != null || to != null || sortOrder != null && !sortOrder.isEmpty();
+
+            if (isByTime) cursor = queryByTime(uri, projection, sortOrder);
+            else if (after == null && before == null && limit == null) cursor = mDatabase.readEntriesAll(projection);
+            else if (before != null) {
+                cursor = mDatabase.readEntriesBefore(projection, parseIntParam(uri, before),
+                        parsePageSize(uri, limit));
+            } else {
+                int afterId = (after == null) ? 0 : parseIntParam(uri, after);
+                cursor = mDatabase.readEntriesAfter(projection, afterId, parsePageSize(uri, limit));
+            }
+        } else if (uriType == ENTRY_ID) {
+            cursor = mDatabase.readEntry(projection, parseIntParam(uri, uri.getLastPathSegment()));
+        } else if (uriType == CHANGES) {
+            String since = uri.getQueryParameter(PARAM_SINCE);
+            cursor = mDatabase.readChangesSince(since == null ? 0 : parseLongParam(uri, since));
+        } else if (uriType == SEARCH) {
+            cursor = mDatabase.search(uri.getQueryParameter(PARAM_QUERY),
+                    parsePageSize(uri, uri.getQueryParameter(PARAM_LIMIT)));
+        } else if (uriType == METRICS) {
+            // Метрики не связаны с данными - наблюдатель им не нужен
+            return mDatabase.readMetrics("1".equals(uri.getQueryParameter(PARAM_RESET)));
         }
         else throw new UnsupportedOperationException("Illegal URI(" + uri + ")");
 
@@ -60,9 +159,92 @@ public class MyContentProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Метод выборки записей по времени изменения (параметры from, to, after, before, limit). Без
+     * limit возвращаются все записи периода
+     * @param uri адрес всей таблицы с параметрами
+     * @param projection запрошенные столбцы
+     * @param sortOrder SORT_RECENT_FIRST, SORT_OLDEST_FIRST или null (по возрастанию времени)
+     * @return объект Cursor с записями
+     */
+    private Cursor queryByTime(Uri uri, String[] projection, String sortOrder) {
+        boolean isRecentFirst;
+        if (sortOrder == null || sortOrder.isEmpty() || SORT_OLDEST_FIRST.equalsIgnoreCase(sortOrder.trim())) {
+            isRecentFirst = false;
+        } else if (SORT_RECENT_FIRST.equalsIgnoreCase(sortOrder.trim())) {
+            isRecentFirst = true;
+        } else throw new IllegalArgumentException("Unsupported sort order \"" + sortOrder + "\"");
+
+        String from = uri.getQueryParameter(PARAM_FROM);
+        String to = uri.getQueryParameter(PARAM_TO);
+        String after = uri.getQueryParameter(PARAM_AFTER);
+        String before = uri.getQueryParameter(PARAM_BEFORE);
+        String limit = uri.getQueryParameter(PARAM_LIMIT);
+        return mDatabase.readEntriesByTime(projection,
+                from == null ? Long.MIN_VALUE : parseLongParam(uri, from),
+                to == null ? Long.MAX_VALUE : parseLongParam(uri, to),
+                after == null ? null : parseIntParam(uri, after),
+                before == null ? null : parseIntParam(uri, before),
+                isRecentFirst,
+                limit == null ? -1 : parsePageSize(uri, limit));
+    }
+
+    /**
+     * Метод получения счетчиков кэша чтений (METHOD_CACHE_STATS)
+     * @param method имя метода
+     * @param arg не используется
+     * @param extras не используется
+     * @return счетчики попаданий и промахов кэша
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (METHOD_CACHE_STATS.equals(method)) return mDatabase.getCacheStats();
+        throw new UnsupportedOperationException("Unknown method " + method);
+    }
+
+    /**
+     * Система сообщает о нехватке памяти - уменьшаем кэш чтений
+     * @param level уровень нехватки памяти
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mDatabase.onTrimMemory(level);
+    }
+
+    /**
+     * Метод разбора размера страницы. Если параметр не задан - используем размер по умолчанию
+     * @param uri адрес запроса (для сообщения об ошибке)
+     * @param limit значение параметра limit
+     * @return размер страницы
+     */
+    private static int parsePageSize(Uri uri, String limit) {
+        if (limit == null) return DEFAULT_PAGE_SIZE;
+        int pageSize = parseIntParam(uri, limit);
+        if (pageSize <= 0) throw new IllegalArgumentException("Illegal page size in URI(" + uri + ")");
+        return pageSize;
+    }
+
+    private static long parseLongParam(Uri uri, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Illegal URI parameter(" + uri + ")", ex);
+        }
+    }
+
+    private static int parseIntParam(Uri uri, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Illegal URI parameter(" + uri + ")", ex);
+        }
+    }
+
     /**
      * Метод вставки элемента базы данных на уровне ContentProvider
-     * @param uri адрес (ссылка), куда будем вставлять элемент
+     * @param uri адрес (ссылка), куда будем вставлять элемент: адрес элемента (id будет заменен
+     *            сформированным базой) или адрес всей таблицы
      * @param values данные записи (Entry), преобразованные к ContentValues через конвертер
      * @return обновленный URI, по которому теперь распологается элемент базы
      */
@@ -70,20 +252,90 @@ public class MyContentProvider extends ContentProvider {
     public Uri insert(Uri uri, ContentValues values) {
         int uriType = uriMatcher.match(uri);
         long id;
-        if (uriType == ENTRY_ID) {
+        if (uriType == ENTRY_ID || uriType == ENTRIES) {
             id = mDatabase.insertEntry(ConvertUtils.convertValuesToEntry(values));
             Log.d(TAG, "insert: id = " + id);
         } else throw new UnsupportedOperationException("Illegal URI(" + uri + ")");
 
-        getContext().getContentResolver().notifyChange(uri, null);
-
         return Uri.parse(CONTENT_URI + "/" + id);
     }
 
     /**
-     * Метод обновления элемента базы данных на уровне ContentProvider
+     * Метод пакетной вставки элементов. По умолчанию ContentProvider вызывает insert для каждого
+     * элемента, то есть каждая запись - отдельная транзакция и отдельное уведомление. Здесь весь
+     * пакет вставляется в одной транзакции с одним уведомлением
+     * @param uri адрес всей таблицы
+     * @param values данные записей (Entry), преобразованные к ContentValues через конвертер
+     * @return количество добавленных элементов
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        int uriType = uriMatcher.match(uri);
+        if (uriType != ENTRIES) throw new UnsupportedOperationException("Illegal URI(" + uri + ")");
+
+        List<Entry> entries = new ArrayList<>(values.length);
+        for (ContentValues contentValues : values) {
+            entries.add(ConvertUtils.convertValuesToEntry(contentValues));
+        }
+        return mDatabase.insertEntries(entries).size();
+    }
+
+    /**
+     * Метод выполнения пакета операций (insert / update / delete) атомарно. Весь пакет выполняется
+     * в одной транзакции Room в потоке базы данных, с одним уведомлением наблюдателей в конце.
+     * Операции могут ссылаться на результаты предыдущих операций пакета (back-references), например,
+     * на id записи, добавленной ранее в этом же пакете - это обеспечивает ContentProviderOperation
+     * @param operations пакет операций
+     * @return результаты операций в том же порядке
+     * @throws OperationApplicationException если одна из операций завершилась ошибкой. В этом
+     *         случае не применяется ни одна операция пакета
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        try {
+            return mDatabase.applyBatch(() -> {
+                ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+                for (int i = 0; i < operations.size(); i++) {
+                    results[i] = operations.get(i).apply(this, results, i);
+                }
+                return results;
+            });
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+
+            // Room оборачивает проверяемые исключения транзакции в RuntimeException
+            while (cause != null && !(cause instanceof OperationApplicationException)
+                    && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof OperationApplicationException) {
+                throw (OperationApplicationException) cause;
+            }
+            throw new OperationApplicationException("Batch failed, rolled back", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new OperationApplicationException("Batch interrupted", ex);
+        }
+    }
+
+    /**
+     * Метод формирования условия "id IN (?, ?, ...)" для пакетного удаления
+     * @param count количество id в списке
+     * @return строка selection для метода delete
+     */
+    public static String selectionIdIn(int count) {
+        StringBuilder builder = new StringBuilder("id IN (");
+        for (int i = 0; i < count; i++) builder.append(i == 0 ? "?" : ", ?");
+        return builder.append(")").toString();
+    }
+
+    /**
+     * Метод обновления элемента базы данных на уровне ContentProvider. id записи берется из адреса,
+     * обновляются только столбцы, переданные в values (title, entry_text) - остальные сохраняют
+     * текущие значения. Так работает и ContentProviderOperation.newUpdate(...).withValue(...) в applyBatch
      * @param uri адрес (ссылка) изменяемого элемента
-     * @param values новые данные для изменения
+     * @param values новые данные для изменения (только изменяемые столбцы)
      * @param selection WHERE - не используется здесь (null)
      * @param selectionArgs WHERE params - не используется здесь (null)
      * @return количество заменнеых элементов
@@ -94,20 +346,21 @@ public class MyContentProvider extends ContentProvider {
         int uriType = uriMatcher.match(uri);
         int rowsUpdated;
         if (uriType == ENTRY_ID) {
-            rowsUpdated = mDatabase.updateEntry(ConvertUtils.convertValuesToEntry(values));
+            int id = parseIntParam(uri, uri.getLastPathSegment());
+            rowsUpdated = mDatabase.patchEntry(id, entry -> ConvertUtils.applyValuesToEntry(values, entry));
         }
         else throw new UnsupportedOperationException("Illegal URI(" + uri + ")");
 
-        getContext().getContentResolver().notifyChange(uri, null);
-
         return rowsUpdated;
     }
 
     /**
-     * Метод удаления элемента из базы данных на уровне ContentProvider
-     * @param uri адрес (ссылка) элемента, который необходимо удалить
-     * @param selection WHERE - реализовано на уровне Data Access Object
-     * @param selectionArgs WHERE params - аргументы выбора не реализованы здесь
+     * Метод удаления элементов из базы данных на уровне ContentProvider. Для адреса элемента
+     * удаляем одну запись по id. Для адреса всей таблицы - множество записей одним запросом по
+     * условию "id IN (?, ?, ...)" или "id BETWEEN ? AND ?"
+     * @param uri адрес (ссылка) элемента или всей таблицы
+     * @param selection WHERE - для адреса таблицы, один из поддерживаемых шаблонов
+     * @param selectionArgs WHERE params - значения id
      * @return количество удаленных элементов
      */
     @Override
@@ -120,15 +373,40 @@ public class MyContentProvider extends ContentProvider {
             //Log.d(TAG, "delete: ID = " + id);
             rowsDeleted = mDatabase.deleteEntryById(id);
             //Log.d(TAG, "delete: Rows Deleted = " + rowsDeleted);
+        } else if (uriType == ENTRIES) {
+            rowsDeleted = deleteBySelection(uri, selection, selectionArgs);
         }
         else throw new UnsupportedOperationException("Illegal URI(" + uri + ")");
 
         Log.d(TAG, "delete: URI = " + uri);
-        getContext().getContentResolver().notifyChange(uri, null);
 
         return rowsDeleted;
     }
 
+    /**
+     * Метод пакетного удаления по одному из поддерживаемых условий
+     * @param uri адрес всей таблицы (для сообщения об ошибке)
+     * @param selection условие удаления
+     * @param selectionArgs значения id
+     * @return количество удаленных элементов
+     */
+    private int deleteBySelection(Uri uri, String selection, String[] selectionArgs) {
+        if (selection == null || selectionArgs == null) {
+            throw new IllegalArgumentException("Selection is required to delete from URI(" + uri + ")");
+        }
+
+        if (ID_IN_PATTERN.matcher(selection).matches()
+                && selection.chars().filter(c -> c == '?').count() == selectionArgs.length) {
+            List<Integer> ids = new ArrayList<>(selectionArgs.length);
+            for (String arg : selectionArgs) ids.add(parseIntParam(uri, arg));
+            return mDatabase.deleteEntriesByIds(ids);
+        } else if (ID_BETWEEN_PATTERN.matcher(selection).matches() && selectionArgs.length == 2) {
+            return mDatabase.deleteEntriesInRange(parseIntParam(uri, selectionArgs[0]),
+                    parseIntParam(uri, selectionArgs[1]));
+        }
+        throw new IllegalArgumentException("Unsupported selection \"" + selection + "\" for URI(" + uri + ")");
+    }
+
     @Override
     public String getType(Uri uri) {
         // TODO: Implement this to handle requests for the MIME type of the data
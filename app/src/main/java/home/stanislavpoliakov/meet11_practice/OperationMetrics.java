@@ -0,0 +1,225 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Метрики операций DatabaseManager. Для каждой операции (readEntriesAfter, insertEntry, ...) время
+ * раскладывается на фазы:
+ * queue - ожидание в очереди потока (от вызова метода до начала выполнения; для одиночных
+ * записей сюда входит и окно группового коммита),
+ * execute - выполнение в потоке базы данных или чтения (SQLite, файлы, кэш),
+ * convert - преобразование Cursor -> List<Entry>, если оно выполняется отдельным шагом.
+ * Отдельно: deliver - переход результата в UI-Thread (от отправки в Handler до выполнения), и
+ * по каждой очереди (read / write и класс приоритета, например write.bulk): длина в момент
+ * постановки задачи (depth, в столбце errors - количество отказов очереди) и ожидание в ней
+ * (wait) по всем операциям класса. И время до первого кадра списка при
+ * запуске (first_frame): по снимку первого экрана (snapshot) и по данным базы (database), а также
+ * время создания DatabaseManager при старте процесса (startup.create). Открытие базы - операция
+ * open: ожидание (queue) и выполнение (execute) в потоке базы данных.
+ *
+ * Время хранится в Histogram в микросекундах. Снимок отдается ContentProvider (адрес metrics)
+ */
+public class OperationMetrics {
+    // Очереди задач DatabaseManager: потоки чтения и единственный поток записи. У каждой - свой
+    // класс приоритета (см. queueName)
+    public static final String READ_QUEUE = "read";
+    public static final String WRITE_QUEUE = "write";
+
+    // Фазы операции
+    public static final String QUEUE = "queue";
+    public static final String EXECUTE = "execute";
+    public static final String CONVERT = "convert";
+    public static final String DELIVER = "deliver";
+    public static final String DEPTH = "depth";
+    public static final String WAIT = "wait";
+
+    // Столбцы снимка. Время - в микросекундах, длина очереди - в задачах
+    public static final String[] COLUMNS =
+            {"name", "count", "errors", "mean", "p50", "p90", "p99", "p999", "max"};
+
+    private static final String MAIN_THREAD = "main_thread";
+    private static final String FIRST_FRAME = "first_frame";
+    private static final String STARTUP = "startup";
+
+    private final ConcurrentMap<String, Operation> operations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Queue> queues = new ConcurrentHashMap<>();
+
+    /**
+     * Гистограммы фаз одной операции и количество ошибок
+     */
+    private static class Operation {
+        private final ConcurrentMap<String, Histogram> phases = new ConcurrentHashMap<>();
+        private final LongAdder errors = new LongAdder();
+
+        private Histogram phase(String phase) {
+            Histogram histogram = phases.get(phase);
+            return (histogram != null) ? histogram : phases.computeIfAbsent(phase, name -> new Histogram());
+        }
+    }
+
+    /**
+     * Текущая длина очереди, гистограммы длины в момент постановки задачи и ожидания в очереди,
+     * количество отказов
+     */
+    private static class Queue {
+        private final AtomicInteger depth = new AtomicInteger();
+        private final Histogram depths = new Histogram();
+        private final Histogram waits = new Histogram();
+        private final LongAdder rejected = new LongAdder();
+    }
+
+    /**
+     * @param queue очередь (READ_QUEUE, WRITE_QUEUE)
+     * @param priority класс приоритета
+     * @return имя очереди класса, например "write.bulk"
+     */
+    public static String queueName(String queue, PriorityScheduler.Priority priority) {
+        return queue + "." + priority.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Метод обертки задачи. Вызывается в момент постановки задачи в очередь: отсюда отсчитывается
+     * ожидание в очереди. Ошибка задачи учитывается и передается дальше
+     * @param operation имя операции
+     * @param queue очередь, в которую ставится задача (см. queueName)
+     * @param task задача
+     * @return задача, которая при выполнении записывает ожидание и время выполнения
+     */
+    public <T> Supplier<T> measure(String operation, String queue, Supplier<T> task) {
+        Operation stats = operation(operation);
+        Queue tasks = queue(queue);
+        tasks.depths.record(tasks.depth.incrementAndGet());
+        long enqueued = System.nanoTime();
+
+        return () -> {
+            long started = System.nanoTime();
+            tasks.depth.decrementAndGet();
+            long waited = toMicros(started - enqueued);
+            stats.phase(QUEUE).record(waited);
+            tasks.waits.record(waited);
+            try {
+                return task.get();
+            } catch (RuntimeException | Error ex) {
+                stats.errors.increment();
+                throw ex;
+            } finally {
+                stats.phase(EXECUTE).record(toMicros(System.nanoTime() - started));
+            }
+        };
+    }
+
+    /**
+     * Метод учета отказа очереди: задача, обернутая measure, не была поставлена в очередь
+     * @param queue очередь (см. queueName)
+     */
+    public void recordRejected(String queue) {
+        Queue tasks = queue(queue);
+        tasks.depth.decrementAndGet();
+        tasks.rejected.increment();
+    }
+
+    /**
+     * Метод обертки преобразования результата (фаза convert)
+     * @param operation имя операции
+     * @param convert преобразование
+     * @return преобразование, которое записывает свое время
+     */
+    public <T, R> Function<T, R> measureConvert(String operation, Function<T, R> convert) {
+        Histogram histogram = operation(operation).phase(CONVERT);
+        return value -> {
+            long started = System.nanoTime();
+            try {
+                return convert.apply(value);
+            } finally {
+                histogram.record(toMicros(System.nanoTime() - started));
+            }
+        };
+    }
+
+    /**
+     * Метод записи времени перехода в UI-Thread
+     * @param nanos время от отправки в Handler до выполнения, в наносекундах
+     */
+    public void recordDelivery(long nanos) {
+        operation(MAIN_THREAD).phase(DELIVER).record(toMicros(nanos));
+    }
+
+    /**
+     * Метод записи времени до первого кадра списка
+     * @param source источник данных кадра ("snapshot", "database")
+     * @param nanos время от создания Activity до кадра, в наносекундах
+     */
+    public void recordFirstFrame(String source, long nanos) {
+        operation(FIRST_FRAME).phase(source).record(toMicros(nanos));
+    }
+
+    /**
+     * Метод записи времени шага запуска, выполняемого в вызывающем потоке
+     * @param step шаг запуска ("create")
+     * @param nanos время шага, в наносекундах
+     */
+    public void recordStartup(String step, long nanos) {
+        operation(STARTUP).phase(step).record(toMicros(nanos));
+    }
+
+    /**
+     * Метод получения снимка метрик. Строка на каждую фазу операции ("readEntriesAfter.queue") и на
+     * каждую очередь ("queue.read.interactive.depth", "queue.read.interactive.wait"), по имени
+     * @param reset обнулить метрики после снимка (для периодического сбора)
+     * @return объект Cursor со столбцами COLUMNS
+     */
+    public Cursor snapshot(boolean reset) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        Map<String, Operation> sortedOperations = new TreeMap<>(operations);
+        for (Map.Entry<String, Operation> operation : sortedOperations.entrySet()) {
+            Operation stats = operation.getValue();
+            long errors = reset ? stats.errors.sumThenReset() : stats.errors.sum();
+            for (Map.Entry<String, Histogram> phase : new TreeMap<>(stats.phases).entrySet()) {
+                cursor.addRow(row(operation.getKey() + "." + phase.getKey(), phase.getValue(),
+                        EXECUTE.equals(phase.getKey()) ? errors : 0, reset));
+            }
+        }
+        for (Map.Entry<String, Queue> queue : new TreeMap<>(queues).entrySet()) {
+            Queue tasks = queue.getValue();
+            long rejected = reset ? tasks.rejected.sumThenReset() : tasks.rejected.sum();
+            cursor.addRow(row("queue." + queue.getKey() + "." + DEPTH, tasks.depths, rejected, reset));
+            cursor.addRow(row("queue." + queue.getKey() + "." + WAIT, tasks.waits, 0, reset));
+        }
+        return cursor;
+    }
+
+    private static Object[] row(String name, Histogram histogram, long errors, boolean reset) {
+        Object[] row = {name, histogram.getCount(), errors, Math.round(histogram.getMean()),
+                histogram.getPercentile(50), histogram.getPercentile(90),
+                histogram.getPercentile(99), histogram.getPercentile(99.9), histogram.getMax()};
+        if (reset) histogram.reset();
+        return row;
+    }
+
+    // Сначала get: computeIfAbsent блокирует ячейку таблицы даже для существующего ключа, а
+    // операции и очереди создаются только при первом обращении
+    private Operation operation(String name) {
+        Operation operation = operations.get(name);
+        return (operation != null) ? operation : operations.computeIfAbsent(name, key -> new Operation());
+    }
+
+    private Queue queue(String name) {
+        Queue queue = queues.get(name);
+        return (queue != null) ? queue : queues.computeIfAbsent(name, key -> new Queue());
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
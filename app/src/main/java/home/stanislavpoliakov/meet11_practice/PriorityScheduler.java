@@ -0,0 +1,324 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.os.Looper;
+import android.util.Log;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Пул потоков с классами приоритета и ограниченными очередями. Заменяет в DatabaseManager
+ * обычные Executors (одна неограниченная FIFO-очередь), в которых массовая задача (импорт,
+ * экспорт, фоновое заполнение) могла встать перед чтением или записью, которых ждет пользователь.
+ *
+ * У каждого класса (Priority) своя очередь. Свободный поток берет задачу из очереди самого
+ * высокого класса, но после FAIRNESS задач подряд, выполненных в обход ждущего низшего класса,
+ * выполняет одну его задачу - так массовые задачи замедляются, но не останавливаются совсем.
+ *
+ * Длина каждой очереди ограничена. Что делать с задачей, если очередь заполнена, задает
+ * Overflow класса: REJECT - отказать сразу (RejectedExecutionException), BLOCK - ждать места не
+ * дольше blockTimeoutMillis, затем отказать (обратное давление на источник задач). UI-Thread не
+ * ждет никогда: для него BLOCK работает как REJECT.
+ *
+ * Место в очереди можно занять заранее (reserve), а задачу поставить позже: так одиночные записи,
+ * ожидающие группового коммита, учитываются в очереди своего класса с тем же ограничением и Overflow.
+ *
+ * Отложенные задачи (schedule) ставятся в очередь по истечении задержки без учета ограничения:
+ * это внутренние задачи (окно группового коммита, пауза фонового заполнения), их нельзя терять
+ */
+public class PriorityScheduler {
+    // Классы приоритета в порядке убывания
+    public enum Priority {
+        INTERACTIVE, // чтения и записи, которых ждет пользователь (Activity)
+        PROVIDER,    // запросы клиентов ContentProvider
+        BULK         // массовые и обслуживающие задачи: импорт, экспорт, фоновое заполнение
+    }
+
+    public enum Overflow {
+        REJECT,
+        BLOCK
+    }
+
+    private static final String TAG = "meet11_logs";
+    private static final int FAIRNESS = 16;
+
+    // Общий поток таймера отложенных задач: он только ставит задачу в очередь
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "scheduler-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final int CLASSES = Priority.values().length;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Runnable>[] queues = new ArrayDeque[CLASSES];
+    private final int[] reserved = new int[CLASSES];
+    private final int[] capacities = new int[CLASSES];
+    private final Overflow[] overflows = new Overflow[CLASSES];
+    private final int[] bypassed = new int[CLASSES];
+    private volatile long blockTimeoutMillis;
+
+    private final Thread[] workers;
+    private boolean isStarted = false;
+    private boolean isShutdown = false;
+
+    /**
+     * Потоки создаются сразу, но начинают выполнять задачи только после start(). До этого
+     * задачи накапливаются в очередях (с учетом ограничений)
+     * @param threads количество потоков
+     * @param factory фабрика потоков
+     * @param capacity длина очереди каждого класса по умолчанию
+     * @param blockTimeoutMillis максимальное ожидание места в очереди для Overflow.BLOCK
+     */
+    public PriorityScheduler(int threads, ThreadFactory factory, int capacity, long blockTimeoutMillis) {
+        for (int i = 0; i < CLASSES; i++) {
+            queues[i] = new ArrayDeque<>();
+            capacities[i] = capacity;
+            overflows[i] = Overflow.REJECT;
+        }
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) workers[i] = factory.newThread(this::work);
+    }
+
+    /**
+     * Метод настройки очереди класса
+     * @param priority класс
+     * @param capacity максимальная длина очереди
+     * @param overflow поведение при заполненной очереди
+     */
+    public void configure(Priority priority, int capacity, Overflow overflow) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity = " + capacity);
+        lock.lock();
+        try {
+            capacities[priority.ordinal()] = capacity;
+            overflows[priority.ordinal()] = overflow;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setBlockTimeout(long blockTimeoutMillis) {
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    /**
+     * Метод запуска потоков. Повторный вызов ничего не делает
+     */
+    public void start() {
+        lock.lock();
+        try {
+            if (isStarted) return;
+            isStarted = true;
+        } finally {
+            lock.unlock();
+        }
+        for (Thread worker : workers) worker.start();
+    }
+
+    /**
+     * Метод постановки задачи в очередь класса
+     * @param priority класс
+     * @param task задача
+     * @throws RejectedExecutionException если очередь заполнена (и места не дождались) или пул остановлен
+     */
+    public void execute(Priority priority, Runnable task) {
+        lock.lock();
+        try {
+            awaitSpace(priority);
+            enqueue(priority.ordinal(), task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Метод резервирования места в очереди класса для задачи, которая будет поставлена позже
+     * (без учета ограничения, через schedule). Ограничение и Overflow - как у execute. Место
+     * занято до вызова release
+     * @param priority класс
+     * @throws RejectedExecutionException если очередь заполнена (и места не дождались) или пул остановлен
+     */
+    public void reserve(Priority priority) {
+        lock.lock();
+        try {
+            awaitSpace(priority);
+            if (isShutdown) throw new RejectedExecutionException("Scheduler is shut down");
+            reserved[priority.ordinal()]++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Метод освобождения мест, занятых reserve
+     * @param priority класс
+     * @param count количество мест
+     */
+    public void release(Priority priority, int count) {
+        if (count == 0) return;
+        lock.lock();
+        try {
+            reserved[priority.ordinal()] -= count;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ожидание места в очереди класса (под lock) по правилам Overflow класса
+     * @throws RejectedExecutionException если очередь заполнена и места не дождались
+     */
+    private void awaitSpace(Priority priority) {
+        int index = priority.ordinal();
+        if (size(index) < capacities[index]) return;
+        Looper mainLooper = Looper.getMainLooper();
+        boolean isBlocking = overflows[index] == Overflow.BLOCK
+                && (mainLooper == null || !mainLooper.isCurrentThread());
+        long nanos = isBlocking ? TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis) : 0;
+        try {
+            while (size(index) >= capacities[index] && !isShutdown) {
+                if (nanos <= 0) {
+                    throw new RejectedExecutionException(priority + " queue is full ("
+                            + capacities[index] + ")");
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for " + priority + " queue", ex);
+        }
+    }
+
+    /**
+     * @return длина очереди класса с учетом зарезервированных мест (под lock)
+     */
+    private int size(int index) {
+        return queues[index].size() + reserved[index];
+    }
+
+    /**
+     * @param priority класс
+     * @return Executor, который ставит задачи в очередь класса
+     */
+    public Executor executor(Priority priority) {
+        return task -> execute(priority, task);
+    }
+
+    /**
+     * Метод постановки задачи в очередь класса через заданное время. Ограничение длины очереди
+     * к отложенным задачам не применяется. Задача с нулевой задержкой ставится в очередь сразу,
+     * в потоке вызывающего
+     * @param priority класс
+     * @param task задача
+     * @param delay задержка
+     * @param unit единица измерения задержки
+     * @return ScheduledFuture, через который задачу можно отменить до постановки в очередь, или
+     * null для задачи с нулевой задержкой
+     */
+    public ScheduledFuture<?> schedule(Priority priority, Runnable task, long delay, TimeUnit unit) {
+        if (delay > 0) return TIMER.schedule(() -> schedule(priority, task, 0, unit), delay, unit);
+        lock.lock();
+        try {
+            enqueue(priority.ordinal(), task);
+        } finally {
+            lock.unlock();
+        }
+        return null;
+    }
+
+    /**
+     * @param priority класс
+     * @return количество задач в очереди класса, включая зарезервированные места
+     */
+    public int getQueueDepth(Priority priority) {
+        lock.lock();
+        try {
+            return size(priority.ordinal());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Метод остановки пула: новые задачи отклоняются, потоки завершаются после задач, которые уже
+     * стоят в очередях
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            isShutdown = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(int index, Runnable task) {
+        if (isShutdown) throw new RejectedExecutionException("Scheduler is shut down");
+        queues[index].addLast(task);
+        notEmpty.signal();
+    }
+
+    private void work() {
+        while (true) {
+            Runnable task;
+            lock.lock();
+            try {
+                while ((task = next()) == null) {
+                    if (isShutdown) return;
+                    notEmpty.awaitUninterruptibly();
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                // Задачи, поставленные через DatabaseManager.submit, сами передают ошибки в свои
+                // CompletableFuture. Ошибку "голой" задачи только пишем в лог: обработчик
+                // необработанных исключений на Android завершил бы процесс, а поток должен
+                // продолжать выполнять следующие задачи
+                Log.e(TAG, "Task failed on " + Thread.currentThread().getName(), ex);
+            }
+        }
+    }
+
+    /**
+     * Выбор следующей задачи (под lock): первая непустая очередь по убыванию приоритета, кроме
+     * случая, когда ждущий низший класс пропустил FAIRNESS задач подряд
+     */
+    private Runnable next() {
+        int chosen = -1;
+        for (int i = 0; i < CLASSES; i++) {
+            if (queues[i].isEmpty()) continue;
+            if (chosen < 0) chosen = i;
+            else if (bypassed[i] >= FAIRNESS) {
+                chosen = i;
+                break;
+            }
+        }
+        if (chosen < 0) return null;
+        for (int i = chosen + 1; i < CLASSES; i++) {
+            if (!queues[i].isEmpty()) bypassed[i]++;
+        }
+        bypassed[chosen] = 0;
+        return queues[chosen].pollFirst();
+    }
+}
@@ -0,0 +1,131 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH: стоимость сжатия текста записи (запись) и распаковки (чтение) по сравнению с хранением как
+ * есть (кодирование и декодирование UTF-8), без словаря и с обученным словарем. Степень сжатия
+ * (размер сжатого / размер UTF-8) - дополнительная метрика writeCompressed (compressionRatio в
+ * secondaryMetrics JSON JMH): она не зависит от времени, поэтому не усредняется по операциям
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressionBenchmark {
+    // id словаря бенчмарка: не пересекается с id словарей базы (они выдаются с 1)
+    private static final int DICTIONARY_ID = 0xFFFF;
+
+    // Словарь заметок: частота слова убывает с его номером, как в обычном тексте
+    private static final int VOCABULARY = 2000;
+    private static final String[] SYLLABLES = {"ка", "ро", "ти", "на", "ле", "мо", "ст", "ви", "за",
+            "пе", "ду", "ль", "ша", "гу", "ем", "ок"};
+
+    @State(Scope.Benchmark)
+    public static class TextState {
+        @Param({"1200", "4000", "16000"})
+        public int textLength;
+
+        @Param({"none", "trained"})
+        public String dictionary;
+
+        private String text;
+        private byte[] raw;
+        private byte[] compressed;
+        private int dictionaryId;
+
+        @Setup
+        public void setUp() {
+            Random random = new Random(42);
+            if ("trained".equals(dictionary)) {
+                List<String> samples = new ArrayList<>();
+                for (int i = 0; i < 200; i++) samples.add(notes(random, 2000));
+                EntryCompression.register(DICTIONARY_ID,
+                        EntryCompression.train(samples, EntryCompression.MAX_DICTIONARY_SIZE));
+                dictionaryId = DICTIONARY_ID;
+            }
+            text = notes(random, textLength);
+            raw = text.getBytes(StandardCharsets.UTF_8);
+            compressed = EntryCompression.compress(text, dictionaryId);
+        }
+    }
+
+    /**
+     * Степень сжатия текста набора параметров. EVENTS: JMH отдает значение поля как есть, без
+     * деления на количество операций. Поле выставляется заново в начале каждой итерации
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RatioCounter {
+        public double compressionRatio;
+
+        @Setup(Level.Iteration)
+        public void setUp(TextState state) {
+            compressionRatio = (double) state.compressed.length / state.raw.length;
+        }
+    }
+
+    @Benchmark
+    public byte[] writeRaw(TextState state) {
+        return state.text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] writeCompressed(TextState state, RatioCounter ratio) {
+        return EntryCompression.compress(state.text, state.dictionaryId);
+    }
+
+    @Benchmark
+    public String readRaw(TextState state) {
+        return new String(state.raw, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String readCompressed(TextState state) {
+        return EntryCompression.decompress(state.compressed);
+    }
+
+    /**
+     * @return текст заданной длины из предложений по 5-15 слов
+     */
+    static String notes(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            int words = 5 + random.nextInt(11);
+            for (int i = 0; i < words; i++) {
+                if (i > 0) text.append(' ');
+                // Квадрат равномерного числа смещает выбор к началу словаря
+                double x = random.nextDouble();
+                text.append(word((int) (x * x * VOCABULARY)));
+            }
+            text.append(". ");
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+
+    /**
+     * @return слово из слогов: номер слова, записанный в системе счисления по числу слогов
+     */
+    private static String word(int index) {
+        StringBuilder word = new StringBuilder();
+        do {
+            word.append(SYLLABLES[index % SYLLABLES.length]);
+            index /= SYLLABLES.length;
+        } while (index > 0);
+        return word.toString();
+    }
+}
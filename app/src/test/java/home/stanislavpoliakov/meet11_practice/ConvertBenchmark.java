@@ -0,0 +1,122 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MatrixCursor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH: преобразования ConvertUtils. Cursor -> List<Entry> на разном количестве строк и для двух
+ * наборов столбцов (как читает список: id, title, preview; и SELECT * для провайдера), а также
+ * ContentValues <-> Entry для одной записи (insert / update через провайдер)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConvertBenchmark {
+    private static final String[] PREVIEW_COLUMNS = {"id", "title", "preview"};
+
+    /**
+     * Одна запись (и она же в виде ContentValues)
+     */
+    @State(Scope.Benchmark)
+    public static class EntryState {
+        @Param({"100", "4000"})
+        public int textLength;
+
+        private ContentValues values;
+        private Entry entry;
+
+        @Setup
+        public void setUp() {
+            entry = new Entry("Title", text(new Random(42), textLength), 1);
+            values = ConvertUtils.convertEntryToValues(entry);
+        }
+    }
+
+    /**
+     * Курсор со страницей записей. Параметры курсора - в отдельном состоянии, чтобы не умножать на
+     * них измерения одной записи
+     */
+    @State(Scope.Benchmark)
+    public static class CursorState {
+        @Param({"16", "256", "4096"})
+        public int rows;
+
+        @Param({"preview", "full"})
+        public String columns;
+
+        @Param({"100", "4000"})
+        public int textLength;
+
+        private Cursor cursor;
+
+        @Setup
+        public void setUp() {
+            Random random = new Random(42);
+            String[] names = "full".equals(columns) ? ConvertUtils.ENTRY_COLUMNS : PREVIEW_COLUMNS;
+            MatrixCursor matrix = new MatrixCursor(names, rows);
+            for (int id = 1; id <= rows; id++) {
+                Entry row = new Entry("Title " + id, text(random, textLength), id);
+                matrix.addRow(ConvertUtils.convertEntryToRow(row, names));
+            }
+            cursor = new ReusableCursor(matrix);
+        }
+    }
+
+    /**
+     * Курсор, который можно читать много раз: convertCursorToEntryList закрывает курсор, а
+     * пересоздание MatrixCursor на каждый вызов вошло бы в измерение
+     */
+    private static class ReusableCursor extends CursorWrapper {
+        private ReusableCursor(Cursor cursor) {
+            super(cursor);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Benchmark
+    public List<Entry> cursorToEntryList(CursorState state) {
+        state.cursor.moveToPosition(-1);
+        return ConvertUtils.convertCursorToEntryList(state.cursor);
+    }
+
+    @Benchmark
+    public Entry valuesToEntry(EntryState state) {
+        return ConvertUtils.convertValuesToEntry(state.values);
+    }
+
+    @Benchmark
+    public ContentValues entryToValues(EntryState state) {
+        return ConvertUtils.convertEntryToValues(state.entry);
+    }
+
+    /**
+     * @return случайный текст из слов от 2 до 9 букв заданной длины
+     */
+    static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            if (text.length() > 0) text.append(' ');
+            int wordLength = 2 + random.nextInt(8);
+            for (int i = 0; i < wordLength; i++) text.append((char) ('a' + random.nextInt(26)));
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH: полный путь записи и чтения через асинхронное API DatabaseManager (очередь записи,
+ * групповой коммит, Room, SQLite под Robolectric, триггеры журнала изменений, индекс FTS, кэш чтений).
+ * Каждая операция ждет своего CompletableFuture, то есть измеряется время отклика одного клиента.
+ *
+ * Таблица заранее заполняется rows записями, чтобы индексы и журнал были не пустыми
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DatabaseBenchmark {
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"1000"})
+    public int rows;
+
+    private DatabaseManager manager;
+    private final List<Integer> ids = new ArrayList<>();
+    private final Random random = new Random(42);
+
+    /**
+     * Окно группового коммита. Одиночный клиент с окном > 0 всегда ждет окно целиком - это и
+     * показывает сравнение с окном 0
+     */
+    @State(Scope.Benchmark)
+    public static class GroupCommit {
+        @Param({"0", "5"})
+        public long windowMillis;
+
+        @Setup
+        public void setUp(DatabaseBenchmark benchmark) {
+            benchmark.manager.setGroupCommit(windowMillis, 64);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        // DatabaseManager создается и открывает базу заранее (см. JvmBenchmarks), здесь
+        // возвращается уже созданный экземпляр
+        manager = DatabaseManager.getInstance(RuntimeEnvironment.application);
+        List<Entry> entries = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            entries.add(new Entry("Title " + i, ConvertBenchmark.text(random, 200)));
+        }
+        for (Long id : manager.insertEntriesAsync(entries).join()) ids.add(id.intValue());
+    }
+
+    @TearDown
+    public void tearDown() {
+        manager.deleteEntriesByIdsAsync(ids).join();
+        ids.clear();
+    }
+
+    /**
+     * Вставка, чтение, изменение и удаление одной записи
+     */
+    @Benchmark
+    public int roundTrip(GroupCommit groupCommit) {
+        int id = manager.insertEntryAsync(new Entry("Title", "Text")).join().intValue();
+        Entry entry = manager.readEntryAsync(id).join();
+        manager.updateEntryAsync(new Entry(entry.getTitle(), "Updated text", id)).join();
+        return manager.deleteEntryByIdAsync(id).join();
+    }
+
+    /**
+     * Чтение страницы списка со случайного места (как при прокрутке)
+     */
+    @Benchmark
+    public List<Entry> readPage() {
+        int afterId = ids.get(random.nextInt(ids.size() - PAGE_SIZE));
+        return manager.readEntriesAfterAsync(afterId, PAGE_SIZE).join();
+    }
+}
@@ -0,0 +1,58 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Проверка открытия базы: одновременные вызовы getInstance из разных потоков получают один
+ * экземпляр, а чтение, запрошенное сразу после создания, дожидается открытия базы
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class DatabaseManagerOpenTest {
+    private static final int THREADS = 8;
+
+    @Test
+    public void concurrentGetInstanceReturnsSingleInstance() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            Future<?>[] results = new Future<?>[THREADS];
+            for (int i = 0; i < THREADS; i++) {
+                results[i] = threads.submit(() -> {
+                    start.await();
+                    return DatabaseManager.getInstance(RuntimeEnvironment.application);
+                });
+            }
+            start.countDown();
+
+            Object first = results[0].get(10, TimeUnit.SECONDS);
+            for (Future<?> result : results) assertSame(first, result.get(10, TimeUnit.SECONDS));
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void readWaitsForOpen() throws Exception {
+        DatabaseManager manager = DatabaseManager.getInstance(RuntimeEnvironment.application);
+        CompletableFuture<List<Entry>> page = manager.readEntriesAfterAsync(0, 10);
+
+        assertNotNull(page.get(10, TimeUnit.SECONDS));
+        assertTrue(manager.whenOpened().isDone());
+        assertFalse(manager.whenOpened().isCompletedExceptionally());
+    }
+}
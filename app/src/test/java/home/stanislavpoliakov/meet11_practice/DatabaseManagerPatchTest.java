@@ -0,0 +1,39 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Проверка частичного обновления записи (update ContentProvider): меняются только переданные
+ * поля, остальные сохраняют значения из базы; обновление отсутствующей записи ничего не меняет
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class DatabaseManagerPatchTest {
+
+    @Test
+    public void patchKeepsOtherFields() throws Exception {
+        DatabaseManager manager = DatabaseManager.getInstance(RuntimeEnvironment.application);
+        int id = (int) manager.insertEntry(new Entry("title", "body"));
+
+        assertEquals(1, manager.patchEntry(id, entry -> entry.setTitle("renamed")));
+
+        Entry entry = manager.readEntryAsync(id).get(10, TimeUnit.SECONDS);
+        assertEquals("renamed", entry.getTitle());
+        assertEquals("body", entry.getText());
+        assertTrue(entry.getTimeStamp() > 0);
+    }
+
+    @Test
+    public void missingEntryIsNotPatched() {
+        DatabaseManager manager = DatabaseManager.getInstance(RuntimeEnvironment.application);
+        assertEquals(0, manager.patchEntry(Integer.MAX_VALUE, entry -> entry.setTitle("renamed")));
+    }
+}
@@ -0,0 +1,104 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import home.stanislavpoliakov.meet11_practice.PriorityScheduler.Overflow;
+import home.stanislavpoliakov.meet11_practice.PriorityScheduler.Priority;
+
+import static org.junit.Assert.*;
+
+/**
+ * Проверка ограничения очереди записи для одиночных записей ContentProvider: записи, ждущие
+ * группового коммита, занимают места в очереди класса PROVIDER, и при заполненной очереди
+ * следующая запись получает отказ (REJECT) или ждет коммита группы (BLOCK). Окно группового
+ * коммита на время теста увеличено, чтобы группа не выполнилась сама
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class DatabaseManagerQueueTest {
+    private static final int LIMIT = 2;
+
+    private final ExecutorService clients = Executors.newFixedThreadPool(LIMIT + 1);
+    private DatabaseManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = DatabaseManager.getInstance(RuntimeEnvironment.application);
+        manager.whenOpened().get(10, TimeUnit.SECONDS);
+        manager.setGroupCommit(60_000, 1000);
+    }
+
+    @After
+    public void tearDown() {
+        manager.setGroupCommit(DatabaseManager.GROUP_COMMIT_WINDOW_MS, DatabaseManager.GROUP_COMMIT_MAX_BATCH);
+        manager.setQueueLimit(Priority.PROVIDER, DatabaseManager.PROVIDER_QUEUE_LIMIT, Overflow.BLOCK);
+        clients.shutdownNow();
+    }
+
+    @Test
+    public void writeIsRejectedWhenProviderQueueIsFull() throws Exception {
+        manager.setQueueLimit(Priority.PROVIDER, LIMIT, Overflow.REJECT);
+        List<Future<Long>> pending = fill();
+
+        // Блокирующие адаптеры возвращают 0, если операция завершилась ошибкой (отказом очереди)
+        assertEquals(0L, manager.insertEntry(new Entry("rejected", "text")));
+        assertEquals(LIMIT, manager.getQueueDepth(Priority.PROVIDER)[1]);
+
+        flush();
+        for (Future<Long> id : pending) assertTrue(id.get(10, TimeUnit.SECONDS) > 0);
+    }
+
+    @Test
+    public void writeWaitsWhenProviderQueueIsFull() throws Exception {
+        manager.setQueueLimit(Priority.PROVIDER, LIMIT, Overflow.BLOCK);
+        List<Future<Long>> pending = fill();
+
+        Future<Long> blocked = clients.submit(() -> manager.insertEntry(new Entry("blocked", "text")));
+        Thread.sleep(100);
+        assertFalse(blocked.isDone());
+
+        flush();
+        for (Future<Long> id : pending) assertTrue(id.get(10, TimeUnit.SECONDS) > 0);
+        assertTrue(blocked.get(10, TimeUnit.SECONDS) > 0);
+    }
+
+    /**
+     * Метод заполнения очереди PROVIDER одиночными записями, ждущими коммита группы
+     * @return результаты записей (id)
+     */
+    private List<Future<Long>> fill() throws Exception {
+        List<Future<Long>> ids = new ArrayList<>();
+        for (int i = 0; i < LIMIT; i++) {
+            ids.add(clients.submit(() -> manager.insertEntry(new Entry("pending", "text"))));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (manager.getQueueDepth(Priority.PROVIDER)[1] < LIMIT) {
+            assertTrue("Writes are not queued", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        return ids;
+    }
+
+    /**
+     * Метод коммита группы: любая задача потока базы данных сначала выполняет накопленные записи.
+     * Записи, поставленные после этого, выполняются сразу, без окна
+     */
+    private void flush() throws Exception {
+        manager.setGroupCommit(0, 1);
+        manager.insertEntriesAsync(Collections.emptyList()).get(10, TimeUnit.SECONDS);
+    }
+}
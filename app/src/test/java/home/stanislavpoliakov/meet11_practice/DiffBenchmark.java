@@ -0,0 +1,71 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import android.support.v7.util.DiffUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH: расчет различий слепков списка (DiffCall + DiffUtil), как в MyAdapter.onNewData. Новый
+ * слепок получается из старого изменением доли editRatio записей: поровну изменений содержания,
+ * удалений и вставок в случайных местах
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiffBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int size;
+
+    @Param({"0.0", "0.01", "0.1", "0.5"})
+    public double editRatio;
+
+    @Param({"false", "true"})
+    public boolean detectMoves;
+
+    private List<Entry> oldData, newData;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        oldData = new ArrayList<>(size);
+        for (int id = 1; id <= size; id++) oldData.add(entry(random, id));
+
+        newData = new ArrayList<>(oldData);
+        int nextId = size + 1;
+        int edits = (int) (size * editRatio);
+        for (int i = 0; i < edits; i++) {
+            switch (i % 3) {
+                case 0:
+                    int position = random.nextInt(newData.size());
+                    newData.set(position, entry(random, newData.get(position).getId()));
+                    break;
+                case 1:
+                    if (!newData.isEmpty()) newData.remove(random.nextInt(newData.size()));
+                    break;
+                default:
+                    newData.add(random.nextInt(newData.size() + 1), entry(random, nextId++));
+            }
+        }
+    }
+
+    @Benchmark
+    public DiffUtil.DiffResult calculateDiff() {
+        return DiffUtil.calculateDiff(new DiffCall(oldData, newData), detectMoves);
+    }
+
+    private static Entry entry(Random random, int id) {
+        return new Entry("Title " + random.nextInt(), ConvertBenchmark.text(random, 100), id);
+    }
+}
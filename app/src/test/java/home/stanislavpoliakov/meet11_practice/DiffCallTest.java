@@ -0,0 +1,50 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Проверка DiffCall: payload содержит флаги именно тех полей, которые изменились, а при
+ * отключенных payload элемент перерисовывается целиком (null)
+ */
+public class DiffCallTest {
+    private static final Entry ENTRY = entry("title", "text", 1000);
+
+    @Test
+    public void payloadHasChangedFields() {
+        assertEquals(DiffCall.CHANGED_TITLE, payload(entry("renamed", "text", 1000)));
+        assertEquals(DiffCall.CHANGED_BODY, payload(entry("title", "edited", 1000)));
+        assertEquals(DiffCall.CHANGED_METADATA, payload(entry("title", "text", 2000)));
+        assertEquals(DiffCall.CHANGED_ALL, payload(entry("renamed", "edited", 2000)));
+    }
+
+    @Test
+    public void sameContentsHaveNoChanges() {
+        DiffCall call = new DiffCall(Collections.singletonList(ENTRY),
+                Collections.singletonList(entry("title", "text", 1000)));
+        assertTrue(call.areItemsTheSame(0, 0));
+        assertTrue(call.areContentsTheSame(0, 0));
+    }
+
+    @Test
+    public void payloadsCanBeDisabled() {
+        DiffCall call = new DiffCall(Collections.singletonList(ENTRY),
+                Collections.singletonList(entry("renamed", "text", 1000)), false);
+        assertFalse(call.areContentsTheSame(0, 0));
+        assertNull(call.getChangePayload(0, 0));
+    }
+
+    private static Object payload(Entry newEntry) {
+        DiffCall call = new DiffCall(Arrays.asList(ENTRY), Arrays.asList(newEntry));
+        assertFalse(call.areContentsTheSame(0, 0));
+        return call.getChangePayload(0, 0);
+    }
+
+    private static Entry entry(String title, String text, long timeStamp) {
+        return new Entry(1, title, text, null, Entry.makePreview(text), timeStamp, null);
+    }
+}
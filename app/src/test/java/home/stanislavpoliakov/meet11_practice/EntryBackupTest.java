@@ -0,0 +1,91 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Проверка формата резервной копии EntryBackup: запись и чтение порциями, пустая копия, отказ от
+ * чтения чужого, обрезанного и поврежденного потока
+ */
+public class EntryBackupTest {
+
+    @Test
+    public void writeAndReadInBatches() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            Entry entry = new Entry("title " + i, (i % 5 == 0) ? null : "текст записи " + i + " 😀");
+            entry.setTimeStamp(1_500_000_000_000L + i);
+            entries.add(entry);
+        }
+        entries.add(new Entry(null, ""));
+
+        byte[] backup = write(entries);
+        EntryBackup.Reader reader = new EntryBackup.Reader(new ByteArrayInputStream(backup));
+        List<Entry> read = new ArrayList<>();
+        List<Entry> batch;
+        int batches = 0;
+        while (!(batch = reader.read(10)).isEmpty()) {
+            assertTrue(batch.size() <= 10);
+            read.addAll(batch);
+            batches++;
+        }
+
+        assertEquals(3, batches);
+        assertEquals(entries.size(), reader.getCount());
+        assertEquals(backup.length, reader.getBytes());
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(entries.get(i).getTitle(), read.get(i).getTitle());
+            assertEquals(entries.get(i).getText(), read.get(i).getText());
+            assertEquals(entries.get(i).getTimeStamp(), read.get(i).getTimeStamp());
+            assertEquals(0, read.get(i).getId());
+        }
+        assertTrue(reader.read(10).isEmpty());
+    }
+
+    @Test
+    public void emptyBackup() throws IOException {
+        byte[] backup = write(new ArrayList<>());
+        EntryBackup.Reader reader = new EntryBackup.Reader(new ByteArrayInputStream(backup));
+        assertTrue(reader.read(10).isEmpty());
+        assertEquals(0, reader.getCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsForeignStream() throws IOException {
+        new EntryBackup.Reader(new ByteArrayInputStream("SQLite format 3".getBytes()));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedStream() throws IOException {
+        byte[] backup = write(Arrays.asList(new Entry("a", "b"), new Entry("c", "d")));
+        EntryBackup.Reader reader = new EntryBackup.Reader(
+                new ByteArrayInputStream(Arrays.copyOf(backup, backup.length - 12)));
+        reader.read(10);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCorruptLength() throws IOException {
+        byte[] backup = write(Arrays.asList(new Entry("a", "b")));
+        // Заголовок (8 байт), маркер (1), timestamp (8) - затем длина названия
+        backup[17] = 0x7F;
+        new EntryBackup.Reader(new ByteArrayInputStream(backup)).read(10);
+    }
+
+    private static byte[] write(List<Entry> entries) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EntryBackup.Writer writer = new EntryBackup.Writer(out);
+        for (Entry entry : entries) writer.write(entry);
+        writer.finish();
+        assertEquals(entries.size(), writer.getCount());
+        assertEquals(out.size(), writer.getBytes());
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,97 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Проверка EntryCompression: сжатие и распаковка со словарем и без, выигрыш от обученного словаря,
+ * короткие тексты не сжимаются, поврежденные данные и неизвестный словарь не читаются.
+ * Robolectric нужен для Log (ошибки распаковки пишутся в лог)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class EntryCompressionTest {
+    private static final String[] WORDS = {"заметка", "встреча", "завтра", "купить", "позвонить",
+            "проект", "отчет", "note", "meeting", "tomorrow", "список", "дела", "важно", "ёлка"};
+
+    @Test
+    public void roundTripWithoutDictionary() {
+        String text = notes(new Random(1), 4000);
+        byte[] compressed = EntryCompression.compress(text, 0);
+        assertNotNull(compressed);
+        assertTrue(compressed.length < text.length());
+        assertEquals(text, EntryCompression.decompress(compressed));
+    }
+
+    @Test
+    public void trainedDictionaryImprovesRatio() {
+        Random random = new Random(2);
+        List<String> samples = new ArrayList<>();
+        for (int i = 0; i < 100; i++) samples.add(notes(random, 2000));
+        byte[] dictionary = EntryCompression.train(samples, EntryCompression.MAX_DICTIONARY_SIZE);
+        assertTrue(dictionary.length > 0);
+        assertTrue(dictionary.length <= EntryCompression.MAX_DICTIONARY_SIZE);
+        EntryCompression.register(100, dictionary);
+
+        String text = notes(random, 1200);
+        byte[] plain = EntryCompression.compress(text, 0);
+        byte[] withDictionary = EntryCompression.compress(text, 100);
+        assertTrue(withDictionary.length + " vs " + plain.length, withDictionary.length < plain.length);
+        assertEquals(text, EntryCompression.decompress(withDictionary));
+    }
+
+    @Test
+    public void entryIsCompressedOnlyAboveThreshold() {
+        Entry small = new Entry("title", notes(new Random(3), EntryCompression.COMPRESS_THRESHOLD - 1));
+        assertFalse(EntryCompression.compressIfLarge(small));
+        assertNull(small.getDeflatedText());
+
+        String text = notes(new Random(4), 3000);
+        Entry large = new Entry("title", text);
+        assertTrue(EntryCompression.compressIfLarge(large));
+        assertNull(large.getStoredText());
+
+        // Запись, прочитанная из базы, распаковывает текст только при обращении к getText()
+        Entry read = new Entry(1, "title", null, null, large.getPreview(), 0, large.getDeflatedText());
+        assertEquals(Entry.makePreview(text), read.getPreview());
+        assertEquals(text, read.getText());
+    }
+
+    @Test
+    public void damagedDataIsNotRead() {
+        byte[] compressed = EntryCompression.compress(notes(new Random(5), 2000), 0);
+
+        byte[] unknownFormat = compressed.clone();
+        unknownFormat[0] = 42;
+        assertNull(EntryCompression.decompress(unknownFormat));
+
+        byte[] unknownDictionary = compressed.clone();
+        unknownDictionary[1] = (byte) 0xFF;
+        unknownDictionary[2] = (byte) 0xFE;
+        assertNull(EntryCompression.decompress(unknownDictionary));
+
+        assertNull(EntryCompression.decompress(Arrays.copyOf(compressed, compressed.length / 2)));
+    }
+
+    /**
+     * @return текст заданной длины из слов небольшого словаря с пунктуацией, похожий на заметки
+     */
+    private static String notes(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+            text.append(random.nextInt(8) == 0 ? ".\n" : " ");
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+}
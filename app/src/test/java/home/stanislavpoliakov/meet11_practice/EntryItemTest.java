@@ -0,0 +1,45 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * Проверка EntryItem: модель содержит готовые строки записи, дата не сохраненной записи пустая,
+ * модель переиспользуется только для того же объекта записи. Robolectric нужен для DateUtils
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class EntryItemTest {
+
+    @Test
+    public void itemHoldsDisplayStrings() {
+        Entry entry = new Entry(7, "title", "text", null, Entry.makePreview("text"), 1_500_000_000_000L, null);
+        EntryItem item = EntryItem.create(entry, RuntimeEnvironment.application, null);
+
+        assertEquals(7, item.getId());
+        assertEquals("title", item.getTitle());
+        assertEquals(entry.getPreview(), item.getBody().toString());
+        assertFalse(item.getTimeStamp().isEmpty());
+        assertSame(entry, item.getEntry());
+    }
+
+    @Test
+    public void unsavedEntryHasNoTimeStamp() {
+        EntryItem item = EntryItem.create(new Entry("title", "text"), RuntimeEnvironment.application, null);
+        assertEquals("", item.getTimeStamp());
+    }
+
+    @Test
+    public void itemIsReusedOnlyForSameEntry() {
+        Entry entry = new Entry(1, "title", "text", null, Entry.makePreview("text"), 1, null);
+        EntryItem item = EntryItem.create(entry, RuntimeEnvironment.application, null);
+
+        assertTrue(item.isBuiltFor(entry, null));
+        assertFalse(item.isBuiltFor(new Entry(1, "title", "text", null, entry.getPreview(), 1, null), null));
+    }
+}
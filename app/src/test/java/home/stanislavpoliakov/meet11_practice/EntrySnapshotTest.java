@@ -0,0 +1,81 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Проверка EntrySnapshot: запись и чтение снимка, замена старого снимка и отказ от чтения
+ * отсутствующего, обрезанного или испорченного файла
+ */
+public class EntrySnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writeAndRead() throws IOException {
+        File file = new File(folder.getRoot(), "snapshot");
+        List<Entry> entries = Arrays.asList(
+                new Entry(1, "first", null, null, "preview", 1_500_000_000_000L),
+                new Entry(5, null, null, null, null, 0),
+                new Entry(9, "Заметка 😀", null, null, "текст превью", 42));
+        EntrySnapshot.write(file, entries);
+
+        List<Entry> read = EntrySnapshot.read(file);
+        assertEquals(entries.size(), read.size());
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(entries.get(i).getId(), read.get(i).getId());
+            assertEquals(entries.get(i).getTitle(), read.get(i).getTitle());
+            assertEquals(entries.get(i).getPreview(), read.get(i).getPreview());
+            assertEquals(entries.get(i).getTimeStamp(), read.get(i).getTimeStamp());
+        }
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void replacesPreviousSnapshot() throws IOException {
+        File file = new File(folder.getRoot(), "snapshot");
+        List<Entry> entries = new ArrayList<>();
+        for (int id = 1; id <= 100; id++) entries.add(new Entry(id, "title" + id, null, null, "text" + id, id));
+        EntrySnapshot.write(file, entries);
+        EntrySnapshot.write(file, entries.subList(0, 3));
+
+        List<Entry> read = EntrySnapshot.read(file);
+        assertEquals(3, read.size());
+        assertEquals("title3", read.get(2).getTitle());
+    }
+
+    @Test
+    public void missingFileIsEmpty() throws IOException {
+        assertTrue(EntrySnapshot.read(new File(folder.getRoot(), "missing")).isEmpty());
+    }
+
+    @Test
+    public void damagedFileIsEmpty() throws IOException {
+        File file = new File(folder.getRoot(), "snapshot");
+        EntrySnapshot.write(file, Arrays.asList(new Entry(1, "title", null, null, "preview", 1)));
+        long length = file.length();
+
+        // Испорченный байт данных: не совпадает контрольная сумма
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(length - 1);
+            out.write('x');
+        }
+        assertTrue(EntrySnapshot.read(file).isEmpty());
+
+        // Обрезанный файл (запись прервалась бы на временном файле, но проверим и это)
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(length / 2);
+        }
+        assertTrue(EntrySnapshot.read(file).isEmpty());
+    }
+}
@@ -0,0 +1,58 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Проверка Histogram: точные малые значения, погрешность процентилей не больше 1/16 и сброс
+ */
+public class HistogramTest {
+
+    @Test
+    public void smallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int value = 1; value <= 10; value++) histogram.record(value);
+
+        assertEquals(10, histogram.getCount());
+        assertEquals(5, histogram.getPercentile(50));
+        assertEquals(10, histogram.getPercentile(100));
+        assertEquals(10, histogram.getMax());
+        assertEquals(5.5, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void percentileErrorIsBounded() {
+        Histogram histogram = new Histogram();
+        for (int value = 1; value <= 1_000_000; value++) histogram.record(value);
+
+        for (double percentile : new double[] {50, 90, 99, 99.9}) {
+            long expected = (long) (1_000_000 * percentile / 100);
+            long actual = histogram.getPercentile(percentile);
+            assertTrue(percentile + ": " + actual, actual >= expected);
+            assertTrue(percentile + ": " + actual, actual <= expected + expected / 16);
+        }
+        assertEquals(1_000_000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void negativeAndHugeValues() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE / 2);
+
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(Long.MAX_VALUE / 2, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void reset() {
+        Histogram histogram = new Histogram();
+        histogram.record(42);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+}
@@ -0,0 +1,84 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Проверка IntIntMap: базовые операции и сравнение со стандартным HashMap на случайной
+ * последовательности операций (в том числе удалений внутри цепочек и роста таблицы)
+ */
+public class IntIntMapTest {
+    private static final int MISSING = -1;
+
+    @Test
+    public void putGetRemove() {
+        IntIntMap map = new IntIntMap(4);
+        map.put(10, 1);
+        map.put(20, 2);
+        map.put(10, 3);
+
+        assertEquals(2, map.size());
+        assertEquals(3, map.get(10, MISSING));
+        assertEquals(2, map.get(20, MISSING));
+        assertEquals(MISSING, map.get(30, MISSING));
+
+        assertTrue(map.remove(10));
+        assertFalse(map.remove(10));
+        assertEquals(MISSING, map.get(10, MISSING));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void zeroKey() {
+        IntIntMap map = new IntIntMap(4);
+        assertFalse(map.containsKey(0));
+        map.put(0, 7);
+        assertTrue(map.containsKey(0));
+        assertEquals(7, map.get(0, MISSING));
+        assertEquals(1, map.size());
+        assertTrue(map.remove(0));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void growsAndClears() {
+        IntIntMap map = new IntIntMap(1);
+        for (int id = 1; id <= 10_000; id++) map.put(id, id - 1);
+        assertEquals(10_000, map.size());
+        for (int id = 1; id <= 10_000; id++) assertEquals(id - 1, map.get(id, MISSING));
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(MISSING, map.get(1, MISSING));
+    }
+
+    @Test
+    public void matchesHashMap() {
+        Random random = new Random(42);
+        IntIntMap map = new IntIntMap(8);
+        Map<Integer, Integer> expected = new HashMap<>();
+
+        for (int i = 0; i < 100_000; i++) {
+            int key = random.nextInt(512) - 16;
+            switch (random.nextInt(3)) {
+                case 0:
+                    int value = random.nextInt();
+                    map.put(key, value);
+                    expected.put(key, value);
+                    break;
+                case 1:
+                    assertEquals(expected.remove(key) != null, map.remove(key));
+                    break;
+                default:
+                    Integer stored = expected.get(key);
+                    assertEquals(stored == null ? MISSING : stored, map.get(key, MISSING));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+/**
+ * Запуск JMH-бенчмарков (*Benchmark) на JVM. Классы платформы (Cursor, ContentValues, SQLite,
+ * Looper) на JVM есть только внутри Robolectric, поэтому JMH запускается из теста Robolectric без
+ * отдельной JVM (forks = 0): бенчмарки загружаются тем же загрузчиком классов, что и тест.
+ * Абсолютные значения поэтому отличаются от устройства; их назначение - сравнение между коммитами.
+ *
+ * При обычном прогоне тестов пропускается. Запуск:
+ * ./gradlew :app:testDebugUnitTest --tests '*JvmBenchmarks' -Pjmh [-Pjmh.include=Diff]
+ * Результаты (JSON) - в app/build/reports/jmh/results-<коммит>.json
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class JvmBenchmarks {
+
+    @Test
+    public void run() throws RunnerException {
+        String results = System.getProperty("jmh.results");
+        Assume.assumeTrue(results != null);
+        new File(results).getParentFile().mkdirs();
+
+        // Создаем DatabaseManager в главном потоке, как при запуске приложения, и ждем открытия
+        // базы, чтобы оно не попало в измерения первого бенчмарка
+        DatabaseManager.getInstance(RuntimeEnvironment.application).whenOpened().join();
+
+        new Runner(new OptionsBuilder()
+                .include(getClass().getPackage().getName() + ".*"
+                        + System.getProperty("jmh.include", "") + ".*Benchmark")
+                .forks(0)
+                .resultFormat(ResultFormatType.JSON)
+                .result(results)
+                .shouldFailOnError(true)
+                .build()).run();
+    }
+}
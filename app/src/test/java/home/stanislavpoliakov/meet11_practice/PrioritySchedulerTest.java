@@ -0,0 +1,172 @@
+package home.stanislavpoliakov.meet11_practice;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import home.stanislavpoliakov.meet11_practice.PriorityScheduler.Overflow;
+import home.stanislavpoliakov.meet11_practice.PriorityScheduler.Priority;
+
+import static org.junit.Assert.*;
+
+/**
+ * Проверка PriorityScheduler: порядок выполнения по классам, защита низшего класса от голодания,
+ * отказ и ожидание места в заполненной очереди (в том числе занятой резервом), ошибка задачи не
+ * останавливает поток. Robolectric нужен для Looper и Log: поток теста - это UI-Thread, поэтому
+ * ожидание места проверяется из отдельного потока
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class PrioritySchedulerTest {
+    private final List<String> order = Collections.synchronizedList(new ArrayList<>());
+    private final PriorityScheduler scheduler = new PriorityScheduler(1, Thread::new, 64, 5000);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void higherClassRunsFirst() throws Exception {
+        scheduler.execute(Priority.BULK, () -> order.add("bulk"));
+        scheduler.execute(Priority.PROVIDER, () -> order.add("provider"));
+        scheduler.execute(Priority.INTERACTIVE, () -> order.add("interactive1"));
+        scheduler.execute(Priority.INTERACTIVE, () -> order.add("interactive2"));
+        scheduler.start();
+        await(Priority.BULK);
+
+        assertEquals(4, order.size());
+        assertEquals("interactive1", order.get(0));
+        assertEquals("interactive2", order.get(1));
+        assertEquals("provider", order.get(2));
+        assertEquals("bulk", order.get(3));
+    }
+
+    @Test
+    public void lowerClassIsNotStarved() throws Exception {
+        scheduler.execute(Priority.BULK, () -> order.add("bulk"));
+        for (int i = 0; i < 40; i++) scheduler.execute(Priority.INTERACTIVE, () -> order.add("interactive"));
+        scheduler.start();
+        await(Priority.INTERACTIVE);
+
+        int position = order.indexOf("bulk");
+        assertTrue("bulk ran at " + position, position > 0 && position < 40);
+    }
+
+    @Test
+    public void failedTaskDoesNotStopThread() throws Exception {
+        scheduler.execute(Priority.INTERACTIVE, () -> {
+            throw new IllegalStateException("disk full");
+        });
+        scheduler.execute(Priority.INTERACTIVE, () -> order.add("after"));
+        scheduler.start();
+        await(Priority.INTERACTIVE);
+
+        assertEquals(Collections.singletonList("after"), order);
+    }
+
+    @Test
+    public void rejectsWhenFull() {
+        scheduler.configure(Priority.INTERACTIVE, 2, Overflow.REJECT);
+        scheduler.execute(Priority.INTERACTIVE, () -> {});
+        scheduler.execute(Priority.INTERACTIVE, () -> {});
+        try {
+            scheduler.execute(Priority.INTERACTIVE, () -> {});
+            fail("Queue limit is 2");
+        } catch (RejectedExecutionException expected) {
+            assertEquals(2, scheduler.getQueueDepth(Priority.INTERACTIVE));
+        }
+
+        // Другие классы и отложенные задачи ограничение INTERACTIVE не касается
+        scheduler.execute(Priority.PROVIDER, () -> {});
+        scheduler.schedule(Priority.INTERACTIVE, () -> {}, 0, TimeUnit.MILLISECONDS);
+        assertEquals(3, scheduler.getQueueDepth(Priority.INTERACTIVE));
+    }
+
+    @Test
+    public void reservationsCountAgainstLimit() {
+        scheduler.configure(Priority.PROVIDER, 2, Overflow.REJECT);
+        scheduler.reserve(Priority.PROVIDER);
+        scheduler.execute(Priority.PROVIDER, () -> {});
+        assertEquals(2, scheduler.getQueueDepth(Priority.PROVIDER));
+        try {
+            scheduler.reserve(Priority.PROVIDER);
+            fail("Queue limit is 2");
+        } catch (RejectedExecutionException expected) {
+            assertEquals(2, scheduler.getQueueDepth(Priority.PROVIDER));
+        }
+
+        scheduler.release(Priority.PROVIDER, 1);
+        scheduler.execute(Priority.PROVIDER, () -> {});
+        assertEquals(2, scheduler.getQueueDepth(Priority.PROVIDER));
+    }
+
+    @Test
+    public void blockWaitsForSpace() throws Exception {
+        scheduler.configure(Priority.BULK, 1, Overflow.BLOCK);
+        scheduler.execute(Priority.BULK, () -> order.add("first"));
+
+        CountDownLatch submitting = new CountDownLatch(1);
+        CompletableFuture<Void> second = CompletableFuture.runAsync(() -> {
+            submitting.countDown();
+            scheduler.execute(Priority.BULK, () -> order.add("second"));
+        });
+        submitting.await();
+        Thread.sleep(50);
+        assertFalse(second.isDone());
+
+        scheduler.start();
+        second.get(5, TimeUnit.SECONDS);
+        await(Priority.BULK);
+        assertEquals(2, order.size());
+    }
+
+    @Test
+    public void blockTimesOut() throws Exception {
+        scheduler.configure(Priority.BULK, 1, Overflow.BLOCK);
+        scheduler.setBlockTimeout(50);
+        scheduler.execute(Priority.BULK, () -> {});
+
+        CompletableFuture<Void> second = CompletableFuture.runAsync(
+                () -> scheduler.execute(Priority.BULK, () -> {}));
+        try {
+            second.get(5, TimeUnit.SECONDS);
+            fail("Queue is full and not drained");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void mainThreadDoesNotBlock() {
+        scheduler.configure(Priority.BULK, 1, Overflow.BLOCK);
+        scheduler.execute(Priority.BULK, () -> {});
+        long started = System.nanoTime();
+        try {
+            scheduler.execute(Priority.BULK, () -> {});
+            fail("Queue is full");
+        } catch (RejectedExecutionException expected) {
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 1000);
+        }
+    }
+
+    /**
+     * Метод ожидания выполнения всех задач, поставленных раньше: задача-метка класса priority
+     */
+    private void await(Priority priority) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.execute(priority, done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}